@@ -13,20 +13,85 @@
 // * Encapsulate analysis-level variation in handling of branches (medium)
 // * Performance/algorithmic optimizations (medium)
 // * Add tests (minor consequences, unless major errors revealed)
+import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.lang.management.ManagementFactory;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.function.UnaryOperator; 
 import java.util.function.BinaryOperator; 
-import java.util.LinkedList;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
 import ghidra.app.script.GhidraScript;
+import ghidra.app.decompiler.DecompInterface;
+import ghidra.app.decompiler.DecompileResults;
 import ghidra.program.disassemble.Disassembler;
+import ghidra.program.disassemble.DisassemblerMessageListener;
 import ghidra.program.model.lang.Language;
 import ghidra.program.model.lang.Register;
+import ghidra.program.model.address.AddressRange;
+import ghidra.program.model.address.AddressSet;
 import ghidra.program.model.address.AddressSetView;
 import ghidra.program.model.listing.*;
+import ghidra.program.model.mem.Memory;
+import ghidra.program.model.mem.MemoryAccessException;
+import ghidra.program.model.mem.MemoryBlock;
+import ghidra.program.model.pcode.HighFunction;
 import ghidra.program.model.pcode.PcodeOp;
 import ghidra.program.model.pcode.Varnode;
 import ghidra.program.model.pcode.VarnodeTranslator;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
 import ghidra.app.services.ConsoleService;
 import ghidra.framework.plugintool.PluginTool;
 
@@ -45,11 +110,267 @@ import ghidra.pcode.opbehavior.UnaryOpBehavior;
 // classes outside of that need to access the ConsoleService object. Basically
 // we just set the ConsoleService variable from the GhidraScript-derivative,
 // and then we can call Printer.println() from other classes.
+//
+// println() writes synchronously, which is fine for reports, but not for 
+// messages that can fire once per pcode operation: console rendering then 
+// dominates the run. Those go to an asynchronous Diagnostics sink instead. 
+// Each analysis has its own (see TVLAbstractGhidraState.Diag), so that two of
+// them running at once don't interleave their messages or share rate limits;
+// Async() is only the fallback for states that weren't given one.
 final class Printer {
 	private Printer() {};
 	static ConsoleService con;
+	private static volatile Diagnostics Async;
 	static void Set(ConsoleService c) { con = c; }
-	static void println(String s) { con.println(s); }
+	
+	// Outside of a script (e.g. replaying a trace headless), there is no 
+	// console, so fall back upon stdout.
+	static void println(String s) 
+	{ 
+		if(con != null)
+			con.println(s);
+		else
+			System.out.println(s);
+	}
+	
+	// The sink is created upon first use, printing to the console.
+	static Diagnostics Async()
+	{
+		Diagnostics d = Async;
+		if(d == null)
+		{
+			synchronized(Printer.class)
+			{
+				if(Async == null)
+					Async = new Diagnostics(Printer::println);
+				d = Async;
+			}
+		}
+		return d;
+	}
+}
+
+// An asynchronous sink for diagnostic messages. Posting a message never 
+// blocks and never formats anything: the key and detail object go into a 
+// bounded, lock-free ring buffer, and a daemon thread turns them into text 
+// and writes them out. If the buffer is full, the message is dropped and 
+// counted, and the count is written out later.
+// 
+// Two kinds of messages:
+// * Report(key, detail): the drainer writes at most PerKeyLimit messages 
+//   with a given key per Window, and afterwards prints how many it 
+//   suppressed. Use this for warnings that might fire repeatedly.
+// * Log(key, detail): written in full, except that consecutive identical 
+//   messages are coalesced into one with a repeat count. Use this for 
+//   debug output that was explicitly asked for.
+class Diagnostics implements AutoCloseable {
+	static final int Capacity = 1 << 14;
+	static final int PerKeyLimit = 10;
+	static final long WindowNanos = 1_000_000_000L;
+	
+	static final class Message {
+		final String Key;
+		final Object Detail;
+		final boolean Limited;
+		Message(String key, Object detail, boolean limited) { Key = key; Detail = detail; Limited = limited; }
+		String Text() { return Detail == null ? Key : Key+": "+Detail; }
+	}
+	
+	// The ring buffer. Producers claim slot Tail by CAS and then publish the
+	// message into it; the single consumer takes slot Head once it's non-null.
+	final AtomicReferenceArray<Message> Slots = new AtomicReferenceArray<>(Capacity);
+	final AtomicLong Tail = new AtomicLong();
+	volatile long Head;
+	final LongAdder Dropped = new LongAdder();
+	
+	// Head frees the slot as soon as the message is taken out, before it's 
+	// written. Written only moves once every message before it is really 
+	// out, with any run of repeats ended, which is what Flush() waits for; 
+	// FlushTo is how far the latest Flush() wants it to get.
+	volatile long Written;
+	final AtomicLong FlushTo = new AtomicLong();
+	
+	final java.util.function.Consumer<String> Out;
+	final Thread Drainer;
+	volatile boolean Closing;
+	
+	// State of the drainer thread only.
+	final HashMap<String,long[]> WindowCounts = new HashMap<>(); // key -> { written, suppressed }
+	long WindowStart;
+	String LastText;
+	long LastRepeats;
+	long DroppedReported;
+	
+	public Diagnostics(java.util.function.Consumer<String> out)
+	{
+		Out = out;
+		Drainer = new Thread(this::Drain, "TVL diagnostics");
+		Drainer.setDaemon(true);
+		Drainer.start();
+	}
+	
+	// Write to a file instead of the console.
+	public static Diagnostics ToFile(File f) throws IOException
+	{
+		java.io.BufferedWriter w = java.nio.file.Files.newBufferedWriter(f.toPath(), StandardCharsets.UTF_8);
+		return new Diagnostics(line -> {
+			try {
+				w.write(line);
+				w.newLine();
+			}
+			catch(IOException e) {}
+		}) {
+			@Override
+			void Idle()
+			{
+				try { w.flush(); } catch(IOException e) {}
+			}
+			@Override
+			public void close()
+			{
+				super.close();
+				try { w.close(); } catch(IOException e) {}
+			}
+		};
+	}
+	
+	boolean Post(Message m)
+	{
+		while(true)
+		{
+			long t = Tail.get();
+			if(t - Head >= Capacity)
+			{
+				Dropped.increment();
+				return false;
+			}
+			if(Tail.compareAndSet(t, t + 1))
+			{
+				Slots.lazySet((int)(t & (Capacity - 1)), m);
+				return true;
+			}
+		}
+	}
+	
+	public void Report(String key, Object detail) { Post(new Message(key, detail, true)); }
+	public void Log(String key, Object detail)    { Post(new Message(key, detail, false)); }
+	
+	// Called by the drainer when it has nothing to do.
+	void Idle() {}
+	
+	void Drain()
+	{
+		WindowStart = System.nanoTime();
+		while(true)
+		{
+			long h = Head;
+			Message m = h < Tail.get() ? Slots.get((int)(h & (Capacity - 1))) : null;
+			if(m != null)
+			{
+				Slots.lazySet((int)(h & (Capacity - 1)), null);
+				Head = h + 1;
+				Write(m);
+				// Someone is waiting for this message, and more keep coming, so
+				// I can't wait to be idle.
+				if(h + 1 >= FlushTo.get() && Written < FlushTo.get())
+				{
+					EndRun();
+					Idle();
+					Written = h + 1;
+				}
+				continue;
+			}
+			// Either there's nothing, or a producer has claimed the slot and is 
+			// about to fill it in.
+			if(h == Tail.get())
+			{
+				EndRun();
+				RollWindow(true);
+				Idle();
+				Written = h;
+				if(Closing)
+					return;
+				java.util.concurrent.locks.LockSupport.parkNanos(1_000_000L);
+			}
+			else
+				Thread.onSpinWait();
+		}
+	}
+	
+	void Write(Message m)
+	{
+		RollWindow(false);
+		if(m.Limited)
+		{
+			long[] c = WindowCounts.computeIfAbsent(m.Key, k -> new long[2]);
+			if(c[0] >= PerKeyLimit)
+			{
+				c[1]++;
+				return;
+			}
+			c[0]++;
+		}
+		String text = m.Text();
+		if(text.equals(LastText))
+		{
+			LastRepeats++;
+			return;
+		}
+		EndRun();
+		Out.accept(text);
+		LastText = text;
+	}
+	
+	// Finish a run of identical messages.
+	void EndRun()
+	{
+		if(LastRepeats > 0)
+			Out.accept("  (last message repeated "+LastRepeats+" more times)");
+		LastRepeats = 0;
+		LastText = null;
+	}
+	
+	// At the end of each window, say what was suppressed or dropped.
+	void RollWindow(boolean idle)
+	{
+		long now = System.nanoTime();
+		if(now - WindowStart < WindowNanos && !(idle && Closing))
+			return;
+		EndRun();
+		for(Map.Entry<String,long[]> e : WindowCounts.entrySet())
+			if(e.getValue()[1] > 0)
+				Out.accept(e.getKey()+": "+e.getValue()[1]+" more messages suppressed");
+		WindowCounts.clear();
+		long dropped = Dropped.sum();
+		if(dropped != DroppedReported)
+		{
+			Out.accept("Diagnostics: "+(dropped - DroppedReported)+" messages dropped (buffer full)");
+			DroppedReported = dropped;
+		}
+		WindowStart = now;
+	}
+	
+	// Wait until everything posted before this call has been written, 
+	// repeat counts included.
+	public void Flush()
+	{
+		long t = Tail.get();
+		FlushTo.accumulateAndGet(t, Math::max);
+		while(Written < t && Drainer.isAlive())
+			java.util.concurrent.locks.LockSupport.parkNanos(1_000_000L);
+	}
+	
+	@Override
+	public void close()
+	{
+		Closing = true;
+		try {
+			Drainer.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
 }
 
 // Does Java really not ship with generic pairs or tuples? That seems like an
@@ -61,6 +382,19 @@ class Pair<X, Y> {
 		this.x = x; 
 		this.y = y; 
 	} 
+	
+	// So that pairs can be used as keys.
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof Pair))
+			return false;
+		Pair<?,?> p = (Pair<?,?>)o;
+		return Objects.equals(x, p.x) && Objects.equals(y, p.y);
+	}
+	@Override
+	public int hashCode() {
+		return Objects.hash(x, y);
+	}
 } 
 
 // Below we define a generic visitor class that can be used to visit pcode 
@@ -102,6 +436,12 @@ class PcodeOpVisitor<T> {
 	// its associated logic implemented.
 	void VisitorUnimplemented(String s) throws VisitorUnimplementedException
 	{
+		VisitorUnimplementedEvent e = new VisitorUnimplementedEvent();
+		if(e.isEnabled())
+		{
+			e.What = s;
+			e.commit();
+		}
 		throw new VisitorUnimplementedException("Visitor did not implement "+s);
 	}
 	
@@ -387,14 +727,37 @@ class TVLBitVector {
 	public static final byte TVL_HALF = 1;
 	public static final byte TVL_1    = 2;
 	
-	// The raw array of 3-valued quantities.
-	byte AbsValue[];
+	// The raw array of 3-valued quantities. It's never modified after the 
+	// constructor, and never handed out, so a TVLBitVector is a value that can
+	// be shared freely, including between threads, without copying it.
+	private final byte[] AbsValue;
 	
-	// These methods are just a reflection of my lack of understanding of the 
-	// Java philosophy of best practices of object-oriented design. It's a sort 
-	// of schizophrenic mixture of encapsulation-and-data-hiding-but-not-really.
 	public int Size() { return AbsValue.length; }
-	public byte[] Value() { return AbsValue; }
+	
+	// The trit at position i (0 being the least significant).
+	public byte Get(int i) { return AbsValue[i]; }
+	
+	// The trits, in a new array that the caller can do what it likes with.
+	public byte[] ToArray() { return AbsValue.clone(); }
+	
+	// Copy n trits, starting at position from, into dst at dstPos.
+	public void CopyTo(int from, byte[] dst, int dstPos, int n)
+	{
+		System.arraycopy(AbsValue, from, dst, dstPos, n);
+	}
+	
+	// The trits in positions [from, to), as a new bitvector.
+	public TVLBitVector Slice(int from, int to)
+	{
+		return new TVLBitVector(Arrays.copyOfRange(AbsValue, from, to), true);
+	}
+	
+	// The eight trits starting at position i, one per byte (little-endian), 
+	// for the word-parallel kernels in TVLWideKernels.
+	long Lanes(int i)
+	{
+		return (long)TVLWideKernels.Longs.get(AbsValue, i);
+	}
 	
 	// If there are no 1/2 bits, and the constant fits in a long, get the value
 	// and bit size.
@@ -408,16 +771,62 @@ class TVLBitVector {
 			if(AbsValue[i] == TVL_HALF)
 				return null;
 			if(AbsValue[i] == TVL_1)
-				val |= 1 << i;
+				val |= 1L << i;
 		}
 		return new Pair(AbsValue.length,val);
 	}
 	
-	// Set every bit to 1/2.
-	void MakeTop()
+	// If there are no 1/2 bits, get the value, however wide the bitvector is.
+	public BigInteger GetConstantBigValue()
+	{
+		byte[] mag = new byte[(AbsValue.length + 7) / 8];
+		for(int i = 0; i < AbsValue.length; i++) {
+			if(AbsValue[i] == TVL_HALF)
+				return null;
+			if(AbsValue[i] == TVL_1)
+				mag[mag.length - 1 - i/8] |= 1 << (i & 7);
+		}
+		return new BigInteger(1, mag);
+	}
+	
+	// If the bitvector fits in a long, get the smallest and largest unsigned
+	// values that it could possibly represent: all 1/2 bits set to 0 for the 
+	// former, and all set to 1 for the latter.
+	public Pair<Long,Long> GetUnsignedBounds()
+	{
+		if(AbsValue.length > 64)
+			return null;
+
+		long lo = 0, hi = 0;
+		for(int i = 0; i < AbsValue.length; i++) {
+			if(AbsValue[i] == TVL_1)
+				lo |= 1L << i;
+			if(AbsValue[i] != TVL_0)
+				hi |= 1L << i;
+		}
+		return new Pair<Long,Long>(lo,hi);
+	}
+	
+	// Are all of the bits 1/2?
+	public boolean IsAllTop()
 	{
 		for(int i = 0; i < AbsValue.length; i++)
-			AbsValue[i] = TVL_HALF;
+			if(AbsValue[i] != TVL_HALF)
+				return false;
+		return true;
+	}
+	
+	// Two bitvectors are equal if they have the same trits.
+	@Override
+	public boolean equals(Object o)
+	{
+		return o instanceof TVLBitVector && Arrays.equals(AbsValue, ((TVLBitVector)o).AbsValue);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return Arrays.hashCode(AbsValue);
 	}
 	
 	static final char[] Representation = { '0', '?', '1' };
@@ -438,48 +847,55 @@ class TVLBitVector {
 	public TVLBitVector(int sz)
 	{
 		AbsValue = new byte[sz];
-		MakeTop();
+		Arrays.fill(AbsValue, TVL_HALF);
 	}
 	
 	// gsa: container of a number of bytes. Initialize all to 1/2.
 	public TVLBitVector(GhidraSizeAdapter gsa)
 	{
-		AbsValue = new byte[gsa.sz*8];
-		MakeTop();
+		this(gsa.sz*8);
 	}
 
-	// Helper method to initialize a bitvector given a constant value.
-	void InitializeFromConstant(int sz, long value)
+	// Helper method to initialize a bitvector given a constant value. Bits 
+	// above the 64 given are 0 (Java shift counts wrap around, so they have to
+	// be handled separately).
+	static byte[] FromConstant(int sz, long value)
 	{
-	  AbsValue = new byte[sz];
+		byte[] arr = new byte[sz];
 		for (int i = 0; i < sz; i++) 
-			AbsValue[i] = ((value >> i) & 1) == 0 ? TVL_0 : TVL_1;
+			arr[i] = i >= 64 || ((value >> i) & 1) == 0 ? TVL_0 : TVL_1;
+		return arr;
 	}	
 	
 	// sz: number of bits. value: constant.
 	public TVLBitVector(int sz, long value)
 	{
-		InitializeFromConstant(sz,value);
+		AbsValue = FromConstant(sz,value);
 	}
 
 	// gsa: container of a number of bytes. value: constant.
 	public TVLBitVector(GhidraSizeAdapter gsa, long value)
 	{
-		InitializeFromConstant(gsa.sz*8,value);
+		AbsValue = FromConstant(gsa.sz*8,value);
 	}
 
-	// Arr: an existing array of three-valued bits.
+	// Arr: an array of three-valued bits, which is copied.
 	public TVLBitVector(byte[] Arr)
 	{
-		AbsValue = Arr;
+		AbsValue = Arr.clone();
 	}
 	
-	// Copy this object.
-	public TVLBitVector clone()
+	private TVLBitVector(byte[] Arr, boolean owned)
 	{
-		return new TVLBitVector(AbsValue.clone());
+		AbsValue = Arr;
 	}
 	
+	// Make a bitvector out of an array that was just built for it, without 
+	// copying it. The caller mustn't touch the array afterwards.
+	static TVLBitVector Wrap(byte[] Arr)
+	{
+		return new TVLBitVector(Arr, true);
+	}
 }
 
 // This is a utility class for implementing the abstract transformers.
@@ -502,12 +918,11 @@ final class TVLBitVectorUtil {
 	{
 		int s1 = lhs.Size();
 		
-		byte[] lhsArr = lhs.Value();
 		byte[] newArr = new byte[s1];
 		for (int i = 0; i < s1; i++)
-			newArr[i] = f.apply(lhsArr[i]);
+			newArr[i] = f.apply(lhs.Get(i));
 		
-		return new TVLBitVector(newArr);
+		return TVLBitVector.Wrap(newArr);
 	}
 
 	// Table for ~x ...
@@ -520,9 +935,20 @@ final class TVLBitVectorUtil {
 	// Abstract three-valued bitwise NOT
 	static TVLBitVector Not(TVLBitVector lhs)
 	{
+		if(TVLWideKernels.Applies(lhs))
+			return TVLWideKernels.Not(lhs);
 		return Map(lhs, (l) -> NotTable[l]);
 	}
 
+	// The join (least upper bound) of two three-valued bitvectors: bits on 
+	// which they agree keep their value, and the rest become 1/2.
+	static TVLBitVector Join(TVLBitVector lhs, TVLBitVector rhs)
+	{
+		if(TVLWideKernels.Applies(lhs))
+			return TVLWideKernels.Join(lhs, rhs);
+		return Map2(lhs, rhs, (x,y) -> x.equals(y) ? x : TVLBitVector.TVL_HALF);
+	}
+
 	// Given two three-valued bitvectors of the same size, construct a new one of
 	// the same size by applying the function f to their component bits at 
 	// matching indices.
@@ -533,13 +959,11 @@ final class TVLBitVectorUtil {
 		if(s1 != s2)
 			SizeMismatchException("map2", s1, s2);
 		
-		byte[] lhsArr = lhs.Value();
-		byte[] rhsArr = rhs.Value();
 		byte[] newArr = new byte[s1];
 		for (int i = 0; i < s1; i++)
-			newArr[i] = f.apply(lhsArr[i], rhsArr[i]);
+			newArr[i] = f.apply(lhs.Get(i), rhs.Get(i));
 
-		return new TVLBitVector(newArr);
+		return TVLBitVector.Wrap(newArr);
 	}
 	
 	// Table for x & y ...
@@ -567,18 +991,24 @@ final class TVLBitVectorUtil {
 	// Abstract three-valued bitwise AND
 	static TVLBitVector And(TVLBitVector lhs, TVLBitVector rhs) 
 	{
+		if(TVLWideKernels.Applies(lhs))
+			return TVLWideKernels.And(lhs, rhs);
 		return Map2(lhs, rhs, (l,r) -> AndTable[l][r]);
 	}
 
 	// Abstract three-valued bitwise OR
 	static TVLBitVector Or(TVLBitVector lhs, TVLBitVector rhs) 
 	{
+		if(TVLWideKernels.Applies(lhs))
+			return TVLWideKernels.Or(lhs, rhs);
 		return Map2(lhs, rhs, (l,r) -> OrTable[l][r]);
 	}
 
 	// Abstract three-valued bitwise XOR
 	static TVLBitVector Xor(TVLBitVector lhs, TVLBitVector rhs) 
 	{
+		if(TVLWideKernels.Applies(lhs))
+			return TVLWideKernels.Xor(lhs, rhs);
 		return Map2(lhs, rhs, (l,r) -> XorTable[l][r]);
 	}
 	
@@ -593,18 +1023,14 @@ final class TVLBitVectorUtil {
 
 		// Extending to the same size? That's easy.
 		if(lhsSize == newSize)
-			return lhs.clone();
+			return lhs;
 
 		// Otherwise, copy the low bits into a new array, fill the upper bits with
 		// extensionVal, and return a new bitvector from that.
 		byte[] newVal = new byte[newSize];
-		byte[] lhsVal = lhs.Value();
-		int i;
-		for (i = 0; i < lhsSize; i++)
-			newVal[i] = lhsVal[i];
-		for( ; i < newSize; i++)
-			newVal[i] = extensionVal;
-		return new TVLBitVector(newVal);
+		lhs.CopyTo(0, newVal, 0, lhsSize);
+		Arrays.fill(newVal, lhsSize, newSize, extensionVal);
+		return TVLBitVector.Wrap(newVal);
 	}
 
 	// Abstract three-valued bitwise zero extension, bit size destination.
@@ -622,7 +1048,7 @@ final class TVLBitVectorUtil {
 	// Abstract three-valued bitwise sign extension, bit size destination.
 	static TVLBitVector SignExtend(TVLBitVector lhs, int newSize)
 	{
-		return Extend(lhs, newSize, lhs.Value()[lhs.Size()-1]);
+		return Extend(lhs, newSize, lhs.Get(lhs.Size()-1));
 	}
 
 	// Abstract three-valued bitwise sign extension, byte size destination.
@@ -634,9 +1060,9 @@ final class TVLBitVectorUtil {
 	// Create a byte-sized three-valued bitvector with the specified lowest bit.
 	static TVLBitVector CreateSingle(byte what)
 	{
-		TVLBitVector x = new TVLBitVector(8, 0);
-		x.Value()[0] = what;
-		return x;
+		byte[] arr = new byte[8];
+		arr[0] = what;
+		return TVLBitVector.Wrap(arr);
 	}
 
 	// Create a byte-sized three-valued bitvector with a constant lowest bit.
@@ -663,13 +1089,13 @@ final class TVLBitVectorUtil {
 		int s2 = rhs.Size();
 		if(s1 != s2)
 			SizeMismatchException("EqualsInner("+shouldMatch+")", s1, s2);
+		if(TVLWideKernels.Applies(lhs))
+			return TVLWideKernels.EqualsInner(lhs, rhs, shouldMatch);
 		
-		byte[] lhsVal = lhs.Value();
-		byte[] rhsVal = rhs.Value();
 		boolean bHadHalves = false;
 		for (int i = 0; i < s1; i++) {
-			byte lhsBit = lhsVal[i];
-			byte rhsBit = rhsVal[i];
+			byte lhsBit = lhs.Get(i);
+			byte rhsBit = rhs.Get(i);
 			if(lhsBit == TVLBitVector.TVL_HALF || rhsBit == TVLBitVector.TVL_HALF)
 				bHadHalves = true;
 			else if(lhsBit != rhsBit)
@@ -701,7 +1127,7 @@ final class TVLBitVectorUtil {
 
 		// Do nothing for a zero shift
 		if(amt == 0)
-			return lhs.clone();
+			return lhs;
 		
 		int lhsSize = lhs.Size();
 
@@ -711,15 +1137,13 @@ final class TVLBitVectorUtil {
 	
 		// Otherwise, initialize the lower bits to 0.
 		byte[] newArr = new byte[lhsSize];
-		byte[] lhsVal = lhs.Value();
 		for (int i = 0; i < amt; i++)
 			newArr[i] = TVLBitVector.TVL_0;
 	
 		// Move the existing bits up in the bitvector by the amount.
-		for(int j = 0; j < lhsSize-amt; j++)
-			newArr[amt+j] = lhsVal[j];
+		lhs.CopyTo(0, newArr, amt, lhsSize-amt);
 	
-		return new TVLBitVector(newArr);
+		return TVLBitVector.Wrap(newArr);
 	}
 	
 	// Helper method for shifting right by a fixed quantity.
@@ -731,7 +1155,7 @@ final class TVLBitVectorUtil {
 
 		// Do nothing for a zero shift
 		if(amt == 0)
-			return lhs.clone();
+			return lhs;
 		
 		int lhsSize = lhs.Size();
 
@@ -741,15 +1165,13 @@ final class TVLBitVectorUtil {
 	
 		// Otherwise, initialize the upper bits to topFill.
 		byte[] newArr = new byte[lhsSize];
-		byte[] lhsVal = lhs.Value();
 		for (int i = 0; i < amt; i++)
 			newArr[(lhsSize-1)-i] = topFill;
 	
 		// Move the existing bits down in the bitvector by the amount.
-		for(int j = 0; j < lhsSize-amt; j++)
-			newArr[j] = lhsVal[j+amt];
+		lhs.CopyTo(amt, newArr, 0, lhsSize-amt);
 	
-		return new TVLBitVector(newArr);
+		return TVLBitVector.Wrap(newArr);
 	}
 	
 	// Helper function for abstract shift left/right.
@@ -761,8 +1183,6 @@ final class TVLBitVectorUtil {
 		// Seems like Ghidra guarantees this (size is non-zero power of two).
 		assert(lhsSize != 0 && (lhsSize & (lhsSize-1)) == 0);
 
-		byte[] rhsVal = rhs.Value();
-		
 		// Compute, stupidly, log2(lhsSize)
 		// I'm sure there's a bit-twiddling hack for log2...
 		int log2 = 0;
@@ -775,19 +1195,23 @@ final class TVLBitVectorUtil {
 		assert(log2 != 0);
 		
 		// For an 2^n-bit bitvector, only n bits should be used for the shift 
-		// amount. However, in case any higher bits were either set or unknown in 
-		// the shift amount, we should return a bitvector initialized to the fill
-		// value.
+		// amount. However, in case any higher bits were set in the shift amount,
+		// we should return a bitvector initialized to the fill value. If they 
+		// were only unknown, the shift might or might not go out of range, so 
+		// the result is the join of the fill value with the in-range shift.
+		boolean bMaybeOutOfRange = false;
 		for(int j = log2; j < rhsSize; j++) {
-			if(rhsVal[j] != TVLBitVector.TVL_0)
+			if(rhs.Get(j) == TVLBitVector.TVL_1)
 				return Map(lhs, (b) -> topFill);
+			if(rhs.Get(j) == TVLBitVector.TVL_HALF)
+				bMaybeOutOfRange = true;
 		}
 		
 		// Now, do the actual shift. We support shift amounts with unknown bits, 
 		// unlike the original OCaml version.
-		TVLBitVector shifted = lhs.clone();
+		TVLBitVector shifted = lhs;
 		for(int i = 0; i < log2; i++) {
-			switch(rhsVal[i])
+			switch(rhs.Get(i))
 			{
 				// Shift bit of zero => do nothing.
 				case TVLBitVector.TVL_0:
@@ -806,6 +1230,8 @@ final class TVLBitVectorUtil {
 				break;
 			}
 		}
+		if(bMaybeOutOfRange)
+			shifted = Map(shifted, (x) -> x == topFill ? x : TVLBitVector.TVL_HALF);
 		return shifted;
 	}
 	
@@ -824,7 +1250,7 @@ final class TVLBitVectorUtil {
 	// Abstract three-valued signed shift right (including by variable amounts).
 	static TVLBitVector ShiftRightArithmeticBv(TVLBitVector lhs, TVLBitVector rhs) 
 	{
-		return ShiftBvHelper(lhs, rhs, false, lhs.Value()[lhs.Size()-1]);
+		return ShiftBvHelper(lhs, rhs, false, lhs.Get(lhs.Size()-1));
 	}
 
 	// Table for x + y + c ...
@@ -890,9 +1316,8 @@ final class TVLBitVectorUtil {
 		if(s1 != s2)
 			SizeMismatchException("AddInternal(_,_,"+isSub+")", s1, s2);
 		
-		// Create bitvectors for the sum and carry amounts.
-		TVLBitVector sum      = Map(lhs, (x) -> TVLBitVector.TVL_0);
-		TVLBitVector carryVec = Map(lhs, (x) -> TVLBitVector.TVL_0);
+		// Create the array for the sum.
+		byte[] sumArr = new byte[s1];
 		
 		// If we're subtracting, apply abstract bitwise NOT to RHS.
 		if(isSub)
@@ -901,27 +1326,22 @@ final class TVLBitVectorUtil {
 		// If we're subtracting, the initial carry is 1; otherwise, 0.
 		byte  lastCarry = isSub ? TVLBitVector.TVL_1 : TVLBitVector.TVL_0;
 		
-		// Prepare array references.
-		byte[]   lhsArr = lhs.Value();
-		byte[]   rhsArr = rhs.Value();
-		byte[]   sumArr = sum.Value();
-		byte[] carryArr = carryVec.Value();
-		
 		// The addition is implemented via tables. It's cleaner than the OCaml
 		// (just due to sloppy programming at the time).
 		for(int i = 0; i < s1; i++)
 		{
-			sumArr[i] = AddOutputTable[lhsArr[i]][rhsArr[i]][lastCarry];
-			lastCarry = AddCarryTable [lhsArr[i]][rhsArr[i]][lastCarry];
-			carryArr[i] = lastCarry;
+			byte l = lhs.Get(i), r = rhs.Get(i);
+			sumArr[i] = AddOutputTable[l][r][lastCarry];
+			lastCarry = AddCarryTable [l][r][lastCarry];
 		}
-		// I suppose technically we didn't need the whole vector of carry bits...
-		return new Pair<TVLBitVector,Byte>(sum,lastCarry);
+		return new Pair<TVLBitVector,Byte>(TVLBitVector.Wrap(sumArr),lastCarry);
 	}
 
 	// Abstract three-valued addition.
 	static TVLBitVector Add(TVLBitVector lhs, TVLBitVector rhs) 
 	{
+		if(TVLWideKernels.Applies(lhs))
+			return TVLWideKernels.Add(lhs, rhs);
 		Pair<TVLBitVector,Byte> p = AddInternal(lhs, rhs, false);
 		return p.x;
 	}
@@ -929,6 +1349,8 @@ final class TVLBitVectorUtil {
 	// Abstract three-valued subtraction.
 	static TVLBitVector Subtract(TVLBitVector lhs, TVLBitVector rhs) 
 	{
+		if(TVLWideKernels.Applies(lhs))
+			return TVLWideKernels.Subtract(lhs, rhs);
 		Pair<TVLBitVector,Byte> p = AddInternal(lhs, rhs, true);
 		return p.x;
 	}
@@ -937,13 +1359,14 @@ final class TVLBitVectorUtil {
 	static TVLBitVector Neg(TVLBitVector lhs) 
 	{
 		TVLBitVector zero = Map(lhs, (x) -> TVLBitVector.TVL_0);
-		Pair<TVLBitVector,Byte> p = AddInternal(zero, lhs, true);
-		return p.x;
+		return Subtract(zero, lhs);
 	}
 
 	// Abstract three-valued unsigned less-than.
 	static TVLBitVector ULT(TVLBitVector lhs, TVLBitVector rhs) 
 	{
+		if(TVLWideKernels.Applies(lhs))
+			return TVLWideKernels.ULT(lhs, rhs);
 		Pair<TVLBitVector,Byte> p = AddInternal(lhs, rhs, true);
 		return CreateSingle(NotTable[p.y]);
 	}
@@ -951,17 +1374,17 @@ final class TVLBitVectorUtil {
 	// Abstract three-valued unsigned less-than-or-equals.
 	static TVLBitVector ULE(TVLBitVector lhs, TVLBitVector rhs) 
 	{
-		byte ult = ULT(lhs,rhs).Value()[0];
-		byte eq = Equals(lhs,rhs).Value()[0];
+		byte ult = ULT(lhs,rhs).Get(0);
+		byte eq = Equals(lhs,rhs).Get(0);
 		return CreateSingle(OrTable[ult][eq]);
 	}
 
 	// Abstract three-valued signed less-than.
 	static TVLBitVector SLT(TVLBitVector lhs, TVLBitVector rhs) 
 	{
-		byte ult = ULT(lhs,rhs).Value()[0];
-		byte lhsSign  = lhs.Value()[lhs.Size()-1];
-		byte rhsSign  = rhs.Value()[rhs.Size()-1];
+		byte ult = ULT(lhs,rhs).Get(0);
+		byte lhsSign  = lhs.Get(lhs.Size()-1);
+		byte rhsSign  = rhs.Get(rhs.Size()-1);
 		byte signDiff = XorTable[lhsSign][rhsSign];
 		return CreateSingle(XorTable[signDiff][ult]);
 	}
@@ -969,8 +1392,8 @@ final class TVLBitVectorUtil {
 	// Abstract three-valued signed less-than-or-equals.
 	static TVLBitVector SLE(TVLBitVector lhs, TVLBitVector rhs) 
 	{
-		byte slt = SLT(lhs,rhs).Value()[0];
-		byte eq = Equals(lhs,rhs).Value()[0];
+		byte slt = SLT(lhs,rhs).Get(0);
+		byte eq = Equals(lhs,rhs).Get(0);
 		return CreateSingle(OrTable[slt][eq]);
 	}
 	
@@ -1002,12 +1425,11 @@ final class TVLBitVectorUtil {
 		// don't know whether the multiplication is taking place or not.
 		TVLBitVector lhsHalves = Map(lhs, (b) -> b == TVLBitVector.TVL_1 ? TVLBitVector.TVL_HALF : b);
 
-		byte[] rhsArr = rhs.Value();
 		
 		// Could probably improve performance by terminating early if all bits in
 		// the partial product above the current index are 1/2.
 		for(int i = 0; i < s1; i++) {
-			switch(rhsArr[i])
+			switch(rhs.Get(i))
 			{
 				case TVLBitVector.TVL_0:
 				break;
@@ -1022,686 +1444,7082 @@ final class TVLBitVectorUtil {
 		// Truncate down to the lower bits. Were the upper bits necessary? They 
 		// used to be in the OCaml version, where the multiplication operator 
 		// returned a quantity twice as big as the original.
-		return new TVLBitVector(Arrays.copyOfRange(partialProduct.Value(), 0, s1));
+		return partialProduct.Slice(0, s1);
+	}
+	
+	// Can Evaluate() compute this operation? These are the operations whose 
+	// result depends only upon their inputs' values: no memory, no control flow.
+	static boolean IsEvaluable(int opcode)
+	{
+		switch(opcode)
+		{
+			case PcodeOp.BOOL_AND:   case PcodeOp.BOOL_NEGATE:    case PcodeOp.BOOL_OR:        case PcodeOp.BOOL_XOR:
+			case PcodeOp.COPY:       case PcodeOp.INT_2COMP:      case PcodeOp.INT_ADD:        case PcodeOp.INT_AND:
+			case PcodeOp.INT_EQUAL:  case PcodeOp.INT_LEFT:       case PcodeOp.INT_LESS:       case PcodeOp.INT_LESSEQUAL:
+			case PcodeOp.INT_MULT:   case PcodeOp.INT_NEGATE:     case PcodeOp.INT_NOTEQUAL:   case PcodeOp.INT_OR:
+			case PcodeOp.INT_RIGHT:  case PcodeOp.INT_SEXT:       case PcodeOp.INT_SLESS:      case PcodeOp.INT_SLESSEQUAL:
+			case PcodeOp.INT_SRIGHT: case PcodeOp.INT_SUB:        case PcodeOp.INT_XOR:        case PcodeOp.INT_ZEXT:
+			case PcodeOp.INT_CARRY:  case PcodeOp.INT_SCARRY:     case PcodeOp.INT_SBORROW:
+			case PcodeOp.INT_DIV:    case PcodeOp.INT_REM:        case PcodeOp.INT_SDIV:       case PcodeOp.INT_SREM:
+			case PcodeOp.PIECE:      case PcodeOp.SUBPIECE:
+				return true;
+		}
+		return false;
+	}
+	
+	// The abstract result of an operation for which IsEvaluable() holds, given
+	// the values of its inputs. This matches what TVLAbstractInterpreter's 
+	// visit_ methods compute; it's used when an operation's evaluation has been
+	// deferred, and there's no interpreter or state at hand.
+	static TVLBitVector Evaluate(int opcode, TVLBitVector[] in, int outBytes)
+	{
+		switch(opcode)
+		{
+			case PcodeOp.BOOL_AND:       return CreateSingle(AndTable[in[0].Get(0)][in[1].Get(0)]);
+			case PcodeOp.BOOL_NEGATE:    return CreateSingle(NotTable[in[0].Get(0)]);
+			case PcodeOp.BOOL_OR:        return CreateSingle(OrTable[in[0].Get(0)][in[1].Get(0)]);
+			case PcodeOp.BOOL_XOR:       return CreateSingle(XorTable[in[0].Get(0)][in[1].Get(0)]);
+			case PcodeOp.COPY:           return in[0];
+			case PcodeOp.INT_2COMP:      return Neg(in[0]);
+			case PcodeOp.INT_ADD:        return Add(in[0], in[1]);
+			case PcodeOp.INT_AND:        return And(in[0], in[1]);
+			case PcodeOp.INT_EQUAL:      return Equals(in[0], in[1]);
+			case PcodeOp.INT_LEFT:       return ShiftLeftBv(in[0], in[1]);
+			case PcodeOp.INT_LESS:       return ULT(in[0], in[1]);
+			case PcodeOp.INT_LESSEQUAL:  return ULE(in[0], in[1]);
+			case PcodeOp.INT_MULT:       return Multiply(in[0], in[1]);
+			case PcodeOp.INT_NEGATE:     return Not(in[0]);
+			case PcodeOp.INT_NOTEQUAL:   return NotEquals(in[0], in[1]);
+			case PcodeOp.INT_OR:         return Or(in[0], in[1]);
+			case PcodeOp.INT_RIGHT:      return ShiftRightBv(in[0], in[1]);
+			case PcodeOp.INT_SEXT:       return SignExtend(in[0], new GhidraSizeAdapter(outBytes));
+			case PcodeOp.INT_SLESS:      return SLT(in[0], in[1]);
+			case PcodeOp.INT_SLESSEQUAL: return SLE(in[0], in[1]);
+			case PcodeOp.INT_SRIGHT:     return ShiftRightArithmeticBv(in[0], in[1]);
+			case PcodeOp.INT_SUB:        return Subtract(in[0], in[1]);
+			case PcodeOp.INT_XOR:        return Xor(in[0], in[1]);
+			case PcodeOp.INT_ZEXT:       return ZeroExtend(in[0], new GhidraSizeAdapter(outBytes));
+			
+			// These are still unhandled by the interpreter, which sets them to Top.
+			case PcodeOp.INT_CARRY: case PcodeOp.INT_SCARRY: case PcodeOp.INT_SBORROW:
+				return CreateHalfBit();
+			case PcodeOp.INT_DIV: case PcodeOp.INT_REM: case PcodeOp.INT_SDIV: case PcodeOp.INT_SREM:
+			case PcodeOp.PIECE: case PcodeOp.SUBPIECE:
+				return new TVLBitVector(new GhidraSizeAdapter(outBytes));
+		}
+		throw new RuntimeException("Evaluate(): opcode "+opcode+" can't be evaluated out of context");
 	}
 }
 
-// The trivial memory model. Writes to locations that are not fully constant
-// result in an all-top memory (though the creation of the all-top memory takes
-// place outside of this class). This class follows the pure-functional 
-// paradigm where each store creates a new memory. That's necessary, although
-// could be algorithmically improved by eliminating intermediate copies.
-class AbstractMemory {
+// Kernels for bitvectors wider than 64 bits, such as the XMM/YMM/ZMM 
+// registers. The byte-per-bit loops in TVLBitVectorUtil go through a boxed 
+// lambda or a table lookup for every bit, which is where wide vectors spend 
+// their time. Here, a bitvector is first packed into two bit planes of 64-bit
+// words: Known (the bit isn't 1/2) and Ones (the bit is 1; always a subset of
+// Known). The operations then work a word at a time:
+// * Packing and unpacking go eight trits at a time, reading the byte array
+//   as longs and gathering or spreading the bits with a multiply.
+// * AND, OR, XOR, NOT and join are a few logical operations per word.
+// * Addition and subtraction use the tristate-number formulas, where the 
+//   planes are added as multi-word integers. They give the same result as 
+//   the bit-serial ripple in AddInternal(); both are the most precise 
+//   result possible.
+// * Unsigned less-than compares the smallest and largest values that the two
+//   sides can take, which again is exactly what the ripple's carry-out gives.
+// * Equality looks for a bit that is known on both sides and differs.
+// Results are the same as the scalar code's, bit for bit. Setting the system
+// property tvl.scalarWide at startup turns this off.
+final class TVLWideKernels {
+	private TVLWideKernels() {};
 	
-	// Memory is just a hash map from addresses to 8-bit bitvectors.
-	HashMap<Long,TVLBitVector> Contents;
-	private boolean bigEndian;
-	public AbstractMemory(boolean isBigEndian) {
-		Contents = new HashMap<>();
-		bigEndian = isBigEndian;
-	}
+	static final int MinBits = 65;
+	static final boolean Enabled = !Boolean.getBoolean("tvl.scalarWide");
 	
-	// Debugging.
-	void Dump(String str)
+	// Should the operation on this bitvector come here?
+	static boolean Applies(TVLBitVector bv)
 	{
-		//Printer.println("Dump(): "+str);
-		//for (HashMap.Entry<Long,TVLBitVector> entry : Contents.entrySet())  
-		//	Printer.println("Key = " + entry.getKey() + ", Value = " + entry.getValue()); 
+		return Enabled && bv.Size() >= MinBits;
 	}
 	
-	public AbstractMemory clone()
+	static int Words(int bits) { return (bits + 63) >>> 6; }
+	
+	// The valid bits of the top word.
+	static long TopMask(int bits)
 	{
-		HashMap<Long,TVLBitVector> newContents = (HashMap)Contents.clone();
-		AbstractMemory newMemory = new AbstractMemory(bigEndian);
-		newMemory.Contents = newContents;
-		return newMemory;
+		return (bits & 63) == 0 ? -1L : (1L << bits) - 1;
 	}
 	
-	// Store a byte to the specified location.
-	void Store(long addr, TVLBitVector bv)
+	// The trit arrays, read and written eight bytes at a time.
+	static final VarHandle Longs = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	static final long LowBits = 0x0101010101010101L;
+	
+	// Gather the low bit of each byte of x into an 8-bit value.
+	static long Gather(long x)
 	{
-		Contents.put(addr,bv);
-		//HashMap<Long,TVLBitVector> newContents = (HashMap)Contents.clone();
-		//AbstractMemory newMemory = new AbstractMemory();
-		//newMemory.Contents = newContents;
-		//return newMemory;
+		return (x * 0x0102040810204080L) >>> 56;
 	}
 	
-	// Return a new memory, entirely unknown.
-	AbstractMemory Top()
+	// Spread the 8 bits of b out into the low bits of 8 bytes.
+	static long Spread(long b)
 	{
-		return new AbstractMemory(bigEndian);
+		long x = (b * LowBits) & 0x8040201008040201L;
+		return ((x + 0x7F7F7F7F7F7F7F7FL) >>> 7) & LowBits;
 	}
-
-	// Store a multi-byte quantity into memory and return a new one. Could 
-	// improve by only duplicating once, or by using an applicative dictionary.
-	void StoreWholeQuantity(long addr, TVLBitVector bv)
+	
+	// Pack into planes: words [0, w) are Known, and [w, 2w) are Ones. With 
+	// the trits being 0, 1 and 2, a bit is known iff its low bit is clear, 
+	// and is 1 iff its high bit is set. Eight trits are handled at a time.
+	static long[] Pack(TVLBitVector bv)
 	{
-		byte[] bvArr = bv.Value();
-		int bvSize = bv.Size();
-		for(int i = 0; i < bvSize; i += 8)
+		int n = bv.Size(), w = Words(n);
+		long[] p = new long[2*w];
+		int i = 0;
+		for( ; i + 8 <= n; i += 8)
 		{
-			byte[] subArr;
-			if(bigEndian)
-				subArr = Arrays.copyOfRange(bvArr, bvSize-(i+8), bvSize-i);
-			else
-				subArr = Arrays.copyOfRange(bvArr, i, i+8);
-			Store(addr, new TVLBitVector(subArr));
-			addr += 1;
+			long t = bv.Lanes(i);
+			p[i >>> 6]       |= Gather(~t & LowBits) << (i & 63);
+			p[w + (i >>> 6)] |= Gather((t >>> 1) & LowBits) << (i & 63);
 		}
-		Dump("StoreWholeQuantity(): "+addr+" "+bv);
+		for( ; i < n; i++)
+		{
+			int t = bv.Get(i);
+			p[i >>> 6]       |= (long)((t & 1) ^ 1) << i;
+			p[w + (i >>> 6)] |= (long)(t >> 1) << i;
+		}
+		return p;
 	}
 	
-	void StoreWholeQuantity(Varnode dest, TVLBitVector bv)
+	static TVLBitVector Unpack(long[] p, int n)
 	{
-		StoreWholeQuantity(dest.getOffset(), bv);
+		int w = Words(n);
+		byte[] arr = new byte[n];
+		int i = 0;
+		for( ; i + 8 <= n; i += 8)
+		{
+			long nk = (~p[i >>> 6] >>> (i & 63)) & 0xFF;
+			long o  = (p[w + (i >>> 6)] >>> (i & 63)) & 0xFF;
+			Longs.set(arr, i, Spread(nk) | (Spread(o) << 1));
+		}
+		for( ; i < n; i++)
+			arr[i] = (byte)(((~p[i >>> 6] >>> i) & 1) | (((p[w + (i >>> 6)] >>> i) & 1) << 1));
+		return TVLBitVector.Wrap(arr);
 	}
 	
-	// Load one byte, or return top if the address was unmapped.
-	TVLBitVector Lookup(long addr)
+	static void CheckSizes(String op, TVLBitVector lhs, TVLBitVector rhs)
 	{
-		Dump("Lookup(): "+addr);
-		if(Contents.containsKey(addr))
-			return Contents.get(addr);
-		TVLBitVector bv = new TVLBitVector(8);
-		return bv;
+		if(lhs.Size() != rhs.Size())
+			TVLBitVectorUtil.SizeMismatchException(op, lhs.Size(), rhs.Size());
 	}
-
-	// Load a multi-byte quantity, where the size is specified in bits. 
-	TVLBitVector LookupWholeQuantity(long addr, int size)
+	
+	// The bitwise operations don't need the planes: within a long read from 
+	// the trit array, each byte is a lane holding one trit, whose known and 
+	// one bits can be had with a shift and a mask. The operation is done on 
+	// eight lanes at once, and the trits put back together the same way. The
+	// last few trits, if the width isn't a multiple of eight, go through the 
+	// tables instead.
+	interface LaneOp {
+		long Apply(long ka, long oa, long kb, long ob);
+	}
+	
+	static TVLBitVector Lanes(TVLBitVector lhs, TVLBitVector rhs, LaneOp f, byte[][] table)
 	{
-		// Perform each of the lookups.
-		LinkedList<TVLBitVector> list = new LinkedList<TVLBitVector>(); 
-		for(int i = 0; i < size; i += 8)
-		{
-			TVLBitVector val = Lookup(addr);
-			if(bigEndian)
-				list.addFirst(val);
-			else
-				list.addLast(val);
-			addr += 1;
-		}
-		byte[] arr = new byte[size];
-		
-		// Store them into one large bitvector, in a little-endian fashion.
-		int i = 0;
-		while(!list.isEmpty())
+		int n = lhs.Size(), i = 0;
+		byte[] r = new byte[n];
+		for( ; i + 8 <= n; i += 8)
 		{
-			
-			TVLBitVector current = list.remove();
-			System.arraycopy(current.Value(), 0, arr, i*8, 8);
-			i++;
+			long ta = lhs.Lanes(i), tb = rhs.Lanes(i);
+			Longs.set(r, i, f.Apply(~ta & LowBits, (ta >>> 1) & LowBits, ~tb & LowBits, (tb >>> 1) & LowBits));
 		}
-		return new TVLBitVector(arr);
+		for( ; i < n; i++)
+			r[i] = table[lhs.Get(i)][rhs.Get(i)];
+		return TVLBitVector.Wrap(r);
 	}
 	
-	// Load a multi-byte quantity, where the size is specified as a number of 
-	// bytes in a wrapper.
-	TVLBitVector LookupWholeQuantity(long addr, GhidraSizeAdapter gsa)
+	// Put a lane's trits back together from its known and one bits.
+	static long Trits(long k, long o)
 	{
-		return LookupWholeQuantity(addr, gsa.sz*8);
+		return (k ^ LowBits) | (o << 1);
 	}
-
-	// Load a multi-byte quantity, where the size is specified as a number of 
-	// bytes in a wrapper.
-	TVLBitVector LookupWholeQuantity(Varnode src)
+	
+	// Since the one bits are a subset of the known ones, k ^ o is the known 
+	// zeros.
+	static TVLBitVector And(TVLBitVector lhs, TVLBitVector rhs)
 	{
-		return LookupWholeQuantity(src.getOffset(), src.getSize() * 8);
+		CheckSizes("And", lhs, rhs);
+		return Lanes(lhs, rhs, (ka, oa, kb, ob) -> { long o = oa & ob; return Trits(o | (ka ^ oa) | (kb ^ ob), o); }, TVLBitVectorUtil.AndTable);
 	}
 	
-	void clear()
+	static TVLBitVector Or(TVLBitVector lhs, TVLBitVector rhs)
 	{
-		Contents.clear();
+		CheckSizes("Or", lhs, rhs);
+		return Lanes(lhs, rhs, (ka, oa, kb, ob) -> { long o = oa | ob; return Trits(o | ((ka ^ oa) & (kb ^ ob)), o); }, TVLBitVectorUtil.OrTable);
 	}
-};
-
-// This class holds an abstract machine state: 
-// * Register Varnodes
-// * Unique Varnodes
-// * A map from memory object id to its AbstractMemory object
-class TVLAbstractGhidraState {
-	AbstractMemory Registers;
-	AbstractMemory Uniques;
-	HashMap<Long, AbstractMemory> Memories;
-	boolean bigEndian;
-		
-	public TVLAbstractGhidraState(boolean isBigEndian)
+	
+	static TVLBitVector Xor(TVLBitVector lhs, TVLBitVector rhs)
 	{
-		Registers = new AbstractMemory(isBigEndian);
-		Uniques   = new AbstractMemory(isBigEndian);
-		Memories  = new HashMap<>();
-		bigEndian = isBigEndian;
+		CheckSizes("Xor", lhs, rhs);
+		return Lanes(lhs, rhs, (ka, oa, kb, ob) -> { long k = ka & kb; return Trits(k, (oa ^ ob) & k); }, TVLBitVectorUtil.XorTable);
 	}
-		
-	public void clear()
+	
+	static TVLBitVector Join(TVLBitVector lhs, TVLBitVector rhs)
 	{
-		Registers.clear();
-		Uniques.clear();
-		Memories.clear();
+		CheckSizes("Join", lhs, rhs);
+		return Lanes(lhs, rhs, (ka, oa, kb, ob) -> { long k = ka & kb & (oa ^ ob ^ LowBits); return Trits(k, oa & k); }, JoinTable);
 	}
+	// Table for the join of x and y ...
+	static final byte[][] JoinTable = {
+		{TVLBitVector.TVL_0,     TVLBitVector.TVL_HALF, TVLBitVector.TVL_HALF},
+		{TVLBitVector.TVL_HALF,  TVLBitVector.TVL_HALF, TVLBitVector.TVL_HALF},
+		{TVLBitVector.TVL_HALF,  TVLBitVector.TVL_HALF, TVLBitVector.TVL_1},
+	};
 	
-	public void ClearUniques()
+	static TVLBitVector Not(TVLBitVector lhs)
 	{
-		Uniques.clear();
+		return Lanes(lhs, lhs, (ka, oa, kb, ob) -> Trits(ka, ka ^ oa), NotDiagonal);
 	}
+	// Table for ~x, indexed by [x][x]; only the diagonal is ever used.
+	static final byte[][] NotDiagonal = {
+		{TVLBitVector.TVL_1,     0,                     0},
+		{0,                      TVLBitVector.TVL_HALF, 0},
+		{0,                      0,                     TVLBitVector.TVL_0},
+	};
 	
-	// Associate a varnode *as though it was a variable* with a three-valued
-	// bitvector. Again, as above, should be changed into memory writes.
-	public void Associate(Varnode dest, TVLBitVector bv)
+	// out = x + y + carryIn, as w-word integers. Returns the carry out.
+	static long AddWords(long[] x, int xOff, long[] y, int yOff, long[] out, int w, long carryIn)
 	{
-		//Printer.println("Associate(): "+dest.toString()+" -> "+bv.toString());
-		if(dest.isRegister())
-			Registers.StoreWholeQuantity(dest, bv);
-		else if(dest.isUnique())
-			Uniques.StoreWholeQuantity(dest,bv);
-		else
+		long c = carryIn;
+		for(int i = 0; i < w; i++)
 		{
-			Printer.println("Associate(): Unknown destination "+dest.toString());
-			// Should throw an exception here...
+			long s = x[xOff+i] + y[yOff+i];
+			long c1 = Long.compareUnsigned(s, x[xOff+i]) < 0 ? 1 : 0;
+			long s2 = s + c;
+			long c2 = Long.compareUnsigned(s2, s) < 0 ? 1 : 0;
+			out[i] = s2;
+			c = c1 | c2;
 		}
+		return c;
 	}
-	public void Store(Varnode mem, long addr, TVLBitVector bv)
+	
+	// out = x - y, as w-word integers: x + ~y + 1.
+	static void SubWords(long[] x, int xOff, long[] y, int yOff, long[] out, int w)
 	{
-		AbstractMemory am;
-		long memOffset = mem.getOffset();
-		if(Memories.containsKey(memOffset))
-			am = Memories.get(memOffset);
-		else
+		long[] ny = new long[w];
+		for(int i = 0; i < w; i++)
+			ny[i] = ~y[yOff+i];
+		AddWords(x, xOff, ny, 0, out, w, 1);
+	}
+	
+	// The unknown bits, within the width.
+	static long[] Mask(long[] p, int n)
+	{
+		int w = Words(n);
+		long[] m = new long[w];
+		for(int i = 0; i < w; i++)
+			m[i] = ~p[i];
+		m[w-1] &= TopMask(n);
+		return m;
+	}
+	
+	// Given the sum (or difference) of the values and the unknown bits of both
+	// sides, the bits that could be anything are those where chi is set, or 
+	// where either side was unknown; the rest are known, from sv.
+	static TVLBitVector Finish(long[] sv, long[] chi, long[] am, long[] bm, int n)
+	{
+		int w = Words(n);
+		long[] r = new long[2*w];
+		for(int i = 0; i < w; i++)
 		{
-			am = new AbstractMemory(bigEndian);
-			Memories.put(memOffset, am);
+			long mu = chi[i] | am[i] | bm[i];
+			r[i] = ~mu;
+			r[w+i] = sv[i] & ~mu;
 		}
-		am.StoreWholeQuantity(addr, bv);
+		return Unpack(r, n);
 	}
-	public TVLBitVector Lookup(Varnode what)
-	{
-		if(what.isRegister())
-			return Registers.LookupWholeQuantity(what);
-		if(what.isUnique())
-			return Uniques.LookupWholeQuantity(what);
-		// If this happens, read the documentation
-		// Should throw an exception here
-		Printer.println("Lookup(): Unknown source "+what.toString());
-		return new TVLBitVector(new GhidraSizeAdapter(what.getSize()));
+	
+	static TVLBitVector Add(TVLBitVector lhs, TVLBitVector rhs)
+	{
+		CheckSizes("Add", lhs, rhs);
+		int n = lhs.Size(), w = Words(n);
+		long[] a = Pack(lhs), b = Pack(rhs);
+		long[] am = Mask(a, n), bm = Mask(b, n);
+		long[] sv = new long[w], sm = new long[w], sigma = new long[w];
+		AddWords(a, w, b, w, sv, w, 0);
+		AddWords(am, 0, bm, 0, sm, w, 0);
+		AddWords(sm, 0, sv, 0, sigma, w, 0);
+		for(int i = 0; i < w; i++)
+			sigma[i] ^= sv[i];
+		return Finish(sv, sigma, am, bm, n);
 	}
 	
-	public TVLBitVector Load(Varnode mem, long addr, int size)
-	{
-		AbstractMemory am;
-		long memOffset = mem.getOffset();
-		if(!Memories.containsKey(memOffset))
-			return new TVLBitVector(size);
-		return Memories.get(memOffset).LookupWholeQuantity(addr, size);
+	static TVLBitVector Subtract(TVLBitVector lhs, TVLBitVector rhs)
+	{
+		CheckSizes("Subtract", lhs, rhs);
+		int n = lhs.Size(), w = Words(n);
+		long[] a = Pack(lhs), b = Pack(rhs);
+		long[] am = Mask(a, n), bm = Mask(b, n);
+		long[] dv = new long[w], alpha = new long[w], beta = new long[w];
+		SubWords(a, w, b, w, dv, w);
+		AddWords(dv, 0, am, 0, alpha, w, 0);
+		SubWords(dv, 0, bm, 0, beta, w);
+		for(int i = 0; i < w; i++)
+			alpha[i] ^= beta[i];
+		return Finish(dv, alpha, am, bm, n);
 	}
 	
-	public void MakeMemoryTop(Varnode mem)
+	// Compare w-word unsigned integers.
+	static int CompareWords(long[] x, long[] y, int w)
 	{
-		Memories.remove(mem);
+		for(int i = w-1; i >= 0; i--)
+		{
+			int c = Long.compareUnsigned(x[i], y[i]);
+			if(c != 0)
+				return c;
+		}
+		return 0;
 	}
 	
-	public TVLAbstractGhidraState clone()
-	{
-		TVLAbstractGhidraState r = new TVLAbstractGhidraState(bigEndian);
-		r.Registers = Registers.clone();
-		r.Uniques   = Uniques.clone();
-		HashMap<Long, AbstractMemory> newMemories  = new HashMap<>();
-		for(HashMap.Entry<Long,AbstractMemory> entry : Memories.entrySet())
-			newMemories.put(entry.getKey(), entry.getValue().clone());
-		r.Memories = newMemories;
-		return r;
+	// lhs < rhs can be true iff the smallest lhs is below the largest rhs, and
+	// false iff the largest lhs is at least the smallest rhs.
+	static TVLBitVector ULT(TVLBitVector lhs, TVLBitVector rhs)
+	{
+		CheckSizes("ULT", lhs, rhs);
+		int n = lhs.Size(), w = Words(n);
+		long[] a = Pack(lhs), b = Pack(rhs);
+		long[] am = Mask(a, n), bm = Mask(b, n);
+		long[] aMin = Arrays.copyOfRange(a, w, 2*w), bMin = Arrays.copyOfRange(b, w, 2*w);
+		long[] aMax = new long[w], bMax = new long[w];
+		for(int i = 0; i < w; i++)
+		{
+			aMax[i] = aMin[i] | am[i];
+			bMax[i] = bMin[i] | bm[i];
+		}
+		boolean canBeTrue  = CompareWords(aMin, bMax, w) < 0;
+		boolean canBeFalse = CompareWords(aMax, bMin, w) >= 0;
+		if(canBeTrue && canBeFalse)
+			return TVLBitVectorUtil.CreateHalfBit();
+		return TVLBitVectorUtil.CreateBit(canBeTrue);
 	}
 	
+	// Lane by lane, stopping at the first bit that's known on both sides and 
+	// differs, as the scalar loop does.
+	static TVLBitVector EqualsInner(TVLBitVector lhs, TVLBitVector rhs, boolean shouldMatch)
+	{
+		CheckSizes("EqualsInner("+shouldMatch+")", lhs, rhs);
+		int n = lhs.Size(), i = 0;
+		boolean allKnown = true;
+		for( ; i + 8 <= n; i += 8)
+		{
+			long ta = lhs.Lanes(i), tb = rhs.Lanes(i);
+			long both = ~ta & ~tb & LowBits;
+			if((((ta ^ tb) >>> 1) & both) != 0)
+				return TVLBitVectorUtil.CreateBit(!shouldMatch);
+			allKnown &= both == LowBits;
+		}
+		for( ; i < n; i++)
+		{
+			byte a = lhs.Get(i), b = rhs.Get(i);
+			if(a == TVLBitVector.TVL_HALF || b == TVLBitVector.TVL_HALF)
+				allKnown = false;
+			else if(a != b)
+				return TVLBitVectorUtil.CreateBit(!shouldMatch);
+		}
+		if(!allKnown)
+			return TVLBitVectorUtil.CreateHalfBit();
+		return TVLBitVectorUtil.CreateBit(shouldMatch);
+	}
 }
 
-// The abstract interpreter is implemented as a derivative of the 
-// PcodeOpVisitor class, parameterized over TVLBitVector.
-class TVLAbstractInterpreter extends PcodeOpVisitor<TVLBitVector> {
+// A read-only snapshot of the initialized bytes of one of the program's 
+// address spaces. The bytes are exported once, block by block, into a file on
+// disk, which is then memory-mapped; nothing is copied onto the heap up front,
+// and the program database is never consulted again after the export. The
+// abstract memory falls back to this when it's asked for a byte that hasn't 
+// been written, so that loads from .rdata, jump tables and so on come out as
+// the constants that they actually are.
+class ProgramImage {
+	// Sorted (unsigned) start/end addresses of the exported ranges, inclusive,
+	// and the mappings of the file that hold their contents.
+	long[] Starts;
+	long[] Ends;
+	MappedByteBuffer[] Maps;
 	
-	public TVLAbstractGhidraState AbstractState;
+	// Mappings can't exceed 2GB; large blocks are split into pieces this big.
+	static final long MaxPiece = 1L << 30;
 	
-	// For the sake of global analysis, we should also have a constructor that
-	// allows these components to be specified, rather than initialized to Top.
-	public TVLAbstractInterpreter(boolean isBigEndian)
+	private ProgramImage(long[] starts, long[] ends, MappedByteBuffer[] maps)
 	{
-		AbstractState = new TVLAbstractGhidraState(isBigEndian);
+		Starts = starts;
+		Ends   = ends;
+		Maps   = maps;
 	}
 	
-	// For the sake of global analysis, we should also have a constructor that
-	// allows these components to be specified, rather than initialized to Top.
-	public TVLAbstractInterpreter(TVLAbstractGhidraState existing)
+	// Write out every initialized block in the given space to the file f, then
+	// map it back in.
+	static ProgramImage Export(Program program, AddressSpace space, File f) throws IOException, MemoryAccessException
+	{
+		ArrayList<MemoryBlock> blocks = new ArrayList<>();
+		for(MemoryBlock block : program.getMemory().getBlocks())
+			if(block.isInitialized() && block.getStart().getAddressSpace().equals(space))
+				blocks.add(block);
+		blocks.sort((a,b) -> Long.compareUnsigned(a.getStart().getOffset(), b.getStart().getOffset()));
+
+		ArrayList<long[]> pieces = new ArrayList<>();
+		try(RandomAccessFile raf = new RandomAccessFile(f, "rw"); FileChannel ch = raf.getChannel())
+		{
+			byte[] buf = new byte[0x10000];
+			long filePos = 0;
+			for(MemoryBlock block : blocks)
+			{
+				Address start = block.getStart();
+				long size = block.getSize();
+				
+				// Copy the block through a small buffer, so that only one chunk of 
+				// it is ever on the heap at a time.
+				for(long done = 0; done < size; )
+				{
+					int n = (int)Math.min(buf.length, size - done);
+					n = block.getBytes(start.add(done), buf, 0, n);
+					ch.write(ByteBuffer.wrap(buf, 0, n), filePos + done);
+					done += n;
+				}
+				for(long off = 0; off < size; off += MaxPiece)
+				{
+					long len = Math.min(MaxPiece, size - off);
+					pieces.add(new long[] { start.getOffset() + off, start.getOffset() + off + len - 1, filePos + off });
+				}
+				filePos += size;
+			}
+			
+			long[] starts = new long[pieces.size()];
+			long[] ends   = new long[pieces.size()];
+			MappedByteBuffer[] maps = new MappedByteBuffer[pieces.size()];
+			for(int i = 0; i < pieces.size(); i++)
+			{
+				long[] piece = pieces.get(i);
+				starts[i] = piece[0];
+				ends[i]   = piece[1];
+				maps[i]   = ch.map(FileChannel.MapMode.READ_ONLY, piece[2], piece[1] - piece[0] + 1);
+			}
+			return new ProgramImage(starts, ends, maps);
+		}
+	}
+	
+	// If non-null, every byte read through this image is noted here, for 
+	// FunctionStore to check that a stored result still holds.
+	ConcurrentHashMap<Long,Integer> Reads;
+	
+	// A view of the same image that notes the bytes read through it in reads.
+	ProgramImage Recording(ConcurrentHashMap<Long,Integer> reads)
 	{
-		AbstractState = existing.clone();
+		ProgramImage r = new ProgramImage(Starts, Ends, Maps);
+		r.Reads = reads;
+		return r;
 	}
-
-	// Convert constant varnodes to three-valued bitvectors.
-	TVLBitVector visit_Constant(Instruction instr, PcodeOp pcode, Varnode Constant) 
+	
+	// Get the byte at addr, or -1 if it wasn't part of an initialized block.
+	int ByteAt(long addr)
 	{
-		return new TVLBitVector(new GhidraSizeAdapter(Constant.getSize()), Constant.getOffset());
+		int b = -1;
+		int lo = 0, hi = Starts.length - 1;
+		while(lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(Long.compareUnsigned(addr, Starts[mid]) < 0)
+				hi = mid - 1;
+			else if(Long.compareUnsigned(addr, Ends[mid]) > 0)
+				lo = mid + 1;
+			else
+			{
+				b = Maps[mid].get((int)(addr - Starts[mid])) & 0xFF;
+				break;
+			}
+		}
+		if(Reads != null)
+			Reads.put(addr, b);
+		return b;
 	}
+}
 
-	// Lookup register varnodes in the abstract state.
-	TVLBitVector visit_Register(Instruction instr, PcodeOp pcode, Varnode Register) 
+// A limit on the number of bytes that any one memory space may hold, shared
+// by every memory in an analysis (including clones), along with a count of 
+// how many bytes have been thrown away to stay under it. Forgetting a byte is
+// always sound: it just goes back to being Top. The ranges where a memory has
+// forgotten its image count against the limit as well.
+class MemoryBudget {
+	// The smallest budget that's honored. Anything less can't even hold the
+	// widest quantity an instruction stores, let alone leave room for the 
+	// forgotten ranges of an image.
+	static final int MinCellBudget = 64;
+	
+	final int CellBudget;
+	final LongAdder Evictions;
+	
+	public MemoryBudget(int cellBudget)
 	{
-		return AbstractState.Lookup(Register);
+		CellBudget = cellBudget;
+		Evictions = new LongAdder();
 	}
+}
 
-	// Lookup unique varnodes in the abstract state.
-	TVLBitVector visit_Unique(Instruction instr, PcodeOp pcode, Varnode Unique) 
+// A deferred evaluation of a pcode operation: the opcode, plus snapshots of
+// its inputs as they were when the operation was interpreted. The result is 
+// only computed when some byte of the output is actually read; if the output
+// is overwritten first (as most flags and temporaries are), it never is.
+// 
+// The inputs are either constant bitvectors, or the arrays of memory Cells 
+// that held the input's bytes. Cells are never modified once stored (a store
+// replaces the Cell), so holding onto them is a snapshot in its own right, and
+// costs nothing to take. Input Cells can themselves be deferred, so thunks 
+// form chains; Depth is the length of the longest unevaluated chain beneath 
+// this one, and the state evaluates an operation immediately instead of 
+// deferring it if that would exceed MaxDepth. That bounds both the recursion
+// when a chain is finally forced, and the memory that a chain can hold on to.
+// Once evaluated, the inputs are dropped.
+class LazyValue {
+	static final int MaxDepth = 8;
+	
+	// Over all states: how many operations were deferred, and how many of 
+	// those were eventually evaluated.
+	static final LongAdder Deferred = new LongAdder();
+	static final LongAdder Evaluated = new LongAdder();
+	
+	final int Opcode;
+	final int OutBytes;
+	final int Depth;
+	final boolean bigEndian;
+	Object[] Inputs;
+	volatile TVLBitVector Result;
+	
+	LazyValue(int opcode, int outBytes, Object[] inputs, int depth, boolean isBigEndian)
 	{
-		return AbstractState.Lookup(Unique);
+		Opcode = opcode;
+		OutBytes = outBytes;
+		Inputs = inputs;
+		Depth = depth;
+		bigEndian = isBigEndian;
+		Deferred.increment();
 	}
 	
-	//
-	// Below here are the abstract interpretations of the pcode operations.
-	//
+	// The length of the longest unevaluated chain in a snapshot.
+	static int DepthOf(AbstractMemory.Cell[] cells)
+	{
+		int d = 0;
+		for(AbstractMemory.Cell c : cells)
+			if(c != null && c.Thunk != null && c.Thunk.Result == null)
+				d = Math.max(d, c.Thunk.Depth);
+		return d;
+	}
 	
-	// For the branch instructions, I think it makes sense to treat this 
-	// container class as being an intermediary class in a hierarchy, so as to
-	// simplify applying the analysis in local vs. global contexts. I.e. leave
-	// these unimplemented, and derive classes for local and global analyses that
-	// treat them differently.
-	// * PcodeOp.BRANCH
-	// * PcodeOp.BRANCHIND
-	// * PcodeOp.CALL
-	// * PcodeOp.CALLIND
-	// * PcodeOp.CALLOTHER
-	// * PcodeOp.CBRANCH
-	// * PcodeOp.RETURN
-
-	// Are these described in the documentation? Currently I let them throw 
-	// exceptions.
-	// * PcodeOp.SEGMENTOP
-	// * PcodeOp.UNIMPLEMENTED
+	// Evaluate the operation, if that hasn't happened already. Clones of a 
+	// state share Cells, and thus thunks, possibly across threads, hence the 
+	// synchronization.
+	synchronized TVLBitVector Force()
+	{
+		if(Result != null)
+			return Result;
+		TVLBitVector[] in = new TVLBitVector[Inputs.length];
+		for(int i = 0; i < in.length; i++)
+		{
+			if(Inputs[i] instanceof TVLBitVector)
+				in[i] = (TVLBitVector)Inputs[i];
+			else
+				in[i] = AbstractMemory.Assemble((AbstractMemory.Cell[])Inputs[i], bigEndian);
+		}
+		Result = TVLBitVectorUtil.Evaluate(Opcode, in, OutBytes);
+		Inputs = null;
+		Evaluated.increment();
+		return Result;
+	}
 	
-	// For now, for unhandled PcodeOp types that write to Varnodes, we just set 
-	// the output to Top. Future work: implement them in the case that their 
-	// source Varnodes are known to be constant.
-	void SetOutputToTop(Varnode output)
+	// The 8 bits starting at the given bit position of the result.
+	TVLBitVector Bits(int pos)
 	{
-		TVLBitVector result = new TVLBitVector(new GhidraSizeAdapter(output.getSize()));
-		AbstractState.Associate(output, result);
+		TVLBitVector r = Result;
+		if(r == null)
+			r = Force();
+		return r.Slice(pos, pos+8);
+	}
+}
+
+// The memory model. Memory is kept in a balanced tree keyed by address, so
+// that a write through a partially-known pointer only has to throw away the
+// range of addresses that the pointer could possibly refer to, rather than the
+// whole space. Writes to locations that are completely unknown still result
+// in an all-top memory, but that's just a matter of dropping the tree (and 
+// bumping the epoch counter, in case anyone needs to know that it happened).
+// Clones share their trees, and whichever side writes first copies them 
+// (copy-on-write), so a clone costs nothing until it's changed. A memory 
+// belongs to one thread at a time; a frozen one belongs to nobody, can't be 
+// changed, and can be read by any number of threads at once.
+class AbstractMemory {
+	
+	// Addresses are unsigned quantities, so the tree has to compare them that 
+	// way; otherwise a range that straddles 0x8000000000000000 would come out
+	// backwards.
+	static final Comparator<Long> UnsignedOrder = Long::compareUnsigned;
 
+	// One byte of memory. Referenced is set whenever the byte is read, and is
+	// what the eviction clock looks at. Clones share Cell objects, and thus 
+	// also share the bit, even across threads; that just makes it a slightly 
+	// blurrier heuristic. Reads through a frozen memory don't set it.
+	// The byte is either a Value, or the 8 bits at position Pos of a deferred
+	// operation's result.
+	static final class Cell {
+		final TVLBitVector Value;
+		final LazyValue Thunk;
+		final int Pos;
+		boolean Referenced;
+		Cell(TVLBitVector v) { Value = v; Thunk = null; Pos = 0; Referenced = false; }
+		Cell(LazyValue t, int pos) { Value = null; Thunk = t; Pos = pos; Referenced = false; }
+		TVLBitVector Get() { return Value != null ? Value : Thunk.Bits(Pos); }
 	}
+
+	// Memory is a sorted map from addresses to 8-bit bitvectors.
+	TreeMap<Long,Cell> Contents;
 	
-	// Same, but for boolean quantities
-	void SetOutputToTopBool(Varnode output)
+	// If non-null, the number of cells is held to Budget.CellBudget by evicting
+	// bytes that haven't been read recently. Hand is the position of the clock.
+	// With an image, the entries of Forgotten count against the budget too.
+	MemoryBudget Budget;
+	long Hand;
+	
+	// Incremented every time the whole space is discarded.
+	long Epoch;
+	
+	// Optionally, the program's initialized bytes, which are consulted for 
+	// addresses that haven't been written. Once a range has been invalidated, 
+	// the image can no longer be trusted for it, so those ranges are kept in
+	// Forgotten (start -> inclusive end, non-overlapping). Once the whole space
+	// has been invalidated, the image is dropped altogether.
+	ProgramImage Backing;
+	TreeMap<Long,Long> Forgotten;
+	
+	// If non-null, every change to this memory is reported to the history, 
+	// under the given region number. Clones don't inherit it.
+	StateHistory Journal;
+	int Region;
+	
+	// Shared: the trees might also belong to a clone, and have to be copied 
+	// before they're changed. Frozen: the memory can't be changed at all.
+	boolean Shared;
+	boolean Frozen;
+	
+	private boolean bigEndian;
+	public AbstractMemory(boolean isBigEndian) {
+		Contents = new TreeMap<>(UnsignedOrder);
+		Epoch = 0;
+		Backing = null;
+		Forgotten = new TreeMap<>(UnsignedOrder);
+		Budget = null;
+		Hand = 0;
+		bigEndian = isBigEndian;
+	}
+	
+	// Debugging.
+	void Dump(String str)
 	{
-		AbstractState.Associate(output, TVLBitVectorUtil.CreateHalfBit());
+		//Printer.println("Dump(): "+str);
+		//for (Map.Entry<Long,Cell> entry : Contents.entrySet())  
+		//	Printer.println("Key = " + entry.getKey() + ", Value = " + entry.getValue().Value); 
 	}
 	
-	// Unhandled, set top (future: if constant, use constant values)
-	void visit_INT_DIV(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	// The clone shares the trees. A frozen memory is always marked Shared 
+	// already, so cloning one from several threads at once writes nothing.
+	public AbstractMemory clone()
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-
-	// Unhandled, set top (future: if constant, use constant values)
-	void visit_INT_REM(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		AbstractMemory newMemory = new AbstractMemory(bigEndian);
+		if(!Shared)
+			Shared = true;
+		newMemory.Contents = Contents;
+		newMemory.Epoch = Epoch;
+		newMemory.Backing = Backing;
+		newMemory.Forgotten = Forgotten;
+		newMemory.Budget = Budget;
+		newMemory.Hand = Hand;
+		newMemory.Shared = true;
+		return newMemory;
+	}
+	
+	// A clone that can't be changed, to hand to other threads.
+	AbstractMemory Freeze()
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-
-	// Unhandled, set top (future: if constant, use constant values)
-	void visit_INT_SDIV(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		AbstractMemory r = clone();
+		r.Frozen = true;
+		return r;
+	}
+	
+	// Called before every change. The SortedMap constructor builds the copies
+	// in linear time.
+	void Mutate()
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-
-	// Unhandled, set top (future: if constant, use constant values)
-	void visit_INT_SREM(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 	
+		if(Frozen)
+			throw new IllegalStateException("AbstractMemory: write to a frozen memory");
+		if(Shared)
+		{
+			Contents = new TreeMap<>(Contents);
+			Forgotten = new TreeMap<>(Forgotten);
+			Shared = false;
+		}
+	}
+	
+	// Note that a cell was read, for the eviction clock.
+	void Touch(Cell c)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-
-	// Unhandled, set top. Can implement in the future.
-	void visit_INT_CARRY(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		if(!Frozen && !c.Referenced)
+			c.Referenced = true;
+	}
+	
+	// Number of bytes currently held.
+	int CellCount()
 	{
-		SetOutputToTopBool(pcode.getOutput());
-	}; 
-
-	// Unhandled, set top. Can implement in the future.
-	void visit_INT_SBORROW(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		return Contents.size();
+	}
+	
+	// Store a byte to the specified location.
+	void Store(long addr, TVLBitVector bv)
 	{
-		SetOutputToTopBool(pcode.getOutput());
-	}; 
-
-	// Unhandled, set top. Can implement in the future.
-	void visit_INT_SCARRY(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		Mutate();
+		Contents.put(addr,new Cell(bv));
+		if(Journal != null)
+			Journal.Touched(Region, addr);
+		//HashMap<Long,TVLBitVector> newContents = (HashMap)Contents.clone();
+		//AbstractMemory newMemory = new AbstractMemory();
+		//newMemory.Contents = newContents;
+		//return newMemory;
+	}
+	
+	// The image is forgotten in lines of this many bytes when bytes are 
+	// evicted; see Evict().
+	static final long ForgetGrain = 256;
+	
+	// Has the whole image been forgotten? Then there's nothing left of it to 
+	// forget.
+	boolean ImageForgotten()
 	{
-		SetOutputToTopBool(pcode.getOutput());
-	}; 
-
-	// These should be changed to maintain separate memory objects based upon
-	// the Varnode that dictates the space underlying the load/store.
-	void visit_LOAD(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
-	{ 
-		TVLBitVector addr = visit_Varnode(instr,pcode,pcode.getInput(1));
-		Varnode memory = pcode.getInput(0);
-		Varnode output = pcode.getOutput();
-		Pair<Integer,Long> p = addr.GetConstantValue();
-		
-		TVLBitVector result;
-		if(p == null)
-			result = new TVLBitVector(new GhidraSizeAdapter(output.getSize()));
-		else
-			result = AbstractState.Load(memory, p.y, p.x);
-		AbstractState.Associate(output, result);
-	}; 
-	void visit_STORE(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		return Forgotten.size() == 1 && Forgotten.firstKey() == 0 && Forgotten.firstEntry().getValue() == -1L;
+	}
+	
+	// Does the memory hold more than its budget allows? An entry of Forgotten 
+	// costs about as much as a cell, so with an image, those count as well,
+	// until the whole image is forgotten and they're down to one for good.
+	boolean OverBudget()
 	{
-		Varnode memory = pcode.getInput(0);
-		TVLBitVector addr = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector what = visit_Varnode(instr,pcode,pcode.getInput(2));
-		Pair<Integer,Long> p = addr.GetConstantValue();
-		if(p != null)
-			AbstractState.Store(memory, p.y, what);
-		else
-			AbstractState.MakeMemoryTop(memory);
-	}; 
+		return Budget != null && Budget.CellBudget > 0 && 
+			Contents.size() + (Backing != null && !ImageForgotten() ? Forgotten.size() : 0) > Budget.CellBudget;
+	}
 	
-	// And the remainder have been implemented, albeit not rigorously tested.
-	void visit_BOOL_AND(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	// Second-chance ("clock") eviction, giving an approximation of evicting the
+	// least-recently-read byte: sweep upwards through the addresses from where
+	// the last sweep stopped, clearing read bits, and throw out the first byte 
+	// whose bit was already clear. The bytes that were just stored, [lo, hi], 
+	// are never the victims. If there is an image underneath, the evicted byte
+	// has to be forgotten there too, or else the stale program byte would show
+	// through. The victims are scattered, and forgetting each of them on its 
+	// own would leave an entry in Forgotten for every one, so the image is 
+	// forgotten for the whole aligned ForgetGrain-byte line around the victim,
+	// and for the whole space once Forgotten takes up a quarter of the budget.
+	void Evict(long lo, long hi)
+	{
+		Mutate();
+		// If the budget is smaller than the quantity itself, there may be nothing
+		// else left to evict.
+		while(OverBudget() && Contents.size() > hi - lo + 1)
+		{
+			boolean image = Backing != null && !ImageForgotten();
+			if(image && Forgotten.size() > Budget.CellBudget / 4)
+			{
+				ForgetImage(0, -1L);
+				continue;
+			}
+			Map.Entry<Long,Cell> e = Contents.ceilingEntry(Hand);
+			if(e == null)
+				e = Contents.firstEntry();
+			long addr = e.getKey();
+			Hand = addr + 1;
+			Cell c = e.getValue();
+			if(c.Referenced || Long.compareUnsigned(addr - lo, hi - lo) <= 0)
+			{
+				c.Referenced = false;
+				continue;
+			}
+			Contents.remove(addr);
+			if(Journal != null)
+				Journal.Forgot(Region, addr, addr);
+			if(image)
+				ForgetImage(addr & -ForgetGrain, addr | (ForgetGrain - 1));
+			Budget.Evictions.increment();
+		}
+	}
+	
+	// Return a new memory, entirely unknown.
+	AbstractMemory Top()
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.CreateSingle(TVLBitVectorUtil.AndTable[lhs.Value()[0]][rhs.Value()[0]]);
-		AbstractState.Associate(pcode.getOutput(), result);
+		return new AbstractMemory(bigEndian);
 	}
-	void visit_BOOL_NEGATE(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	
+	// Make this memory entirely unknown, in place. This is O(1): the old tree
+	// is simply dropped on the floor rather than cleared entry-by-entry.
+	void MakeTop()
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector result = TVLBitVectorUtil.CreateSingle(TVLBitVectorUtil.NotTable[lhs.Value()[0]]);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_BOOL_OR(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		if(Frozen)
+			throw new IllegalStateException("AbstractMemory: write to a frozen memory");
+		Contents = new TreeMap<>(UnsignedOrder);
+		Epoch++;
+		Backing = null;
+		Forgotten = new TreeMap<>(UnsignedOrder);
+		Shared = false;
+		if(Journal != null)
+			Journal.MadeTop(Region);
+	}
+	
+	// Record that the image can't be used for [lo, hi] anymore.
+	void Forget(long lo, long hi)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.CreateSingle(TVLBitVectorUtil.OrTable[lhs.Value()[0]][rhs.Value()[0]]);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_BOOL_XOR(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		Mutate();
+		MergeRange(Forgotten, lo, hi);
+	}
+	
+	// Same, but journaled on its own, since the cells in [lo, hi] are kept.
+	void ForgetImage(long lo, long hi)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.CreateSingle(TVLBitVectorUtil.XorTable[lhs.Value()[0]][rhs.Value()[0]]);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_COPY(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		Forget(lo, hi);
+		if(Journal != null)
+			Journal.ForgotImage(Region, lo, hi);
+	}
+	
+	// Add [lo, hi] to a map of non-overlapping ranges (start -> inclusive end,
+	// unsigned), merging with any ranges that overlap or abut it.
+	static void MergeRange(TreeMap<Long,Long> ranges, long lo, long hi)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		AbstractState.Associate(pcode.getOutput(), lhs);		
-	}; 
-
-	void visit_INT_2COMP(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
-	{ 
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector result = TVLBitVectorUtil.Neg(lhs);
-		AbstractState.Associate(pcode.getOutput(), result);		
-	}; 
-	void visit_INT_ADD(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
-	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.Add(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_AND(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
-	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.And(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_EQUAL(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
-	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.Equals(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_LEFT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
-	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.ShiftLeftBv(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_LESS(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
-	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.ULT(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_LESSEQUAL(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		Map.Entry<Long,Long> prev = ranges.floorEntry(lo);
+		if(prev != null && (Long.compareUnsigned(prev.getValue(), lo) >= 0 || prev.getValue() + 1 == lo))
+		{
+			lo = prev.getKey();
+			if(Long.compareUnsigned(prev.getValue(), hi) > 0)
+				hi = prev.getValue();
+		}
+		while(true)
+		{
+			Map.Entry<Long,Long> next = ranges.ceilingEntry(lo);
+			if(next == null || (Long.compareUnsigned(next.getKey(), hi) > 0 && next.getKey() != hi + 1))
+				break;
+			if(Long.compareUnsigned(next.getValue(), hi) > 0)
+				hi = next.getValue();
+			ranges.remove(next.getKey());
+		}
+		ranges.put(lo, hi);
+	}
+	
+	// Is the image still good for this address?
+	boolean IsForgotten(long addr)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.ULE(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_MULT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		Map.Entry<Long,Long> e = Forgotten.floorEntry(addr);
+		return e != null && Long.compareUnsigned(e.getValue(), addr) >= 0;
+	}
+
+	// Forget everything in the inclusive range [lo, hi]. If lo > hi (unsigned),
+	// the range is taken to wrap around the top of the 64-bit space. Costs 
+	// O(log n) to find the range, plus the number of entries actually removed.
+	void InvalidateRange(long lo, long hi)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.Multiply(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_NEGATE(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		if(Long.compareUnsigned(lo, hi) <= 0)
+		{
+			Mutate();
+			Contents.subMap(lo, true, hi, true).clear();
+			if(Backing != null)
+				Forget(lo, hi);
+			if(Journal != null)
+				Journal.Forgot(Region, lo, hi);
+		}
+		else
+		{
+			InvalidateRange(lo, -1L);
+			InvalidateRange(0, hi);
+		}
+	}
+
+	// Forget everything that a write of nBytes bytes could have touched, given
+	// that the address lies somewhere in [lo, hi] in an addrBits-bit space. 
+	// Addresses wrap around at the top of the space, just as they do in the 
+	// pcode.
+	void InvalidateSpan(long lo, long hi, int nBytes, int addrBits)
+	{
+		long mask = addrBits >= 64 ? -1L : (1L << addrBits) - 1;
+		lo &= mask;
+		hi &= mask;
+		long last = hi + (nBytes - 1);
+
+		// If the span covers the whole space, don't bother walking the tree.
+		if(lo == 0 && hi == mask)
+		{
+			MakeTop();
+			return;
+		}
+		// Did the span run past the top of the space? If so, the part that ran
+		// over lands at the bottom.
+		if(addrBits >= 64 ? Long.compareUnsigned(last, hi) < 0 : Long.compareUnsigned(last, mask) > 0)
+		{
+			InvalidateRange(lo, mask);
+			InvalidateRange(0, last & mask);
+		}
+		else
+			InvalidateRange(lo, last);
+		Dump("InvalidateSpan(): "+lo+" "+hi+" "+nBytes);
+	}
+
+	// Store a multi-byte quantity into memory as one range, and then make room
+	// for it if it took the memory over budget. Usually the range is already 
+	// held in full (a variable or a spill slot being written again), and then
+	// the cells are replaced in place in one pass over the range, rather than
+	// looking each byte up from the root. Otherwise the range is cleared and 
+	// filled in.
+	void StoreWholeQuantity(long addr, TVLBitVector bv)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector result = TVLBitVectorUtil.Not(lhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_NOTEQUAL(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		int bvSize = bv.Size();
+		int nBytes = bvSize / 8;
+		long last = addr + (nBytes - 1);
+		Mutate();
+		Cell[] cells = new Cell[nBytes];
+		for(int i = 0; i < nBytes; i++)
+			cells[i] = new Cell(bigEndian ? bv.Slice(bvSize-(i+1)*8, bvSize-i*8) : bv.Slice(i*8, (i+1)*8));
+		if(Long.compareUnsigned(last, addr) >= 0)
+		{
+			NavigableMap<Long,Cell> range = Contents.subMap(addr, true, last, true);
+			if(range.size() == nBytes)
+			{
+				int i = 0;
+				for(Map.Entry<Long,Cell> e : range.entrySet())
+					e.setValue(cells[i++]);
+			}
+			else
+			{
+				range.clear();
+				for(int i = 0; i < nBytes; i++)
+					Contents.put(addr + i, cells[i]);
+			}
+		}
+		else
+		{
+			// The quantity wraps around the top of the address space.
+			for(int i = 0; i < nBytes; i++)
+				Contents.put(addr + i, cells[i]);
+		}
+		if(Journal != null)
+			for(int i = 0; i < nBytes; i++)
+				Journal.Touched(Region, addr + i);
+		if(OverBudget())
+			Evict(addr, last);
+		Dump("StoreWholeQuantity(): "+addr+" "+bv);
+	}
+	
+	void StoreWholeQuantity(Varnode dest, TVLBitVector bv)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.NotEquals(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_OR(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		StoreWholeQuantity(dest.getOffset(), bv);
+	}
+	
+	// Store a deferred nBytes-byte result. Each byte's Cell refers to its 
+	// position within the result, laid out as in StoreWholeQuantity().
+	void StoreLazy(long addr, int nBytes, LazyValue lv)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.Or(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_RIGHT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		Mutate();
+		for(int i = 0; i < nBytes; i++)
+		{
+			Contents.put(addr + i, new Cell(lv, bigEndian ? (nBytes-1-i)*8 : i*8));
+			if(Journal != null)
+				Journal.Touched(Region, addr + i);
+		}
+		if(OverBudget())
+			Evict(addr, addr + nBytes - 1);
+	}
+	
+	// The Cells holding an nBytes-byte quantity, as an input snapshot for a 
+	// deferred operation. Bytes that haven't been written are null (i.e. Top),
+	// unless there's a program image, in which case its byte is captured now.
+	Cell[] Snapshot(long addr, int nBytes)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.ShiftRightBv(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_SEXT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		Cell[] cells = new Cell[nBytes];
+		for(int i = 0; i < nBytes; i++)
+		{
+			Cell c = Contents.get(addr + i);
+			if(c == null && Backing != null)
+				c = new Cell(Lookup(addr + i));
+			if(c != null)
+				Touch(c);
+			cells[i] = c;
+		}
+		return cells;
+	}
+	
+	// Put a snapshot back together into a bitvector.
+	static TVLBitVector Assemble(Cell[] cells, boolean isBigEndian)
+	{
+		byte[] arr = new byte[cells.length * 8];
+		Arrays.fill(arr, TVLBitVector.TVL_HALF);
+		for(int i = 0; i < cells.length; i++)
+			if(cells[i] != null)
+				PlaceByte(arr, i, cells.length, cells[i].Get(), isBigEndian);
+		return TVLBitVector.Wrap(arr);
+	}
+	
+	// Load one byte, or return top if the address was unmapped.
+	TVLBitVector Lookup(long addr)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		Varnode output = pcode.getOutput();
-		TVLBitVector result = TVLBitVectorUtil.SignExtend(lhs, new GhidraSizeAdapter(output.getSize()));
-		AbstractState.Associate(output, result);
-	}; 
-	void visit_INT_SLESS(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		Dump("Lookup(): "+addr);
+		Cell c = Contents.get(addr);
+		if(c != null)
+		{
+			Touch(c);
+			return c.Get();
+		}
+		return Underneath(addr);
+	}
+	
+	// Same, but without counting it as a read for the eviction clock.
+	TVLBitVector Peek(long addr)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.SLT(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_SLESSEQUAL(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		Cell c = Contents.get(addr);
+		return c != null ? c.Get() : Underneath(addr);
+	}
+	
+	// What a read of an address without a Cell sees: the image's byte if 
+	// there is one, and top otherwise.
+	TVLBitVector Underneath(long addr)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.SLE(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_SRIGHT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
-	{ 
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.ShiftRightArithmeticBv(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_SUB(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		if(Backing != null && !IsForgotten(addr))
+		{
+			int b = Backing.ByteAt(addr);
+			if(b >= 0)
+				return new TVLBitVector(8, b);
+		}
+		return new TVLBitVector(8);
+	}
+	
+	// The join of two memories, where control flow merges: every byte is the
+	// Join of what the two would read there. Bytes that come out top are left
+	// out, unless the result's image would show through. The result can only
+	// use the image if both sides can, for the addresses neither has forgotten.
+	static AbstractMemory Join(AbstractMemory a, AbstractMemory b)
+	{
+		// Clones that haven't been written since share their trees.
+		if(a.Contents == b.Contents && a.Forgotten == b.Forgotten && a.Backing == b.Backing)
+			return a.clone();
+		AbstractMemory r = new AbstractMemory(a.bigEndian);
+		r.Budget = a.Budget;
+		r.Epoch = Math.max(a.Epoch, b.Epoch);
+		if(a.Backing != null && b.Backing != null)
+		{
+			r.Backing = a.Backing;
+			for(Map.Entry<Long,Long> f : a.Forgotten.entrySet())
+				r.Forget(f.getKey(), f.getValue());
+			for(Map.Entry<Long,Long> f : b.Forgotten.entrySet())
+				r.Forget(f.getKey(), f.getValue());
+		}
+		// An address that only b holds can only join to something other than
+		// top if a's image is underneath it, and vice versa.
+		for(Map.Entry<Long,Cell> e : a.Contents.entrySet())
+			r.JoinCell(e.getKey(), e.getValue(), b);
+		if(a.Backing != null)
+			for(Map.Entry<Long,Cell> e : b.Contents.entrySet())
+				if(!a.Contents.containsKey(e.getKey()))
+					r.JoinCell(e.getKey(), e.getValue(), a);
+		return r;
+	}
+	
+	void JoinCell(long addr, Cell mine, AbstractMemory other)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.Subtract(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_XOR(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		Cell theirs = other.Contents.get(addr);
+		if(theirs == mine)
+		{
+			Contents.put(addr, mine);
+			return;
+		}
+		TVLBitVector v = TVLBitVectorUtil.Join(mine.Get(), theirs != null ? theirs.Get() : other.Underneath(addr));
+		if(v.IsAllTop() && (Backing == null || IsForgotten(addr)))
+			return;
+		Contents.put(addr, new Cell(v));
+	}
+	
+	// Do two memories read the same everywhere? Used to detect when a join 
+	// has stopped changing anything, so it needn't be exact for memories 
+	// backed by an image: a cell holding the image's own byte counts as a 
+	// difference, which only costs another pass.
+	static boolean Same(AbstractMemory a, AbstractMemory b)
+	{
+		if(a.Contents == b.Contents && a.Forgotten == b.Forgotten && a.Backing == b.Backing)
+			return true;
+		if(a.Contents.size() != b.Contents.size() || a.Backing != b.Backing || !a.Forgotten.equals(b.Forgotten))
+			return false;
+		Iterator<Map.Entry<Long,Cell>> ib = b.Contents.entrySet().iterator();
+		for(Map.Entry<Long,Cell> ea : a.Contents.entrySet())
+		{
+			Map.Entry<Long,Cell> eb = ib.next();
+			if(!ea.getKey().equals(eb.getKey()))
+				return false;
+			if(ea.getValue() != eb.getValue() && !ea.getValue().Get().equals(eb.getValue().Get()))
+				return false;
+		}
+		return true;
+	}
+	
+	// Copy the 8 bits of the byte at index i (counting from the lowest address)
+	// of an n-byte quantity into its place in the little-endian array arr.
+	void PlaceByte(byte[] arr, int i, int nBytes, TVLBitVector val)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
-		TVLBitVector result = TVLBitVectorUtil.Xor(lhs,rhs);
-		AbstractState.Associate(pcode.getOutput(), result);
-	}; 
-	void visit_INT_ZEXT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		PlaceByte(arr, i, nBytes, val, bigEndian);
+	}
+	static void PlaceByte(byte[] arr, int i, int nBytes, TVLBitVector val, boolean isBigEndian)
 	{
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		Varnode output = pcode.getOutput();
-		TVLBitVector result = TVLBitVectorUtil.ZeroExtend(lhs, new GhidraSizeAdapter(output.getSize()));
-		AbstractState.Associate(output, result);
-	}; 
+		int pos = isBigEndian ? (nBytes-1)-i : i;
+		val.CopyTo(0, arr, pos*8, 8);
+	}
 
-	// I think I can implement this, once I'm sure I understand it precisely.
-	// For now, unhandled.
-	void visit_PIECE            (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	// Load a multi-byte quantity, where the size is specified in bits. The 
+	// range is pulled out of the tree in one pass; anything that isn't present
+	// stays at 1/2.
+	TVLBitVector LookupWholeQuantity(long addr, int size)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-
-	// I think I can implement this, once I'm sure I understand it precisely.
-	// For now, unhandled.
-	void visit_SUBPIECE         (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+		int nBytes = size / 8;
+		byte[] arr = new byte[size];
+		Arrays.fill(arr, TVLBitVector.TVL_HALF);
+		long last = addr + (nBytes - 1);
+		
+		// The quantity wraps around the top of the address space, which basically
+		// never happens, or there are gaps that might have to be filled from the 
+		// program image. Just do it a byte at a time.
+		if(Backing != null || Long.compareUnsigned(last, addr) < 0)
+		{
+			for(int i = 0; i < nBytes; i++)
+				PlaceByte(arr, i, nBytes, Lookup(addr+i));
+			return TVLBitVector.Wrap(arr);
+		}
+		for(Map.Entry<Long,Cell> entry : Contents.subMap(addr, true, last, true).entrySet())
+		{
+			Cell c = entry.getValue();
+			Touch(c);
+			PlaceByte(arr, (int)(entry.getKey() - addr), nBytes, c.Get());
+		}
+		return TVLBitVector.Wrap(arr);
+	}
+	
+	// Load a multi-byte quantity, where the size is specified as a number of 
+	// bytes in a wrapper.
+	TVLBitVector LookupWholeQuantity(long addr, GhidraSizeAdapter gsa)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
+		return LookupWholeQuantity(addr, gsa.sz*8);
+	}
 
-	// Floating point boolean-returning operations, all unhandled (set to top)
-	void visit_FLOAT_EQUAL      (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	// Load a multi-byte quantity, where the size is specified as a number of 
+	// bytes in a wrapper.
+	TVLBitVector LookupWholeQuantity(Varnode src)
 	{
-		SetOutputToTopBool(pcode.getOutput());
-	}; 
-	void visit_FLOAT_NOTEQUAL   (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		return LookupWholeQuantity(src.getOffset(), src.getSize() * 8);
+	}
+	
+	void clear()
 	{
-		SetOutputToTopBool(pcode.getOutput());
-	}; 
-	void visit_FLOAT_LESS       (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		if(Frozen)
+			throw new IllegalStateException("AbstractMemory: write to a frozen memory");
+		Contents = new TreeMap<>(UnsignedOrder);
+		Forgotten = new TreeMap<>(UnsignedOrder);
+		Shared = false;
+		if(Journal != null)
+			Journal.Cleared(Region);
+	}
+};
+
+// LOAD and STORE name the address space that they access via the offset of
+// their first (constant) input. There are only ever a handful of these per 
+// language, so rather than hashing the id on every memory operation, each one
+// is given a small dense index the first time it's seen, and the abstract 
+// state keeps its memories in an array under that index. A linear scan over 
+// two or three longs beats a hash probe and a boxed Long.
+// 
+// Every clone of a state shares the table, and the clones might be on 
+// different threads. Lookups don't lock: the array is never written once 
+// it's published, only replaced by a longer copy, so its length is the count.
+class AddressSpaceTable {
+	volatile long[] Ids;
+	
+	public AddressSpaceTable()
 	{
-		SetOutputToTopBool(pcode.getOutput());
-	}; 
-	void visit_FLOAT_LESSEQUAL  (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		Ids = new long[0];
+	}
+	
+	// Get the dense index for the space id, assigning a new one if necessary.
+	int Resolve(long spaceId)
+	{
+		long[] ids = Ids;
+		for(int i = 0; i < ids.length; i++)
+			if(ids[i] == spaceId)
+				return i;
+		return Add(spaceId);
+	}
+	
+	// Another thread might have added the id since the unlocked scan, so look
+	// again before adding it.
+	synchronized int Add(long spaceId)
+	{
+		long[] ids = Ids;
+		for(int i = 0; i < ids.length; i++)
+			if(ids[i] == spaceId)
+				return i;
+		long[] grown = Arrays.copyOf(ids, ids.length+1);
+		grown[ids.length] = spaceId;
+		Ids = grown;
+		return ids.length;
+	}
+	
+	// Same, given the first input of a LOAD or STORE.
+	int Resolve(Varnode mem)
+	{
+		return Resolve(mem.getOffset());
+	}
+}
+
+// This class holds an abstract machine state: 
+// * Register Varnodes
+// * Unique Varnodes
+// * An array of AbstractMemory objects, indexed by dense address space index
+// 
+// A state belongs to one thread at a time. To hand one to other threads, 
+// Freeze() it: the frozen snapshot can't be changed, and any number of 
+// threads can read or clone it at once. Cloning is cheap either way, since 
+// the memories are copied on write, and the bitvectors are immutable.
+class TVLAbstractGhidraState {
+	AbstractMemory Registers;
+	AbstractMemory Uniques;
+	AbstractMemory[] Memories;
+	AddressSpaceTable Spaces;
+	
+	// Program images backing each space index, if any. Shared between clones.
+	ProgramImage[] Images;
+	
+	// If non-null, the cell budget that every memory space is held to.
+	MemoryBudget Budget;
+	boolean bigEndian;
+	
+	// If non-null, the history that the registers and memories report their
+	// changes to (see StateHistory). Not carried over to clones.
+	StateHistory Journal;
+	
+	// Where warnings about the state go. Carried over to clones.
+	Diagnostics Diag;
+	
+	// Set on snapshots made by Freeze().
+	boolean Frozen;
+	
+	// Every slot for a space that hasn't been written to points here. It's 
+	// empty, so loads from it come back as Top without allocating a memory 
+	// object. It's frozen, so it can't be written to.
+	static final AbstractMemory Unmapped = new AbstractMemory(false).Freeze();
+		
+	public TVLAbstractGhidraState(boolean isBigEndian)
+	{
+		Registers = new AbstractMemory(isBigEndian);
+		Uniques   = new AbstractMemory(isBigEndian);
+		Memories  = new AbstractMemory[4];
+		Arrays.fill(Memories, Unmapped);
+		Spaces    = new AddressSpaceTable();
+		Images    = new ProgramImage[0];
+		Budget    = null;
+		bigEndian = isBigEndian;
+		Diag      = Printer.Async();
+	}
+	
+	// Throw if this is a frozen snapshot. The memories check for themselves;
+	// this is for the changes that don't go through them.
+	void CheckWritable()
+	{
+		if(Frozen)
+			throw new IllegalStateException("TVLAbstractGhidraState: write to a frozen state");
+	}
+		
+	public void clear()
+	{
+		CheckWritable();
+		Registers.clear();
+		Uniques.clear();
+		// Let the history see the memories go.
+		for(AbstractMemory am : Memories)
+			if(am.Journal != null)
+				am.clear();
+		Arrays.fill(Memories, Unmapped);
+	}
+	
+	public void ClearUniques()
+	{
+		Uniques.clear();
+	}
+	
+	// Can AssociateLazy() take this operation? Its output has to be a register
+	// or unique, and its inputs have to be registers, uniques, or constants.
+	public boolean CanDefer(PcodeOp op)
+	{
+		Varnode out = op.getOutput();
+		if(out == null || !(out.isRegister() || out.isUnique()))
+			return false;
+		for(Varnode v : op.getInputs())
+			if(!(v.isConstant() || v.isRegister() || v.isUnique()))
+				return false;
+		return true;
+	}
+	
+	// Instead of evaluating an operation, record it in its output, to be 
+	// evaluated if and when the output is read. If the chain of deferred 
+	// operations would grow too long, the operation is evaluated now.
+	public void AssociateLazy(PcodeOp op)
+	{
+		Varnode out = op.getOutput();
+		Varnode[] ins = op.getInputs();
+		Object[] snaps = new Object[ins.length];
+		int depth = 0;
+		for(int i = 0; i < ins.length; i++)
+		{
+			Varnode v = ins[i];
+			if(v.isConstant())
+				snaps[i] = new TVLBitVector(new GhidraSizeAdapter(v.getSize()), v.getOffset());
+			else
+			{
+				AbstractMemory.Cell[] cells = (v.isRegister() ? Registers : Uniques).Snapshot(v.getOffset(), v.getSize());
+				depth = Math.max(depth, LazyValue.DepthOf(cells));
+				snaps[i] = cells;
+			}
+		}
+		LazyValue lv = new LazyValue(op.getOpcode(), out.getSize(), snaps, depth + 1, bigEndian);
+		if(lv.Depth > LazyValue.MaxDepth)
+			Associate(out, lv.Force());
+		else
+			(out.isRegister() ? Registers : Uniques).StoreLazy(out.getOffset(), out.getSize(), lv);
+	}
+	
+	// Evaluate every deferred operation held in the state, e.g. before 
+	// exporting it.
+	public void ForceAll()
+	{
+		for(AbstractMemory.Cell c : Registers.Contents.values())
+			c.Get();
+		for(AbstractMemory.Cell c : Uniques.Contents.values())
+			c.Get();
+		for(AbstractMemory am : Memories)
+			for(AbstractMemory.Cell c : am.Contents.values())
+				c.Get();
+	}
+	
+	// Resolve the space named by the first input of a LOAD or STORE to its 
+	// dense index. Do this once per pcode operation.
+	public int SpaceIndex(Varnode mem)
+	{
+		return Spaces.Resolve(mem);
+	}
+	
+	// Same, given the space id directly.
+	public int SpaceIndex(long spaceId)
+	{
+		return Spaces.Resolve(spaceId);
+	}
+	
+	// Serve reads of unwritten addresses in the given space from the image.
+	public void AttachImage(int space, ProgramImage image)
+	{
+		CheckWritable();
+		if(space >= Images.length)
+			Images = Arrays.copyOf(Images, space+1);
+		Images[space] = image;
+		if(space < Memories.length && Memories[space] != Unmapped)
+			Memories[space].Backing = image;
+	}
+	
+	// Hold every memory space to at most cellBudget bytes from here on (but 
+	// no fewer than MemoryBudget.MinCellBudget).
+	public void SetCellBudget(int cellBudget)
+	{
+		CheckWritable();
+		Budget = new MemoryBudget(cellBudget > 0 ? Math.max(cellBudget, MemoryBudget.MinCellBudget) : cellBudget);
+		for(AbstractMemory am : Memories)
+			if(am != Unmapped)
+				am.Budget = Budget;
+	}
+	
+	// Report every change to the registers and memories (but not the uniques,
+	// which don't outlive an instruction) to the history. The registers are 
+	// region 0, and the memory for space index s is region s+1.
+	public void SetJournal(StateHistory h)
+	{
+		CheckWritable();
+		Journal = h;
+		Registers.Journal = h;
+		Registers.Region = 0;
+		for(int i = 0; i < Memories.length; i++)
+		{
+			if(Memories[i] != Unmapped)
+			{
+				Memories[i].Journal = h;
+				Memories[i].Region = i + 1;
+			}
+		}
+	}
+	
+	// The number of byte cells held in the registers and every memory space.
+	public int CellCount()
+	{
+		int n = Registers.CellCount() + Uniques.CellCount();
+		for(AbstractMemory am : Memories)
+			n += am.CellCount();
+		return n;
+	}
+	
+	// How many bytes have been evicted to stay within the budget.
+	public long EvictionCount()
+	{
+		return Budget == null ? 0 : Budget.Evictions.sum();
+	}
+	
+	// Get the memory for the given space index, which might be Unmapped. If 
+	// the space is backed by an image, the memory has to exist so that the
+	// image is consulted (and so that invalidations are recorded against it).
+	AbstractMemory GetMemory(int space)
+	{
+		if(space < Images.length && Images[space] != null)
+			return GetWritableMemory(space);
+		if(space >= Memories.length)
+			return Unmapped;
+		return Memories[space];
+	}
+	
+	// Get the memory for the given space index, creating it if it was Unmapped.
+	AbstractMemory GetWritableMemory(int space)
+	{
+		CheckWritable();
+		if(space >= Memories.length)
+		{
+			int oldLength = Memories.length;
+			Memories = Arrays.copyOf(Memories, Math.max(space+1, oldLength*2));
+			Arrays.fill(Memories, oldLength, Memories.length, Unmapped);
+		}
+		AbstractMemory am = Memories[space];
+		if(am == Unmapped)
+		{
+			am = new AbstractMemory(bigEndian);
+			if(space < Images.length)
+				am.Backing = Images[space];
+			am.Budget = Budget;
+			if(Journal != null)
+			{
+				am.Journal = Journal;
+				am.Region = space + 1;
+			}
+			Memories[space] = am;
+		}
+		return am;
+	}
+	
+	// Associate a varnode *as though it was a variable* with a three-valued
+	// bitvector. Again, as above, should be changed into memory writes.
+	public void Associate(Varnode dest, TVLBitVector bv)
+	{
+		//Printer.println("Associate(): "+dest.toString()+" -> "+bv.toString());
+		if(dest.isRegister())
+			Registers.StoreWholeQuantity(dest, bv);
+		else if(dest.isUnique())
+			Uniques.StoreWholeQuantity(dest,bv);
+		else
+		{
+			Diag.Report("Associate(): Unknown destination", dest);
+			// Should throw an exception here...
+		}
+	}
+	public void Store(int space, long addr, TVLBitVector bv)
+	{
+		GetWritableMemory(space).StoreWholeQuantity(addr, bv);
+	}
+	public void Store(Varnode mem, long addr, TVLBitVector bv)
+	{
+		Store(SpaceIndex(mem), addr, bv);
+	}
+	public TVLBitVector Lookup(Varnode what)
+	{
+		if(what.isRegister())
+			return Registers.LookupWholeQuantity(what);
+		if(what.isUnique())
+			return Uniques.LookupWholeQuantity(what);
+		// If this happens, read the documentation
+		// Should throw an exception here
+		Diag.Report("Lookup(): Unknown source", what);
+		return new TVLBitVector(new GhidraSizeAdapter(what.getSize()));
+	}
+	
+	public TVLBitVector Load(int space, long addr, int size)
+	{
+		return GetMemory(space).LookupWholeQuantity(addr, size);
+	}
+	public TVLBitVector Load(Varnode mem, long addr, int size)
+	{
+		return Load(SpaceIndex(mem), addr, size);
+	}
+	
+	public void MakeMemoryTop(int space)
+	{
+		AbstractMemory am = GetMemory(space);
+		if(am == Unmapped)
+			return;
+		MemoryInvalidationEvent e = new MemoryInvalidationEvent();
+		e.begin();
+		int before = am.CellCount();
+		am.MakeTop();
+		e.end();
+		if(e.shouldCommit())
+		{
+			e.Space = space;
+			e.Whole = true;
+			e.CellsBefore = before;
+			e.CellsAfter = am.CellCount();
+			e.commit();
+		}
+	}
+	public void MakeMemoryTop(Varnode mem)
+	{
+		MakeMemoryTop(SpaceIndex(mem));
+	}
+
+	// A write of nBytes bytes took place somewhere in [lo, hi] in an 
+	// addrBits-bit space. Forget everything it could have touched.
+	public void InvalidateMemory(int space, long lo, long hi, int nBytes, int addrBits)
+	{
+		AbstractMemory am = GetMemory(space);
+		if(am == Unmapped)
+			return;
+		MemoryInvalidationEvent e = new MemoryInvalidationEvent();
+		e.begin();
+		int before = am.CellCount();
+		am.InvalidateSpan(lo, hi, nBytes, addrBits);
+		e.end();
+		if(e.shouldCommit())
+		{
+			e.Space = space;
+			e.Lo = lo;
+			e.Hi = hi;
+			e.CellsBefore = before;
+			e.CellsAfter = am.CellCount();
+			e.commit();
+		}
+	}
+	
+	public TVLAbstractGhidraState clone()
+	{
+		StateCloneEvent e = new StateCloneEvent();
+		e.begin();
+		TVLAbstractGhidraState r = new TVLAbstractGhidraState(bigEndian);
+		r.Registers = Registers.clone();
+		r.Uniques   = Uniques.clone();
+		r.Memories  = new AbstractMemory[Memories.length];
+		for(int i = 0; i < Memories.length; i++)
+			r.Memories[i] = Memories[i] == Unmapped ? Unmapped : Memories[i].clone();
+		// Space indices and images are the same for every state in an analysis.
+		r.Spaces = Spaces;
+		r.Images = Images;
+		r.Budget = Budget;
+		r.Diag   = Diag;
+		e.end();
+		if(e.shouldCommit())
+		{
+			e.Cells = CellCount();
+			e.commit();
+		}
+		return r;
+	}
+	
+	// The memory for a space index, to be read but not kept: a space with an 
+	// image that hasn't been read yet gets a throwaway memory over the image.
+	AbstractMemory PeekMemory(int space)
+	{
+		AbstractMemory am = space < Memories.length ? Memories[space] : Unmapped;
+		if(am == Unmapped && space < Images.length && Images[space] != null)
+		{
+			am = new AbstractMemory(bigEndian);
+			am.Backing = Images[space];
+		}
+		return am;
+	}
+	
+	// The join of this state and another, for where control flow merges. 
+	// Neither is changed. Both have to come from the same analysis, i.e. share
+	// their space indices and images.
+	public TVLAbstractGhidraState Join(TVLAbstractGhidraState other)
+	{
+		StateJoinEvent e = new StateJoinEvent();
+		e.begin();
+		TVLAbstractGhidraState r = new TVLAbstractGhidraState(bigEndian);
+		r.Registers = AbstractMemory.Join(Registers, other.Registers);
+		r.Uniques   = AbstractMemory.Join(Uniques, other.Uniques);
+		r.Memories  = new AbstractMemory[Math.max(Memories.length, other.Memories.length)];
+		for(int i = 0; i < r.Memories.length; i++)
+		{
+			AbstractMemory a = PeekMemory(i), b = other.PeekMemory(i);
+			r.Memories[i] = a == Unmapped && b == Unmapped ? Unmapped : AbstractMemory.Join(a, b);
+		}
+		r.Spaces = Spaces;
+		r.Images = Images;
+		r.Budget = Budget;
+		r.Diag   = Diag;
+		e.end();
+		if(e.shouldCommit())
+		{
+			e.LeftCells = CellCount();
+			e.RightCells = other.CellCount();
+			e.ResultCells = r.CellCount();
+			e.commit();
+		}
+		return r;
+	}
+	
+	// Does every register and memory read the same in both states? (The 
+	// uniques aren't compared: they're cleared between instructions.)
+	public boolean SameAs(TVLAbstractGhidraState other)
+	{
+		if(!AbstractMemory.Same(Registers, other.Registers))
+			return false;
+		for(int i = 0; i < Math.max(Memories.length, other.Memories.length); i++)
+		{
+			AbstractMemory a = i < Memories.length ? Memories[i] : Unmapped;
+			AbstractMemory b = i < other.Memories.length ? other.Memories[i] : Unmapped;
+			if(a != b && !AbstractMemory.Same(a, b))
+				return false;
+		}
+		return true;
+	}
+	
+	// A snapshot that can't be changed. Spaces backed by an image get their 
+	// memories now, since GetMemory() would otherwise have to create them on 
+	// first read. Clone the snapshot to get a state that can be changed again.
+	public TVLAbstractGhidraState Freeze()
+	{
+		TVLAbstractGhidraState r = clone();
+		for(int i = 0; i < Images.length; i++)
+			if(Images[i] != null)
+				r.GetWritableMemory(i);
+		r.Registers = r.Registers.Freeze();
+		r.Uniques   = r.Uniques.Freeze();
+		for(int i = 0; i < r.Memories.length; i++)
+			if(r.Memories[i] != Unmapped)
+				r.Memories[i] = r.Memories[i].Freeze();
+		r.Frozen = true;
+		return r;
+	}
+}
+
+// An append-only byte log that keeps at most HeapBudget bytes on the heap. 
+// It's kept in fixed-size chunks; once the resident chunks go over budget, 
+// the oldest full ones are copied out into a memory-mapped file and dropped
+// from the heap, so that the operating system decides how much of the spilled
+// part stays in memory. Offsets are stable either way.
+class HistoryLog implements AutoCloseable {
+	static final int ChunkSize   = 1 << 16;
+	// Must be a multiple of ChunkSize, so that no chunk straddles two mappings.
+	static final int SegmentSize = 1 << 24;
+	
+	final long HeapBudget;
+	ArrayList<byte[]> Chunks;
+	int FirstResident;
+	long Length;
+	
+	File SpillFile;
+	RandomAccessFile Raf;
+	FileChannel Channel;
+	ArrayList<MappedByteBuffer> Segments;
+	
+	// Where a spill file that can't be deleted is reported, if set.
+	Diagnostics Diag;
+	
+	public HistoryLog(long heapBudget)
+	{
+		HeapBudget = Math.max(heapBudget, ChunkSize);
+		Chunks = new ArrayList<>();
+		FirstResident = 0;
+		Length = 0;
+		Segments = new ArrayList<>();
+	}
+	
+	// Append len bytes of b, and return the offset that they start at.
+	public long Append(byte[] b, int len) throws IOException
+	{
+		long start = Length;
+		int done = 0;
+		while(done < len)
+		{
+			int inChunk = (int)(Length % ChunkSize);
+			if(inChunk == 0)
+				Chunks.add(new byte[ChunkSize]);
+			int n = Math.min(len - done, ChunkSize - inChunk);
+			System.arraycopy(b, done, Chunks.get(Chunks.size()-1), inChunk, n);
+			done += n;
+			Length += n;
+		}
+		// Never spill the chunk that's still being filled.
+		while((long)(Chunks.size() - FirstResident) * ChunkSize > HeapBudget && FirstResident < Chunks.size() - 1)
+			Spill(FirstResident++);
+		return start;
+	}
+	
+	// The mapping holding the given spilled offset, creating it (and growing
+	// the file) if necessary.
+	MappedByteBuffer Segment(int index) throws IOException
+	{
+		if(Channel == null)
+		{
+			SpillFile = File.createTempFile("tvl-history-", ".bin");
+			SpillFile.deleteOnExit();
+			Raf = new RandomAccessFile(SpillFile, "rw");
+			Channel = Raf.getChannel();
+		}
+		while(Segments.size() <= index)
+			Segments.add(Channel.map(FileChannel.MapMode.READ_WRITE, (long)Segments.size() * SegmentSize, SegmentSize));
+		return Segments.get(index);
+	}
+	
+	void Spill(int chunk) throws IOException
+	{
+		long off = (long)chunk * ChunkSize;
+		ByteBuffer seg = Segment((int)(off / SegmentSize)).duplicate();
+		seg.position((int)(off % SegmentSize));
+		seg.put(Chunks.get(chunk));
+		Chunks.set(chunk, null);
+	}
+	
+	// Copy dst.length bytes starting at the offset into dst.
+	public void Read(long off, byte[] dst) throws IOException
+	{
+		int done = 0;
+		while(done < dst.length)
+		{
+			int chunk = (int)(off / ChunkSize);
+			int inChunk = (int)(off % ChunkSize);
+			int n = Math.min(dst.length - done, ChunkSize - inChunk);
+			byte[] c = Chunks.get(chunk);
+			if(c != null)
+				System.arraycopy(c, inChunk, dst, done, n);
+			else
+			{
+				ByteBuffer seg = Segment((int)(off / SegmentSize)).duplicate();
+				seg.position((int)(off % SegmentSize));
+				seg.get(dst, done, n);
+			}
+			done += n;
+			off += n;
+		}
+	}
+	
+	// The number of bytes held on the heap, and in the file.
+	public long ResidentBytes() { return Length - (long)FirstResident * ChunkSize; }
+	public long SpilledBytes()  { return (long)FirstResident * ChunkSize; }
+	
+	// The file can only be deleted once its mappings are gone (on Windows, 
+	// anyway), and those only go once they're collected. So they're dropped 
+	// first, and if the file still can't be deleted, it's left to 
+	// deleteOnExit.
+	@Override
+	public void close() throws IOException
+	{
+		Chunks = null;
+		Segments = null;
+		if(Channel != null)
+		{
+			Channel.close();
+			Raf.close();
+			if(!SpillFile.delete() && SpillFile.exists() && Diag != null)
+				Diag.Report("HistoryLog: couldn't delete the spill file, which will be deleted when the JVM exits", SpillFile);
+		}
+	}
+}
+
+// A record of the abstract state before and after every instruction that the
+// interpreter went through, compact enough to keep for a whole selection. 
+// Rather than a copy of the state per instruction, it stores:
+// * Per instruction, a delta: the bytes of the registers and memories that
+//   changed, with their new values, and the ranges that were forgotten.
+// * Every Interval instructions (or sooner, if the deltas since the last one
+//   are large), a checkpoint: an encoding of the entire state.
+// The state before instruction n is rebuilt by finding the last checkpoint at
+// or before n (a binary search) and replaying at most Interval deltas over it.
+// Queries walking forward through the instructions reuse the previously built
+// state instead of going back to the checkpoint.
+//
+// The state reports its changes through the Journal hooks in AbstractMemory;
+// the values of the touched bytes are only read when the instruction ends, so
+// a byte written five times costs one entry. Each byte is encoded as two 
+// masks, the bits that are known and their values, which is two bytes rather
+// than the eight of a TVLBitVector. Addresses are delta-encoded as varints.
+// The log is a HistoryLog, so it spills to a mapped file past its budget.
+//
+// Uniques aren't recorded, as they're cleared after every instruction. Note 
+// that the history forces deferred operations when it reads the bytes that
+// they wrote, and that dead operations mustn't be skipped while recording, 
+// since the history would then show stale values for their outputs.
+class StateHistory implements AutoCloseable {
+	static final byte KindStore  = 0;
+	static final byte KindForget = 1;
+	static final byte KindTop    = 2;
+	static final byte KindClear  = 3;
+	static final byte KindForgetImage = 4;
+	
+	final int Interval;
+	final long CheckpointBytes;
+	final HistoryLog Log;
+	
+	// The state being recorded, and what's needed to rebuild one like it.
+	TVLAbstractGhidraState Source;
+	
+	// Per instruction: the address, and the delta's location in the log.
+	int Count;
+	Address[] Addrs;
+	long[] DeltaOff;
+	int[] DeltaLen;
+	
+	// Per checkpoint: the instruction that it precedes, and its location.
+	int NumCheckpoints;
+	int[] CheckSeq;
+	long[] CheckOff;
+	int[] CheckLen;
+	long BytesSinceCheckpoint;
+	
+	// Address -> the instructions executed there, in order. The first element
+	// of each array is the number of entries used.
+	HashMap<Address,int[]> Visits;
+	
+	// The changes made by the current instruction: forgets in the order they 
+	// happened, and the set of touched bytes per region.
+	ByteEncoder Pending;
+	int NumPending;
+	ArrayList<HashSet<Long>> Touched;
+	
+	// The last state rebuilt, which is before instruction CachedSeq.
+	TVLAbstractGhidraState Cached;
+	int CachedSeq;
+	
+	public StateHistory(long heapBudget, int interval)
+	{
+		Interval = Math.max(interval, 1);
+		CheckpointBytes = 1 << 16;
+		Log = new HistoryLog(heapBudget);
+		Addrs = new Address[256];
+		DeltaOff = new long[256];
+		DeltaLen = new int[256];
+		CheckSeq = new int[16];
+		CheckOff = new long[16];
+		CheckLen = new int[16];
+		Visits = new HashMap<>();
+		Pending = new ByteEncoder();
+		Touched = new ArrayList<>();
+		CachedSeq = -1;
+	}
+	
+	// A growable byte array with the encodings used in the records.
+	static final class ByteEncoder {
+		byte[] Buf = new byte[256];
+		int Len;
+		void Byte(int b)
+		{
+			if(Len == Buf.length)
+				Buf = Arrays.copyOf(Buf, Len*2);
+			Buf[Len++] = (byte)b;
+		}
+		void VarLong(long v)
+		{
+			while((v & ~0x7FL) != 0)
+			{
+				Byte((int)(v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			Byte((int)v);
+		}
+		// Signed deltas, zig-zag encoded so that small negatives are short too.
+		void VarDelta(long d) { VarLong((d << 1) ^ (d >> 63)); }
+		void Trits(TVLBitVector b)
+		{
+			int packed = Pack(b);
+			Byte(packed);
+			Byte(packed >> 8);
+		}
+	}
+	
+	static long ReadVarLong(ByteBuffer b)
+	{
+		long v = 0;
+		for(int shift = 0; ; shift += 7)
+		{
+			byte x = b.get();
+			v |= (long)(x & 0x7F) << shift;
+			if(x >= 0)
+				return v;
+		}
+	}
+	static long ReadVarDelta(ByteBuffer b)
+	{
+		long z = ReadVarLong(b);
+		return (z >>> 1) ^ -(z & 1);
+	}
+	
+	// One byte of trits as two masks: the known bits in the low half, and 
+	// their values in the high half.
+	static int Pack(TVLBitVector b)
+	{
+		int known = 0, value = 0;
+		for(int i = 0; i < 8; i++)
+		{
+			if(b.Get(i) != TVLBitVector.TVL_HALF)
+				known |= 1 << i;
+			if(b.Get(i) == TVLBitVector.TVL_1)
+				value |= 1 << i;
+		}
+		return known | (value << 8);
+	}
+	static TVLBitVector Unpack(int known, int value)
+	{
+		byte[] arr = new byte[8];
+		for(int i = 0; i < 8; i++)
+			arr[i] = ((known >> i) & 1) == 0 ? TVLBitVector.TVL_HALF : ((value >> i) & 1) != 0 ? TVLBitVector.TVL_1 : TVLBitVector.TVL_0;
+		return TVLBitVector.Wrap(arr);
+	}
+	
+	// Start recording the state, as it stands now, as the state before the 
+	// first instruction.
+	public void Attach(TVLAbstractGhidraState s) throws IOException
+	{
+		Source = s;
+		Log.Diag = s.Diag;
+		s.SetJournal(this);
+		Checkpoint();
+	}
+	
+	// The hooks called by AbstractMemory.
+	void Touched(int region, long addr)
+	{
+		while(Touched.size() <= region)
+			Touched.add(new HashSet<>());
+		Touched.get(region).add(addr);
+	}
+	void Forgot(int region, long lo, long hi)
+	{
+		Pending.Byte(KindForget);
+		Pending.VarLong(region);
+		Pending.VarLong(lo);
+		Pending.VarLong(hi - lo);
+		NumPending++;
+	}
+	void ForgotImage(int region, long lo, long hi)
+	{
+		Pending.Byte(KindForgetImage);
+		Pending.VarLong(region);
+		Pending.VarLong(lo);
+		Pending.VarLong(hi - lo);
+		NumPending++;
+	}
+	void MadeTop(int region)
+	{
+		Pending.Byte(KindTop);
+		Pending.VarLong(region);
+		NumPending++;
+	}
+	void Cleared(int region)
+	{
+		Pending.Byte(KindClear);
+		Pending.VarLong(region);
+		NumPending++;
+	}
+	
+	AbstractMemory RegionOf(TVLAbstractGhidraState s, int region)
+	{
+		return region == 0 ? s.Registers : s.GetWritableMemory(region - 1);
+	}
+	
+	// The instruction at addr has finished: write out what it changed. The 
+	// forgets go first, followed by the current values of the touched bytes, 
+	// which is what they'd be after replaying everything in order. A touched
+	// byte that's gone again was removed by one of the forgets.
+	public void Instruction(Address addr) throws IOException
+	{
+		int n = NumPending;
+		for(int region = 0; region < Touched.size(); region++)
+		{
+			HashSet<Long> t = Touched.get(region);
+			if(t.isEmpty())
+				continue;
+			AbstractMemory am = region == 0 ? Source.Registers : Source.Memories[region - 1];
+			for(long a : t)
+			{
+				AbstractMemory.Cell c = am.Contents.get(a);
+				if(c == null)
+					continue;
+				Pending.Byte(KindStore);
+				Pending.VarLong(region);
+				Pending.VarLong(a);
+				Pending.Trits(c.Get());
+				n++;
+			}
+			t.clear();
+		}
+		ByteEncoder e = new ByteEncoder();
+		e.VarLong(n);
+		long off = Log.Append(e.Buf, e.Len);
+		Log.Append(Pending.Buf, Pending.Len);
+		int len = e.Len + Pending.Len;
+		Pending.Len = 0;
+		NumPending = 0;
+		
+		if(Count == Addrs.length)
+		{
+			Addrs    = Arrays.copyOf(Addrs, Count*2);
+			DeltaOff = Arrays.copyOf(DeltaOff, Count*2);
+			DeltaLen = Arrays.copyOf(DeltaLen, Count*2);
+		}
+		Addrs[Count] = addr;
+		DeltaOff[Count] = off;
+		DeltaLen[Count] = len;
+		int[] v = Visits.get(addr);
+		if(v == null)
+			v = new int[2];
+		else if(v[0] + 1 == v.length)
+			v = Arrays.copyOf(v, v.length*2);
+		v[++v[0]] = Count;
+		Visits.put(addr, v);
+		Count++;
+		BytesSinceCheckpoint += len;
+		if(Count % Interval == 0 || BytesSinceCheckpoint > CheckpointBytes)
+			Checkpoint();
+	}
+	
+	// Write out the whole of the source state, as the state before 
+	// instruction Count.
+	void Checkpoint() throws IOException
+	{
+		ByteEncoder e = new ByteEncoder();
+		AbstractMemory[] mems = Source.Memories;
+		e.VarLong(mems.length + 1);
+		for(int region = 0; region <= mems.length; region++)
+		{
+			AbstractMemory am = region == 0 ? Source.Registers : mems[region - 1];
+			if(am == TVLAbstractGhidraState.Unmapped)
+			{
+				e.Byte(0);
+				continue;
+			}
+			e.Byte(1 | (am.Backing != null ? 2 : 0));
+			e.VarLong(am.Forgotten.size());
+			for(Map.Entry<Long,Long> f : am.Forgotten.entrySet())
+			{
+				e.VarLong(f.getKey());
+				e.VarLong(f.getValue() - f.getKey());
+			}
+			e.VarLong(am.Contents.size());
+			long prev = 0;
+			for(Map.Entry<Long,AbstractMemory.Cell> c : am.Contents.entrySet())
+			{
+				e.VarDelta(c.getKey() - prev);
+				prev = c.getKey();
+				e.Trits(c.getValue().Get());
+			}
+		}
+		if(NumCheckpoints == CheckSeq.length)
+		{
+			CheckSeq = Arrays.copyOf(CheckSeq, NumCheckpoints*2);
+			CheckOff = Arrays.copyOf(CheckOff, NumCheckpoints*2);
+			CheckLen = Arrays.copyOf(CheckLen, NumCheckpoints*2);
+		}
+		CheckSeq[NumCheckpoints] = Count;
+		CheckOff[NumCheckpoints] = Log.Append(e.Buf, e.Len);
+		CheckLen[NumCheckpoints] = e.Len;
+		NumCheckpoints++;
+		BytesSinceCheckpoint = 0;
+	}
+	
+	ByteBuffer ReadRecord(long off, int len) throws IOException
+	{
+		byte[] b = new byte[len];
+		Log.Read(off, b);
+		return ByteBuffer.wrap(b);
+	}
+	
+	// Rebuild the state that checkpoint k describes.
+	TVLAbstractGhidraState LoadCheckpoint(int k) throws IOException
+	{
+		ByteBuffer b = ReadRecord(CheckOff[k], CheckLen[k]);
+		TVLAbstractGhidraState s = new TVLAbstractGhidraState(Source.bigEndian);
+		s.Spaces = Source.Spaces;
+		s.Images = Source.Images;
+		int nRegions = (int)ReadVarLong(b);
+		for(int region = 0; region < nRegions; region++)
+		{
+			int flags = b.get();
+			if(flags == 0)
+				continue;
+			AbstractMemory am = RegionOf(s, region);
+			if((flags & 2) == 0)
+				am.Backing = null;
+			for(long n = ReadVarLong(b); n > 0; n--)
+			{
+				long lo = ReadVarLong(b);
+				am.Forgotten.put(lo, lo + ReadVarLong(b));
+			}
+			long addr = 0;
+			for(long n = ReadVarLong(b); n > 0; n--)
+			{
+				addr += ReadVarDelta(b);
+				am.Store(addr, Unpack(b.get() & 0xFF, b.get() & 0xFF));
+			}
+		}
+		return s;
+	}
+	
+	// Replay instruction seq's delta over s.
+	void Apply(TVLAbstractGhidraState s, int seq) throws IOException
+	{
+		ByteBuffer b = ReadRecord(DeltaOff[seq], DeltaLen[seq]);
+		for(long n = ReadVarLong(b); n > 0; n--)
+		{
+			byte kind = b.get();
+			int region = (int)ReadVarLong(b);
+			AbstractMemory am = RegionOf(s, region);
+			switch(kind)
+			{
+				case KindStore:
+				{
+					long addr = ReadVarLong(b);
+					am.Store(addr, Unpack(b.get() & 0xFF, b.get() & 0xFF));
+					break;
+				}
+				case KindForget:
+				{
+					long lo = ReadVarLong(b);
+					am.InvalidateRange(lo, lo + ReadVarLong(b));
+					break;
+				}
+				case KindForgetImage:
+				{
+					long lo = ReadVarLong(b);
+					long hi = lo + ReadVarLong(b);
+					if(am.Backing != null)
+						am.Forget(lo, hi);
+					break;
+				}
+				case KindTop:
+					am.MakeTop();
+					break;
+				case KindClear:
+					am.clear();
+					if(region > 0 && region - 1 < s.Images.length)
+						am.Backing = s.Images[region - 1];
+					break;
+				default:
+					throw new IOException("StateHistory: bad delta entry "+kind+" for instruction "+seq);
+			}
+		}
+	}
+	
+	// The state before instruction seq, or after the last one if seq == Count.
+	// The result belongs to the history and is reused by the next query; clone
+	// it to keep it.
+	public TVLAbstractGhidraState Before(int seq) throws IOException
+	{
+		if(seq < 0 || seq > Count)
+			throw new IndexOutOfBoundsException("StateHistory: no instruction "+seq+" of "+Count);
+		int k = Arrays.binarySearch(CheckSeq, 0, NumCheckpoints, seq);
+		if(k < 0)
+			k = -k - 2;
+		if(Cached == null || CachedSeq > seq || CachedSeq < CheckSeq[k])
+		{
+			Cached = LoadCheckpoint(k);
+			CachedSeq = CheckSeq[k];
+		}
+		while(CachedSeq < seq)
+			Apply(Cached, CachedSeq++);
+		return Cached;
+	}
+	
+	public TVLAbstractGhidraState After(int seq) throws IOException
+	{
+		return Before(seq + 1);
+	}
+	
+	// The instructions executed at the address, in order, or none.
+	public int[] VisitsTo(Address addr)
+	{
+		int[] v = Visits.get(addr);
+		return v == null ? new int[0] : Arrays.copyOfRange(v, 1, v[0] + 1);
+	}
+	
+	// The value of a register or memory varnode just before (or after) the 
+	// last time the instruction at the address was executed, or null if it 
+	// never was.
+	public TVLBitVector Query(Address at, Varnode what, boolean after) throws IOException
+	{
+		int[] v = Visits.get(at);
+		if(v == null)
+			return null;
+		TVLAbstractGhidraState s = Before(v[v[0]] + (after ? 1 : 0));
+		if(what.isRegister())
+			return s.Lookup(what);
+		return s.Load(s.SpaceIndex(what.getSpace()), what.getOffset(), what.getSize()*8);
+	}
+	
+	// The total size of the deltas and checkpoints.
+	public long Bytes()
+	{
+		return Log.Length;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		if(Source != null && Source.Journal == this)
+			Source.SetJournal(null);
+		Cached = null;
+		Log.close();
+	}
+}
+
+// A compact binary form of a TVLAbstractGhidraState: the registers, the 
+// uniques, and every memory space, identified by its space id so that it can
+// be decoded into a state whose dense indices were assigned differently. For
+// each of these, there's whether it still has its program image, the ranges
+// where the image was forgotten, and then the bytes, as runs of consecutive 
+// addresses. Each run is a series of segments, each holding some number of 
+// bytes of one kind:
+// * Top: all bits 1/2. Nothing more is stored.
+// * Known: no 1/2 bits. One byte per byte.
+// * Mixed: two bits per trit (the TVL_ constants themselves), 16 bits a byte.
+// Counts and addresses are varints, the gap before a run being relative to 
+// the end of the previous one. The number of runs comes first: a gap can be
+// anything (the one before a first run at 0xFFFFFFFFFFFFFFFF is -1), so no
+// value of it is free to end the list with. Decoding reads straight out of 
+// a ByteBuffer, which would usually be a mapping of the file, without 
+// copying it first.
+final class TVLStateCodec {
+	private TVLStateCodec() {};
+	static final int   Magic   = 0x53564C54;
+	static final short Version = 2;
+	static final int KindTop   = 0;
+	static final int KindKnown = 1;
+	static final int KindMixed = 2;
+	
+	static int KindOf(TVLBitVector trits)
+	{
+		boolean anyHalf = false, allHalf = true;
+		for(int i = 0; i < 8; i++)
+		{
+			boolean half = trits.Get(i) == TVLBitVector.TVL_HALF;
+			anyHalf |= half;
+			allHalf &= half;
+		}
+		return allHalf ? KindTop : anyHalf ? KindMixed : KindKnown;
+	}
+	
+	static void Segment(StateHistory.ByteEncoder e, StateHistory.ByteEncoder payload, int kind, int count)
+	{
+		if(count == 0)
+			return;
+		e.VarLong(((long)count << 2) | kind);
+		for(int i = 0; i < payload.Len; i++)
+			e.Byte(payload.Buf[i]);
+		payload.Len = 0;
+	}
+	
+	// Encode one memory into e.
+	static void EncodeMemory(StateHistory.ByteEncoder e, AbstractMemory am)
+	{
+		e.Byte(am.Backing != null ? 1 : 0);
+		e.VarLong(am.Forgotten.size());
+		for(Map.Entry<Long,Long> f : am.Forgotten.entrySet())
+		{
+			e.VarLong(f.getKey());
+			e.VarLong(f.getValue() - f.getKey());
+		}
+		long runs = 0, nextAddr = 0;
+		for(long addr : am.Contents.keySet())
+		{
+			if(runs == 0 || addr != nextAddr)
+				runs++;
+			nextAddr = addr + 1;
+		}
+		e.VarLong(runs);
+		StateHistory.ByteEncoder payload = new StateHistory.ByteEncoder();
+		nextAddr = 0;
+		boolean inRun = false;
+		int kind = KindTop, count = 0;
+		for(Map.Entry<Long,AbstractMemory.Cell> c : am.Contents.entrySet())
+		{
+			long addr = c.getKey();
+			TVLBitVector trits = c.getValue().Get();
+			int k = KindOf(trits);
+			if(!inRun || addr != nextAddr)
+			{
+				// Finish the previous run, and start a new one after the gap.
+				if(inRun)
+				{
+					Segment(e, payload, kind, count);
+					e.VarLong(0);
+				}
+				e.VarLong(addr - nextAddr);
+				inRun = true;
+				kind = k;
+				count = 0;
+			}
+			else if(k != kind)
+			{
+				Segment(e, payload, kind, count);
+				kind = k;
+				count = 0;
+			}
+			if(k == KindKnown)
+				payload.Byte(StateHistory.Pack(trits) >> 8);
+			else if(k == KindMixed)
+			{
+				int bits = 0;
+				for(int i = 0; i < 8; i++)
+					bits |= trits.Get(i) << (2*i);
+				payload.Byte(bits);
+				payload.Byte(bits >> 8);
+			}
+			count++;
+			nextAddr = addr + 1;
+		}
+		if(inRun)
+		{
+			Segment(e, payload, kind, count);
+			e.VarLong(0);
+		}
+	}
+	
+	// Write the state to out. Deferred operations are forced along the way. 
+	// Each memory is encoded on the heap and then written, so the buffer is 
+	// only as large as the largest memory.
+	static void Encode(TVLAbstractGhidraState s, OutputStream out) throws IOException
+	{
+		StateHistory.ByteEncoder e = new StateHistory.ByteEncoder();
+		ByteBuffer header = ByteBuffer.allocate(7);
+		header.putInt(Magic).putShort(Version).put((byte)(s.bigEndian ? 1 : 0));
+		out.write(header.array());
+		EncodeMemory(e, s.Registers);
+		EncodeMemory(e, s.Uniques);
+		int nMapped = 0;
+		for(AbstractMemory am : s.Memories)
+			if(am != TVLAbstractGhidraState.Unmapped)
+				nMapped++;
+		e.VarLong(nMapped);
+		out.write(e.Buf, 0, e.Len);
+		for(int i = 0; i < s.Memories.length; i++)
+		{
+			if(s.Memories[i] == TVLAbstractGhidraState.Unmapped)
+				continue;
+			e.Len = 0;
+			e.VarLong(s.Spaces.Ids[i]);
+			EncodeMemory(e, s.Memories[i]);
+			out.write(e.Buf, 0, e.Len);
+		}
+	}
+	
+	static void DecodeMemory(ByteBuffer b, AbstractMemory am, ProgramImage image)
+	{
+		am.Mutate();
+		am.Contents.clear();
+		am.Forgotten.clear();
+		am.Backing = b.get() != 0 ? image : null;
+		for(long n = StateHistory.ReadVarLong(b); n > 0; n--)
+		{
+			long lo = StateHistory.ReadVarLong(b);
+			am.Forgotten.put(lo, lo + StateHistory.ReadVarLong(b));
+		}
+		long addr = 0;
+		for(long runs = StateHistory.ReadVarLong(b); runs > 0; runs--)
+		{
+			addr += StateHistory.ReadVarLong(b);
+			for(long seg = StateHistory.ReadVarLong(b); seg != 0; seg = StateHistory.ReadVarLong(b))
+			{
+				int kind = (int)(seg & 3);
+				for(long count = seg >>> 2; count > 0; count--)
+				{
+					TVLBitVector bv;
+					if(kind == KindTop)
+						bv = new TVLBitVector(8);
+					else if(kind == KindKnown)
+						bv = new TVLBitVector(8, b.get() & 0xFF);
+					else
+					{
+						int bits = (b.get() & 0xFF) | ((b.get() & 0xFF) << 8);
+						byte[] arr = new byte[8];
+						for(int i = 0; i < 8; i++)
+							arr[i] = (byte)((bits >> (2*i)) & 3);
+						bv = TVLBitVector.Wrap(arr);
+					}
+					am.Contents.put(addr++, new AbstractMemory.Cell(bv));
+				}
+			}
+		}
+	}
+	
+	// Replace the contents of s with the state encoded at b's position. The 
+	// images and budget that s was set up with are kept.
+	static void Decode(ByteBuffer b, TVLAbstractGhidraState s) throws IOException
+	{
+		if(b.getInt() != Magic)
+			throw new IOException("TVLStateCodec: not an encoded state");
+		short version = b.getShort();
+		if(version != Version)
+			throw new IOException("TVLStateCodec: unsupported version "+version);
+		if((b.get() != 0) != s.bigEndian)
+			throw new IOException("TVLStateCodec: the state was saved with the other endianness");
+		s.clear();
+		DecodeMemory(b, s.Registers, null);
+		DecodeMemory(b, s.Uniques, null);
+		for(long n = StateHistory.ReadVarLong(b); n > 0; n--)
+		{
+			int space = s.SpaceIndex(StateHistory.ReadVarLong(b));
+			AbstractMemory am = s.GetWritableMemory(space);
+			DecodeMemory(b, am, space < s.Images.length ? s.Images[space] : null);
+		}
+	}
+}
+
+// Saves the interpreter's position and state to a file every so often, so 
+// that a long analysis can be resumed after being cancelled or crashing. 
+// Taking a checkpoint on the analysis thread only costs a clone() of the 
+// state; encoding and writing it happen on a background thread. If the last
+// checkpoint is still being written when the next one is due, it's skipped 
+// rather than queued. Files are written beside the target and renamed over
+// it, so the target is always a complete checkpoint.
+//
+// After the header, the file holds the number of instructions done, whether
+// there is a next instruction and, if so, its offset, then the encoded state.
+class StateCheckpointer implements AutoCloseable {
+	static final int   Magic   = 0x4B435654;
+	static final short Version = 1;
+	
+	final File Target;
+	final long IntervalNanos;
+	long Last;
+	Thread Writer;
+	volatile Throwable Failure;
+	volatile long Written;
+	
+	public StateCheckpointer(File target, long intervalSeconds)
+	{
+		Target = target;
+		IntervalNanos = intervalSeconds * 1000000000L;
+		Last = System.nanoTime();
+	}
+	
+	// Called between instructions: done have been interpreted, and next is the
+	// address of the next one (or null). Returns whether a checkpoint was 
+	// started.
+	public boolean Maybe(long done, Address next, TVLAbstractGhidraState s)
+	{
+		long now = System.nanoTime();
+		if(now - Last < IntervalNanos || (Writer != null && Writer.isAlive()))
+			return false;
+		Last = now;
+		TVLAbstractGhidraState snapshot = s.Freeze();
+		Writer = new Thread(() -> {
+			try {
+				Write(Target, done, next, snapshot);
+				Written++;
+			}
+			catch(Throwable t) {
+				Failure = t;
+				snapshot.Diag.Report("StateCheckpointer: checkpoint failed", t);
+			}
+		}, "TVL checkpoint");
+		Writer.setDaemon(true);
+		Writer.start();
+		return true;
+	}
+	
+	// Checkpoint now, on this thread, e.g. when the analysis is cancelled.
+	public void Save(long done, Address next, TVLAbstractGhidraState s) throws IOException
+	{
+		Join();
+		Write(Target, done, next, s);
+		Written++;
+	}
+	
+	void Join()
+	{
+		if(Writer == null)
+			return;
+		try {
+			Writer.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	static void Write(File target, long done, Address next, TVLAbstractGhidraState s) throws IOException
+	{
+		File tmp = new File(target.getPath()+".tmp");
+		try(FileOutputStream fos = new FileOutputStream(tmp))
+		{
+			BufferedOutputStream out = new BufferedOutputStream(fos, 1 << 16);
+			ByteBuffer header = ByteBuffer.allocate(23);
+			header.putInt(Magic).putShort(Version).putLong(done).put((byte)(next != null ? 1 : 0)).putLong(next != null ? next.getOffset() : 0);
+			out.write(header.array());
+			TVLStateCodec.Encode(s, out);
+			out.flush();
+			fos.getFD().sync();
+		}
+		Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	// Load a checkpoint into s, and return the number of instructions that had
+	// been done and the offset of the next one (null if there wasn't one).
+	public static Pair<Long,Long> Load(File f, TVLAbstractGhidraState s) throws IOException
+	{
+		MappedByteBuffer b;
+		try(RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel ch = raf.getChannel())
+		{
+			if(ch.size() > Integer.MAX_VALUE)
+				throw new IOException("StateCheckpointer: "+f+" is larger than 2GB");
+			b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		if(b.getInt() != Magic)
+			throw new IOException("StateCheckpointer: "+f+" is not a checkpoint");
+		short version = b.getShort();
+		if(version != Version)
+			throw new IOException("StateCheckpointer: unsupported checkpoint version "+version);
+		long done = b.getLong();
+		boolean hasNext = b.get() != 0;
+		long next = b.getLong();
+		TVLStateCodec.Decode(b, s);
+		return new Pair<>(done, hasNext ? next : null);
+	}
+	
+	@Override
+	public void close()
+	{
+		Join();
+	}
+}
+
+// Per-opcode statistics about the abstract interpreter: how often each pcode
+// operation runs, how long it takes, how much it allocates, and how often its
+// output ends up entirely Top. The interpreter gathers these from its 
+// VisitorBefore/VisitorAfter hooks when it has a PcodeOpMetrics object, and 
+// does nothing but a null check when it doesn't. Everything is kept in atomic
+// arrays indexed by opcode, so one object can be shared between interpreters
+// running on different threads.
+class PcodeOpMetrics {
+	// Latencies go into power-of-two buckets of nanoseconds: bucket b holds 
+	// latencies in [2^b, 2^(b+1)).
+	static final int NumBuckets = 40;
+	static final int NumOpcodes = PcodeOp.PCODE_MAX;
+	
+	final AtomicLongArray Counts    = new AtomicLongArray(NumOpcodes);
+	final AtomicLongArray Nanos     = new AtomicLongArray(NumOpcodes);
+	final AtomicLongArray Bytes     = new AtomicLongArray(NumOpcodes);
+	final AtomicLongArray TopOutput = new AtomicLongArray(NumOpcodes);
+	final AtomicLongArray Latency   = new AtomicLongArray(NumOpcodes * NumBuckets);
+	
+	// Allocation counting is only available on HotSpot-derived VMs.
+	final com.sun.management.ThreadMXBean Threads;
+	final boolean CountBytes;
+	
+	public PcodeOpMetrics()
+	{
+		java.lang.management.ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+		if(tmx instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)tmx).isThreadAllocatedMemorySupported())
+		{
+			Threads = (com.sun.management.ThreadMXBean)tmx;
+			Threads.setThreadAllocatedMemoryEnabled(true);
+			CountBytes = true;
+		}
+		else
+		{
+			Threads = null;
+			CountBytes = false;
+		}
+	}
+	
+	long AllocatedBytes()
+	{
+		return CountBytes ? Threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+	}
+	
+	void Record(int opcode, long nanos, long bytes, boolean top)
+	{
+		if(opcode < 0 || opcode >= NumOpcodes)
+			return;
+		Counts.incrementAndGet(opcode);
+		Nanos.addAndGet(opcode, nanos);
+		Bytes.addAndGet(opcode, bytes);
+		if(top)
+			TopOutput.incrementAndGet(opcode);
+		int bucket = nanos <= 0 ? 0 : Math.min(63 - Long.numberOfLeadingZeros(nanos), NumBuckets - 1);
+		Latency.incrementAndGet(opcode * NumBuckets + bucket);
+	}
+	
+	// The latency below which the given fraction of an opcode's invocations 
+	// fell, to within the power-of-two bucket resolution (i.e., the upper end
+	// of the bucket).
+	long Percentile(int opcode, double fraction)
+	{
+		long total = Counts.get(opcode);
+		if(total == 0)
+			return 0;
+		long rank = (long)Math.ceil(fraction * total), seen = 0;
+		for(int b = 0; b < NumBuckets; b++)
+		{
+			seen += Latency.get(opcode * NumBuckets + b);
+			if(seen >= rank)
+				return 1L << (b + 1);
+		}
+		return 1L << NumBuckets;
+	}
+	
+	public void clear()
+	{
+		for(int i = 0; i < NumOpcodes; i++)
+		{
+			Counts.set(i, 0); Nanos.set(i, 0); Bytes.set(i, 0); TopOutput.set(i, 0);
+		}
+		for(int i = 0; i < Latency.length(); i++)
+			Latency.set(i, 0);
+	}
+	
+	// Print a table of the opcodes that ran, most total time first.
+	public void Dump()
+	{
+		ArrayList<Integer> ops = new ArrayList<>();
+		long totalNanos = 0;
+		for(int i = 0; i < NumOpcodes; i++)
+		{
+			if(Counts.get(i) != 0)
+				ops.add(i);
+			totalNanos += Nanos.get(i);
+		}
+		ops.sort((a,b) -> Long.compare(Nanos.get(b), Nanos.get(a)));
+		Printer.println(String.format("%-16s %12s %10s %7s %9s %9s %9s %9s %10s %8s", 
+			"Opcode", "Count", "Total ms", "Time%", "Mean ns", "p50 ns", "p90 ns", "p99 ns", "B/op", "Top%"));
+		for(int op : ops)
+		{
+			long n = Counts.get(op);
+			Printer.println(String.format("%-16s %12d %10.2f %6.1f%% %9d %9d %9d %9d %10s %7.1f%%", 
+				PcodeOp.getMnemonic(op), n, Nanos.get(op) / 1e6, totalNanos == 0 ? 0.0 : 100.0 * Nanos.get(op) / totalNanos,
+				Nanos.get(op) / n, Percentile(op, 0.5), Percentile(op, 0.9), Percentile(op, 0.99),
+				CountBytes ? Long.toString(Bytes.get(op) / n) : "n/a", 100.0 * TopOutput.get(op) / n));
+		}
+	}
+}
+
+// Java Flight Recorder events, so that a recording of a long analysis shows
+// what the analysis was doing alongside the JVM's GC and CPU events. Each of 
+// these costs next to nothing unless a recording with the event enabled is
+// running. To record a headless run:
+//   java -XX:StartFlightRecording=filename=tvl.jfr,settings=profile ...
+// and open tvl.jfr in JDK Mission Control; the events are under the 
+// "Three-Valued Analysis" category.
+@Name("tvl.InstructionBatch")
+@Label("Instruction Batch")
+@Category({"Three-Valued Analysis", "Interpreter"})
+@Description("A run of consecutively-interpreted instructions")
+@StackTrace(false)
+class InstructionBatchEvent extends Event {
+	@Label("First Address") String FirstAddress;
+	@Label("Instructions")  int Instructions;
+	@Label("Pcode Ops")     long PcodeOps;
+	@Label("State Cells")   int Cells;
+}
+
+@Name("tvl.BlockVisit")
+@Label("Block Visit")
+@Category({"Three-Valued Analysis", "Analysis"})
+@Description("One abstract interpretation of a basic block")
+@StackTrace(false)
+class BlockVisitEvent extends Event {
+	@Label("Block Address") String BlockAddress;
+	@Label("Instructions")  int Instructions;
+	@Label("Pcode Ops")     int PcodeOps;
+}
+
+@Name("tvl.FixpointIteration")
+@Label("Fixpoint Iteration")
+@Category({"Three-Valued Analysis", "Analysis"})
+@Description("One pass over the worklist of a fixpoint computation")
+@StackTrace(false)
+class FixpointIterationEvent extends Event {
+	@Label("Function")       String Function;
+	@Label("Iteration")      int Iteration;
+	@Label("Blocks Visited") int BlocksVisited;
+	@Label("Changed")        int Changed;
+}
+
+@Name("tvl.StateClone")
+@Label("State Clone")
+@Category({"Three-Valued Analysis", "State"})
+@Description("A copy of a TVLAbstractGhidraState")
+@StackTrace(false)
+class StateCloneEvent extends Event {
+	@Label("State Cells") int Cells;
+}
+
+@Name("tvl.StateJoin")
+@Label("State Join")
+@Category({"Three-Valued Analysis", "State"})
+@Description("A join of two TVLAbstractGhidraStates")
+@StackTrace(false)
+class StateJoinEvent extends Event {
+	@Label("Left Cells")   int LeftCells;
+	@Label("Right Cells")  int RightCells;
+	@Label("Result Cells") int ResultCells;
+}
+
+@Name("tvl.MemoryInvalidation")
+@Label("Memory Invalidation")
+@Category({"Three-Valued Analysis", "State"})
+@Description("A write to an unknown address forgot part or all of a memory space")
+class MemoryInvalidationEvent extends Event {
+	@Label("Space Index")  int Space;
+	@Label("Whole Space")  boolean Whole;
+	@Label("Low Address")  long Lo;
+	@Label("High Address") long Hi;
+	@Label("Cells Before") int CellsBefore;
+	@Label("Cells After")  int CellsAfter;
+}
+
+@Name("tvl.VisitorUnimplemented")
+@Label("Visitor Unimplemented")
+@Category({"Three-Valued Analysis", "Interpreter"})
+@Description("The visitor met a pcode operation or varnode that it doesn't handle")
+class VisitorUnimplementedEvent extends Event {
+	@Label("What") String What;
+}
+
+// Tracks the instructions interpreted since the last InstructionBatchEvent, 
+// and commits one every BatchSize instructions.
+class InstructionBatchRecorder {
+	static final int BatchSize = 1024;
+	InstructionBatchEvent Current;
+	Address First;
+	int Instructions;
+	long PcodeOps;
+	
+	void Instruction(Address addr, int nOps, TVLAbstractGhidraState state)
+	{
+		if(Current == null)
+		{
+			Current = new InstructionBatchEvent();
+			if(!Current.isEnabled())
+			{
+				Current = null;
+				return;
+			}
+			Current.begin();
+			First = addr;
+		}
+		Instructions++;
+		PcodeOps += nOps;
+		if(Instructions >= BatchSize)
+			Flush(state);
+	}
+	
+	void Flush(TVLAbstractGhidraState state)
+	{
+		if(Current == null)
+			return;
+		Current.end();
+		if(Current.shouldCommit())
+		{
+			Current.FirstAddress = First == null ? null : First.toString();
+			Current.Instructions = Instructions;
+			Current.PcodeOps = PcodeOps;
+			Current.Cells = state.CellCount();
+			Current.commit();
+		}
+		Current = null;
+		Instructions = 0;
+		PcodeOps = 0;
+	}
+}
+
+// The abstract interpreter is implemented as a derivative of the 
+// PcodeOpVisitor class, parameterized over TVLBitVector.
+class TVLAbstractInterpreter extends PcodeOpVisitor<TVLBitVector> {
+	
+	public TVLAbstractGhidraState AbstractState;
+	
+	// Set this to gather per-opcode statistics; leave it null to not pay for
+	// them.
+	public PcodeOpMetrics Metrics;
+	
+	// Set this to defer the evaluation of operations until their outputs are
+	// read (see LazyValue).
+	public boolean Lazy;
+	long OpStartNanos, OpStartBytes;
+	
+	// For the sake of global analysis, we should also have a constructor that
+	// allows these components to be specified, rather than initialized to Top.
+	public TVLAbstractInterpreter(boolean isBigEndian)
+	{
+		AbstractState = new TVLAbstractGhidraState(isBigEndian);
+	}
+	
+	// For the sake of global analysis, we should also have a constructor that
+	// allows these components to be specified, rather than initialized to Top.
+	public TVLAbstractInterpreter(TVLAbstractGhidraState existing)
+	{
+		AbstractState = existing.clone();
+	}
+
+	@Override
+	void VisitorBefore(Instruction instr, PcodeOp pcode)
+	{
+		if(Metrics == null)
+			return;
+		OpStartBytes = Metrics.AllocatedBytes();
+		OpStartNanos = System.nanoTime();
+	}
+	
+	@Override
+	void VisitorAfter(Instruction instr, PcodeOp pcode)
+	{
+		if(Metrics == null)
+			return;
+		long nanos = System.nanoTime() - OpStartNanos;
+		long bytes = Metrics.AllocatedBytes() - OpStartBytes;
+		
+		// Looking up the output allocates, so do it after the measurements. In 
+		// lazy mode, it would also force the evaluation, so don't.
+		Varnode out = pcode.getOutput();
+		boolean top = !Lazy && out != null && (out.isRegister() || out.isUnique()) && AbstractState.Lookup(out).IsAllTop();
+		Metrics.Record(pcode.getOpcode(), nanos, bytes, top);
+	}
+
+	// In lazy mode, operations that depend only upon their inputs are recorded
+	// rather than evaluated.
+	@Override
+	public void visit(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		if(Lazy && TVLBitVectorUtil.IsEvaluable(pcode.getOpcode()) && AbstractState.CanDefer(pcode))
+		{
+			VisitorBefore(instr, pcode);
+			AbstractState.AssociateLazy(pcode);
+			VisitorAfter(instr, pcode);
+			return;
+		}
+		super.visit(instr, pcode);
+	}
+
+	// Convert constant varnodes to three-valued bitvectors.
+	TVLBitVector visit_Constant(Instruction instr, PcodeOp pcode, Varnode Constant) 
+	{
+		return new TVLBitVector(new GhidraSizeAdapter(Constant.getSize()), Constant.getOffset());
+	}
+
+	// Lookup register varnodes in the abstract state.
+	TVLBitVector visit_Register(Instruction instr, PcodeOp pcode, Varnode Register) 
+	{
+		return AbstractState.Lookup(Register);
+	}
+
+	// Lookup unique varnodes in the abstract state.
+	TVLBitVector visit_Unique(Instruction instr, PcodeOp pcode, Varnode Unique) 
+	{
+		return AbstractState.Lookup(Unique);
+	}
+	
+	//
+	// Below here are the abstract interpretations of the pcode operations.
+	//
+	
+	// For the branch instructions, I think it makes sense to treat this 
+	// container class as being an intermediary class in a hierarchy, so as to
+	// simplify applying the analysis in local vs. global contexts. I.e. leave
+	// these unimplemented, and derive classes for local and global analyses that
+	// treat them differently.
+	// * PcodeOp.BRANCH
+	// * PcodeOp.BRANCHIND
+	// * PcodeOp.CALL
+	// * PcodeOp.CALLIND
+	// * PcodeOp.CALLOTHER
+	// * PcodeOp.CBRANCH
+	// * PcodeOp.RETURN
+
+	// Are these described in the documentation? Currently I let them throw 
+	// exceptions.
+	// * PcodeOp.SEGMENTOP
+	// * PcodeOp.UNIMPLEMENTED
+	
+	// For now, for unhandled PcodeOp types that write to Varnodes, we just set 
+	// the output to Top. Future work: implement them in the case that their 
+	// source Varnodes are known to be constant.
+	void SetOutputToTop(Varnode output)
+	{
+		TVLBitVector result = new TVLBitVector(new GhidraSizeAdapter(output.getSize()));
+		AbstractState.Associate(output, result);
+
+	}
+	
+	// Same, but for boolean quantities
+	void SetOutputToTopBool(Varnode output)
+	{
+		AbstractState.Associate(output, TVLBitVectorUtil.CreateHalfBit());
+	}
+	
+	// Unhandled, set top (future: if constant, use constant values)
+	void visit_INT_DIV(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+
+	// Unhandled, set top (future: if constant, use constant values)
+	void visit_INT_REM(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+
+	// Unhandled, set top (future: if constant, use constant values)
+	void visit_INT_SDIV(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+
+	// Unhandled, set top (future: if constant, use constant values)
+	void visit_INT_SREM(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 	
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+
+	// Unhandled, set top. Can implement in the future.
+	void visit_INT_CARRY(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		SetOutputToTopBool(pcode.getOutput());
+	}; 
+
+	// Unhandled, set top. Can implement in the future.
+	void visit_INT_SBORROW(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		SetOutputToTopBool(pcode.getOutput());
+	}; 
+
+	// Unhandled, set top. Can implement in the future.
+	void visit_INT_SCARRY(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		SetOutputToTopBool(pcode.getOutput());
+	}; 
+
+	// Each address space gets its own memory object. The space is resolved to
+	// its dense index once per operation.
+	void visit_LOAD(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{ 
+		TVLBitVector addr = visit_Varnode(instr,pcode,pcode.getInput(1));
+		Varnode output = pcode.getOutput();
+		Pair<Integer,Long> p = addr.GetConstantValue();
+		
+		TVLBitVector result;
+		if(p == null)
+			result = new TVLBitVector(new GhidraSizeAdapter(output.getSize()));
+		else
+			result = AbstractState.Load(AbstractState.SpaceIndex(pcode.getInput(0)), p.y, output.getSize()*8);
+		AbstractState.Associate(output, result);
+	}; 
+	void visit_STORE(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		int space = AbstractState.SpaceIndex(pcode.getInput(0));
+		TVLBitVector addr = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector what = visit_Varnode(instr,pcode,pcode.getInput(2));
+		Pair<Integer,Long> p = addr.GetConstantValue();
+		if(p != null)
+		{
+			AbstractState.Store(space, p.y, what);
+			return;
+		}
+		// If the known bits of the address confine it to a range, only forget
+		// that range. Otherwise, the whole space goes.
+		Pair<Long,Long> bounds = addr.GetUnsignedBounds();
+		if(bounds != null)
+			AbstractState.InvalidateMemory(space, bounds.x, bounds.y, what.Size()/8, addr.Size());
+		else
+			AbstractState.MakeMemoryTop(space);
+	}; 
+	
+	// And the remainder have been implemented, albeit not rigorously tested.
+	void visit_BOOL_AND(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.CreateSingle(TVLBitVectorUtil.AndTable[lhs.Get(0)][rhs.Get(0)]);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}
+	void visit_BOOL_NEGATE(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector result = TVLBitVectorUtil.CreateSingle(TVLBitVectorUtil.NotTable[lhs.Get(0)]);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_BOOL_OR(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.CreateSingle(TVLBitVectorUtil.OrTable[lhs.Get(0)][rhs.Get(0)]);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_BOOL_XOR(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.CreateSingle(TVLBitVectorUtil.XorTable[lhs.Get(0)][rhs.Get(0)]);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_COPY(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		AbstractState.Associate(pcode.getOutput(), lhs);		
+	}; 
+
+	void visit_INT_2COMP(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{ 
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector result = TVLBitVectorUtil.Neg(lhs);
+		AbstractState.Associate(pcode.getOutput(), result);		
+	}; 
+	void visit_INT_ADD(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.Add(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_AND(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.And(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_EQUAL(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.Equals(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_LEFT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.ShiftLeftBv(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_LESS(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.ULT(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_LESSEQUAL(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.ULE(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_MULT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.Multiply(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_NEGATE(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector result = TVLBitVectorUtil.Not(lhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_NOTEQUAL(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.NotEquals(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_OR(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.Or(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_RIGHT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.ShiftRightBv(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_SEXT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		Varnode output = pcode.getOutput();
+		TVLBitVector result = TVLBitVectorUtil.SignExtend(lhs, new GhidraSizeAdapter(output.getSize()));
+		AbstractState.Associate(output, result);
+	}; 
+	void visit_INT_SLESS(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.SLT(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_SLESSEQUAL(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.SLE(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_SRIGHT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{ 
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.ShiftRightArithmeticBv(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_SUB(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.Subtract(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_XOR(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		TVLBitVector rhs = visit_Varnode(instr,pcode,pcode.getInput(1));
+		TVLBitVector result = TVLBitVectorUtil.Xor(lhs,rhs);
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+	void visit_INT_ZEXT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		Varnode output = pcode.getOutput();
+		TVLBitVector result = TVLBitVectorUtil.ZeroExtend(lhs, new GhidraSizeAdapter(output.getSize()));
+		AbstractState.Associate(output, result);
+	}; 
+
+	// I think I can implement this, once I'm sure I understand it precisely.
+	// For now, unhandled.
+	void visit_PIECE            (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+
+	// I think I can implement this, once I'm sure I understand it precisely.
+	// For now, unhandled.
+	void visit_SUBPIECE         (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+
+	// Floating point boolean-returning operations, all unhandled (set to top)
+	void visit_FLOAT_EQUAL      (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTopBool(pcode.getOutput());
+	}; 
+	void visit_FLOAT_NOTEQUAL   (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTopBool(pcode.getOutput());
+	}; 
+	void visit_FLOAT_LESS       (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTopBool(pcode.getOutput());
+	}; 
+	void visit_FLOAT_LESSEQUAL  (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
 	{
 		SetOutputToTopBool(pcode.getOutput());
 	}; 
 	void visit_FLOAT_NAN        (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
 	{
-		SetOutputToTopBool(pcode.getOutput());
-	}; 
-
-	// Floating point non boolean-returning operations, all unhandled (set to top)
-	void visit_FLOAT_ADD        (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		SetOutputToTopBool(pcode.getOutput());
+	}; 
+
+	// Floating point non boolean-returning operations, all unhandled (set to top)
+	void visit_FLOAT_ADD        (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_SUB        (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_MULT       (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_DIV        (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_NEG        (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_ABS        (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_SQRT       (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_CEIL       (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_FLOOR      (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_ROUND      (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_FLOAT2FLOAT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_INT2FLOAT  (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	void visit_FLOAT_TRUNC      (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+
+	// "Pseudo" operations. Unhandled, set output to top.
+	void visit_NEW              (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	
+	// Based on the description, I could probably handle this one? Look the value
+	// up in the constant pool and return it precisely.
+	void visit_CPOOLREF         (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+	
+	// "Additional" operations. From the descriptions, I might even be able to
+	// implement all of these...?
+	
+	// For now, I have implemented CAST, anyway.
+	void visit_CAST             (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
+	{ 
+		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
+		AbstractState.Associate(pcode.getOutput(), lhs);		
+	}; 
+
+	// I can probably just implement this in terms of addition and multiplication?
+	void visit_PTRADD           (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+
+	// I can probably just implement this in terms of addition and multiplication?
+	void visit_PTRSUB           (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+
+	// The join of all of the incoming values.
+	void visit_MULTIEQUAL       (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		TVLBitVector result = visit_Varnode(instr,pcode,pcode.getInput(0));
+		for(int i = 1; i < pcode.getNumInputs(); i++)
+			result = TVLBitVectorUtil.Join(result, visit_Varnode(instr,pcode,pcode.getInput(i)));
+		AbstractState.Associate(pcode.getOutput(), result);
+	}; 
+
+	// This one I understand less, so my ideas of how to handle it in the future
+	// are more vague. Perhaps I could implment it.
+	void visit_INDIRECT         (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		SetOutputToTop(pcode.getOutput());
+	}; 
+}
+
+// A compact binary format for pcode traces, so that the interpreter can be 
+// run over a selection without Ghidra's program database (or GUI) being 
+// present. Everything is little-endian. The file begins with a header:
+// * int   Magic ("TVLT")
+// * short Version
+// * byte  1 if the language is big-endian, else 0
+// It is followed by a sequence of records, each beginning with a tag byte:
+// * TagSpace: byte id, byte type, byte address size (bytes), short name 
+//   length, name (UTF-8). Defines an address space the first time it's used.
+// * TagInstruction: byte space, long offset, short number of pcode ops, 
+//   followed by that many ops.
+// * TagEnd: the end of the trace.
+// Each op is: byte opcode, byte number of inputs, byte 1 if there is an 
+// output, then the output (if any) and the inputs, each a varnode of the form
+// byte space, long offset, short size.
+final class PcodeTraceFormat {
+	private PcodeTraceFormat() {};
+	static final int   Magic   = 0x544C5654;
+	static final short Version = 1;
+	static final byte  TagSpace       = 1;
+	static final byte  TagInstruction = 2;
+	static final byte  TagEnd         = 3;
+}
+
+// Writes a trace in the format described above. Call Instruction() once per 
+// instruction, in the order that the interpreter would see them.
+class PcodeTraceWriter implements AutoCloseable {
+	DataOutputStream Out;
+	HashMap<AddressSpace,Integer> SpaceIds;
+	
+	public PcodeTraceWriter(File f, boolean isBigEndian) throws IOException
+	{
+		Out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		SpaceIds = new HashMap<>();
+		Out.writeInt(Integer.reverseBytes(PcodeTraceFormat.Magic));
+		Out.writeShort(Short.reverseBytes(PcodeTraceFormat.Version));
+		Out.writeByte(isBigEndian ? 1 : 0);
+	}
+	
+	// Get the trace's id for the space, writing out its definition if this is
+	// the first time it's been seen.
+	int Space(AddressSpace space) throws IOException
+	{
+		Integer id = SpaceIds.get(space);
+		if(id != null)
+			return id;
+		id = SpaceIds.size();
+		if(id > 255)
+			throw new IOException("PcodeTraceWriter: too many address spaces");
+		SpaceIds.put(space, id);
+		byte[] name = space.getName().getBytes(StandardCharsets.UTF_8);
+		Out.writeByte(PcodeTraceFormat.TagSpace);
+		Out.writeByte(id);
+		Out.writeByte(space.getType());
+		Out.writeByte(space.getSize() / 8);
+		Out.writeShort(Short.reverseBytes((short)name.length));
+		Out.write(name);
+		return id;
+	}
+	
+	void WriteVarnode(int space, Varnode v) throws IOException
+	{
+		Out.writeByte(space);
+		Out.writeLong(Long.reverseBytes(v.getOffset()));
+		Out.writeShort(Short.reverseBytes((short)v.getSize()));
+	}
+	
+	public void Instruction(Address addr, PcodeOp[] pcode) throws IOException
+	{
+		// Space definitions have to precede the record that uses them.
+		int instrSpace = Space(addr.getAddressSpace());
+		int[][] spaces = new int[pcode.length][];
+		for(int i = 0; i < pcode.length; i++)
+		{
+			int n = pcode[i].getNumInputs();
+			spaces[i] = new int[n+1];
+			Varnode out = pcode[i].getOutput();
+			if(out != null)
+				spaces[i][n] = Space(out.getAddress().getAddressSpace());
+			for(int j = 0; j < n; j++)
+				spaces[i][j] = Space(pcode[i].getInput(j).getAddress().getAddressSpace());
+		}
+		
+		Out.writeByte(PcodeTraceFormat.TagInstruction);
+		Out.writeByte(instrSpace);
+		Out.writeLong(Long.reverseBytes(addr.getOffset()));
+		Out.writeShort(Short.reverseBytes((short)pcode.length));
+		for(int i = 0; i < pcode.length; i++)
+		{
+			int n = pcode[i].getNumInputs();
+			Varnode out = pcode[i].getOutput();
+			Out.writeByte(pcode[i].getOpcode());
+			Out.writeByte(n);
+			Out.writeByte(out != null ? 1 : 0);
+			if(out != null)
+				WriteVarnode(spaces[i][n], out);
+			for(int j = 0; j < n; j++)
+				WriteVarnode(spaces[i][j], pcode[i].getInput(j));
+		}
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		Out.writeByte(PcodeTraceFormat.TagEnd);
+		Out.close();
+	}
+}
+
+// Replays a trace written by PcodeTraceWriter. The file is memory-mapped, and
+// records are decoded directly out of the mapping as the interpreter asks for
+// them; the only objects created are the Varnodes and PcodeOps themselves. 
+// Address spaces are recreated as GenericAddressSpaces of the recorded types, 
+// which is all that the interpreter looks at. The Instruction passed to the 
+// visitor is null, as it is in TransformerTester.
+class PcodeTraceReplayer {
+	MappedByteBuffer Buf;
+	boolean bigEndian;
+	AddressSpace[] Spaces;
+	long NumInstructions;
+	long NumOps;
+	final InstructionBatchRecorder Batches = new InstructionBatchRecorder();
+	
+	public PcodeTraceReplayer(File f) throws IOException
+	{
+		try(RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel ch = raf.getChannel())
+		{
+			if(ch.size() > Integer.MAX_VALUE)
+				throw new IOException("PcodeTraceReplayer: "+f+" is larger than 2GB; split the trace");
+			Buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		Buf.order(ByteOrder.LITTLE_ENDIAN);
+		if(Buf.getInt() != PcodeTraceFormat.Magic)
+			throw new IOException("PcodeTraceReplayer: "+f+" is not a pcode trace");
+		short version = Buf.getShort();
+		if(version != PcodeTraceFormat.Version)
+			throw new IOException("PcodeTraceReplayer: unsupported trace version "+version);
+		bigEndian = Buf.get() != 0;
+		Spaces = new AddressSpace[256];
+	}
+	
+	boolean IsBigEndian() { return bigEndian; }
+	
+	void ReadSpace()
+	{
+		int id   = Buf.get() & 0xFF;
+		int type = Buf.get();
+		int size = Buf.get() & 0xFF;
+		byte[] name = new byte[Buf.getShort()];
+		Buf.get(name);
+		Spaces[id] = new GenericAddressSpace(new String(name, StandardCharsets.UTF_8), size*8, type, id);
+	}
+	
+	Varnode ReadVarnode()
+	{
+		AddressSpace space = Spaces[Buf.get() & 0xFF];
+		long offset = Buf.getLong();
+		int size = Buf.getShort();
+		return new Varnode(space.getAddress(offset), size);
+	}
+	
+	// Run the whole trace through the interpreter, clearing the unique space 
+	// at instruction boundaries as AbstractInterpret does.
+	public void Replay(TVLAbstractInterpreter visitor) throws VisitorUnimplementedException, IOException
+	{
+		int seqNo = 0;
+		while(true)
+		{
+			byte tag = Buf.get();
+			if(tag == PcodeTraceFormat.TagEnd)
+			{
+				Batches.Flush(visitor.AbstractState);
+				return;
+			}
+			if(tag == PcodeTraceFormat.TagSpace)
+			{
+				ReadSpace();
+				continue;
+			}
+			if(tag != PcodeTraceFormat.TagInstruction)
+				throw new IOException("PcodeTraceReplayer: bad record tag "+tag+" at "+(Buf.position()-1));
+			
+			Address addr = Spaces[Buf.get() & 0xFF].getAddress(Buf.getLong());
+			int nOps = Buf.getShort() & 0xFFFF;
+			for(int i = 0; i < nOps; i++)
+			{
+				int opcode = Buf.get() & 0xFF;
+				int nInputs = Buf.get() & 0xFF;
+				Varnode out = Buf.get() != 0 ? ReadVarnode() : null;
+				Varnode[] inputs = new Varnode[nInputs];
+				for(int j = 0; j < nInputs; j++)
+					inputs[j] = ReadVarnode();
+				visitor.visit(null, new PcodeOp(addr, seqNo++, opcode, inputs, out));
+			}
+			visitor.AbstractState.ClearUniques();
+			Batches.Instruction(addr, nOps, visitor.AbstractState);
+			NumInstructions++;
+			NumOps += nOps;
+		}
+	}
+}
+
+// Backward liveness over the pcode of a block, to find operations whose 
+// outputs are overwritten (or discarded) before anything reads them. x86 
+// instructions compute all of the flags and a handful of uniques, and most of
+// those are dead; the interpreter needn't evaluate them at all.
+// 
+// A block here is a run of instructions that fall through into one another, 
+// ending after any instruction whose pcode branches, calls, or returns. 
+// Liveness is byte-granular, for registers and uniques:
+// * At the end of a block, every register is live (successors might read it),
+//   and at the end of each instruction, every unique is dead (ClearUniques()
+//   discards them).
+// * An instruction containing a branch-type operation is a barrier: none of 
+//   its operations are dead, and every register is live before it. 
+// * Only operations whose output is a register or unique are candidates. 
+//   STOREs, and anything else with a side effect or a memory output, are 
+//   never removed, and their inputs are always live.
+class PcodeLiveness {
+	static final int MaxBlockLength = 256;
+	
+	// Uniques and registers share the sets below; uniques are told apart by 
+	// this bit.
+	static final long UniqueBit = 1L << 62;
+	
+	long NumOps, NumDead;
+	
+	static boolean IsBarrier(int opcode)
+	{
+		switch(opcode)
+		{
+			case PcodeOp.BRANCH: case PcodeOp.CBRANCH: case PcodeOp.BRANCHIND:
+			case PcodeOp.CALL:   case PcodeOp.CALLIND: case PcodeOp.CALLOTHER:
+			case PcodeOp.RETURN:
+				return true;
+		}
+		return false;
+	}
+	
+	// Does this instruction's pcode end a block?
+	static boolean EndsBlock(PcodeOp[] pcode)
+	{
+		for(PcodeOp op : pcode)
+			if(IsBarrier(op.getOpcode()))
+				return true;
+		return false;
+	}
+	
+	static long Key(Varnode v, int i)
+	{
+		return v.isUnique() ? UniqueBit | (v.getOffset() + i) : v.getOffset() + i;
+	}
+	
+	// For each instruction in the block, for each of its operations: is its
+	// output dead?
+	public boolean[][] DeadOps(PcodeOp[][] block)
+	{
+		boolean[][] dead = new boolean[block.length][];
+		
+		// Register bytes that are written before being read, between here and the
+		// end of the block. Everything else is live.
+		HashSet<Long> deadRegs = new HashSet<>();
+		// Unique bytes that are read later in the current instruction.
+		HashSet<Long> liveUniques = new HashSet<>();
+		
+		for(int k = block.length - 1; k >= 0; k--)
+		{
+			PcodeOp[] pcode = block[k];
+			dead[k] = new boolean[pcode.length];
+			NumOps += pcode.length;
+			liveUniques.clear();
+			if(EndsBlock(pcode))
+			{
+				deadRegs.clear();
+				continue;
+			}
+			for(int i = pcode.length - 1; i >= 0; i--)
+			{
+				PcodeOp op = pcode[i];
+				Varnode out = op.getOutput();
+				boolean removable = out != null && (out.isRegister() || out.isUnique()) && op.getOpcode() != PcodeOp.STORE;
+				if(removable)
+				{
+					boolean isDead = true;
+					for(int j = 0; j < out.getSize() && isDead; j++)
+						isDead = out.isUnique() ? !liveUniques.contains(Key(out, j)) : deadRegs.contains(Key(out, j));
+					
+					// Either way, the output's old value is dead above this point.
+					for(int j = 0; j < out.getSize(); j++)
+					{
+						if(out.isUnique()) liveUniques.remove(Key(out, j));
+						else               deadRegs.add(Key(out, j));
+					}
+					if(isDead)
+					{
+						dead[k][i] = true;
+						NumDead++;
+						continue;
+					}
+				}
+				for(Varnode in : op.getInputs())
+				{
+					if(in.isRegister())
+						for(int j = 0; j < in.getSize(); j++)
+							deadRegs.remove(Key(in, j));
+					else if(in.isUnique())
+						for(int j = 0; j < in.getSize(); j++)
+							liveUniques.add(Key(in, j));
+				}
+			}
+		}
+		return dead;
+	}
+}
+
+// Walks the listing and decodes pcode ahead of the interpreter, on a thread 
+// of its own, so that the database accesses and pcode generation overlap 
+// with the interpretation. Instructions are gathered into blocks (as 
+// AbstractInterpret wants them for dead-operation elimination) and passed 
+// through a bounded queue, so that the producer can only get Depth blocks 
+// ahead; there's a single producer and the queue is FIFO, so the order is 
+// that of the iterator. Anything that goes wrong in the producer, including 
+// noticing that the monitor was cancelled, is put in the queue in place of 
+// the next block, and rethrown by Take() on the interpreter's thread. If the
+// interpreter stops first (it threw, or was cancelled), close() interrupts 
+// the producer, which might be blocked on a full queue.
+//
+// With a depth of 0, there's no thread: Take() decodes the next block itself.
+class PcodeBlockProducer implements AutoCloseable {
+	static final class Block {
+		final Instruction[] Instructions;
+		final PcodeOp[][] Pcode;
+		// The instruction after the block, or null if it was the last.
+		final Address Next;
+		Block(Instruction[] instrs, PcodeOp[][] pcode, Address next)
+		{
+			Instructions = instrs;
+			Pcode = pcode;
+			Next = next;
+		}
+	}
+	static final Block End = new Block(new Instruction[0], new PcodeOp[0][], null);
+	
+	Instruction NextInstruction;
+	final InstructionIterator Rest;
+	final TaskMonitor Monitor;
+	final ArrayBlockingQueue<Object> Queue;
+	Thread Producer;
+	volatile boolean Stopped;
+	boolean Finished;
+	
+	public PcodeBlockProducer(Instruction first, InstructionIterator rest, int depth, TaskMonitor monitor)
+	{
+		NextInstruction = first;
+		Rest = rest;
+		Monitor = monitor;
+		Queue = depth > 0 ? new ArrayBlockingQueue<>(depth) : null;
+		if(Queue != null)
+		{
+			Producer = new Thread(this::Run, "TVL pcode decoder");
+			Producer.setDaemon(true);
+			Producer.start();
+		}
+	}
+	
+	// Gather and decode the next block, ending it at a control transfer, at a
+	// break in the fall-through chain, or at the maximum length. Returns null
+	// when the instructions are exhausted.
+	Block Decode()
+	{
+		if(NextInstruction == null)
+			return null;
+		ArrayList<Instruction> block = new ArrayList<>();
+		ArrayList<PcodeOp[]> blockPcode = new ArrayList<>();
+		while (NextInstruction != null) {
+			Instruction instr = NextInstruction;
+			NextInstruction = Rest.hasNext() ? Rest.next() : null;
+			PcodeOp[] pcode = instr.getPcode();
+			block.add(instr);
+			blockPcode.add(pcode);
+			if(block.size() >= PcodeLiveness.MaxBlockLength || PcodeLiveness.EndsBlock(pcode) || 
+			   NextInstruction == null || !NextInstruction.getAddress().equals(instr.getFallThrough()))
+				break;
+		}
+		return new Block(block.toArray(new Instruction[0]), blockPcode.toArray(new PcodeOp[0][]), 
+		                 NextInstruction != null ? NextInstruction.getAddress() : null);
+	}
+	
+	void Run()
+	{
+		try {
+			while(!Stopped)
+			{
+				if(Monitor != null && Monitor.isCancelled())
+				{
+					Queue.put(new CancelledException());
+					return;
+				}
+				Block b = Decode();
+				if(b == null)
+					break;
+				Queue.put(b);
+			}
+			Queue.put(End);
+		}
+		catch(InterruptedException e) {
+			// close() was called; nobody is listening anymore.
+		}
+		catch(Throwable t) {
+			try {
+				Queue.put(t);
+			}
+			catch(InterruptedException e) {
+			}
+		}
+	}
+	
+	// The next block, in order, or null once they've all been taken.
+	public Block Take() throws Exception
+	{
+		if(Finished)
+			return null;
+		if(Queue == null)
+		{
+			Block b = Decode();
+			Finished = b == null;
+			return b;
+		}
+		Object o = Queue.take();
+		if(o == End)
+		{
+			Finished = true;
+			return null;
+		}
+		if(o instanceof Throwable)
+		{
+			Finished = true;
+			if(o instanceof Exception)
+				throw (Exception)o;
+			throw (Error)o;
+		}
+		return (Block)o;
+	}
+	
+	@Override
+	public void close()
+	{
+		Stopped = true;
+		if(Producer == null)
+			return;
+		Producer.interrupt();
+		try {
+			Producer.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
+
+// Backward slicing over straight-line pcode, for answering "what is X just 
+// before the instruction at Y" without interpreting everything. Starting from
+// the bytes of X, walk the pcode backwards from Y, keeping the set of bytes 
+// that are still demanded; an operation is in the slice if it writes any of 
+// them, in which case the bytes that it writes are no longer demanded above 
+// it, and the bytes that it reads are. Then only the operations in the slice
+// need to be interpreted.
+// 
+// Registers, uniques, and memory at constant addresses (i.e. varnodes in a 
+// memory space, and LOADs and STOREs whose address is a constant varnode) are
+// tracked byte by byte. Otherwise, the address isn't known until the 
+// interpretation has happened, so this is conservative:
+// * A LOAD from a non-constant address demands everything in its space. 
+// * A STORE to a non-constant address is in the slice if anything in its 
+//   space is demanded, and doesn't stop anything from being demanded.
+// Uniques don't survive from one instruction to the next (ClearUniques() 
+// throws them away), so they stop being demanded at instruction boundaries.
+// 
+// Slices are cached by query point: the address and the varnode.
+class PcodeSlicer {
+	// Which operations of each instruction are in the slice, up to End (the 
+	// index of the query instruction, or the number of instructions).
+	static final class Slice {
+		boolean[][] Included;
+		int End;
+		int NumOps, NumInstructions;
+	}
+	
+	final Address[] Addrs;
+	final PcodeOp[][] Pcode;
+	final HashMap<Pair<Address,Varnode>,Slice> Cache = new HashMap<>();
+	
+	public PcodeSlicer(Address[] addrs, PcodeOp[][] pcode)
+	{
+		Addrs = addrs;
+		Pcode = pcode;
+	}
+	
+	// The bytes still demanded, as the walk goes backwards.
+	static final class Demand {
+		final HashSet<Long> Registers = new HashSet<>();
+		final HashSet<Long> Uniques = new HashSet<>();
+		final HashMap<Long,HashSet<Long>> Memory = new HashMap<>();
+		final HashSet<Long> AnyMemory = new HashSet<>();
+		
+		HashSet<Long> Bytes(long space)
+		{
+			return Memory.computeIfAbsent(space, k -> new HashSet<>());
+		}
+		boolean SpaceDemanded(long space)
+		{
+			HashSet<Long> m = Memory.get(space);
+			return AnyMemory.contains(space) || (m != null && !m.isEmpty());
+		}
+		
+		// Does v overlap anything demanded?
+		boolean Overlaps(Varnode v)
+		{
+			if(v.isConstant())
+				return false;
+			if(!v.isRegister() && !v.isUnique() && AnyMemory.contains((long)v.getSpace()))
+				return true;
+			HashSet<Long> set = v.isRegister() ? Registers : v.isUnique() ? Uniques : Memory.get((long)v.getSpace());
+			if(set == null)
+				return false;
+			for(int i = 0; i < v.getSize(); i++)
+				if(set.contains(v.getOffset() + i))
+					return true;
+			return false;
+		}
+		
+		void Add(Varnode v)
+		{
+			if(v.isConstant())
+				return;
+			HashSet<Long> set = v.isRegister() ? Registers : v.isUnique() ? Uniques : Bytes(v.getSpace());
+			for(int i = 0; i < v.getSize(); i++)
+				set.add(v.getOffset() + i);
+		}
+		
+		void Kill(Varnode v)
+		{
+			if(v.isConstant())
+				return;
+			HashSet<Long> set = v.isRegister() ? Registers : v.isUnique() ? Uniques : Memory.get((long)v.getSpace());
+			if(set == null)
+				return;
+			for(int i = 0; i < v.getSize(); i++)
+				set.remove(v.getOffset() + i);
+		}
+		
+		void AddRange(long space, long addr, int nBytes)
+		{
+			HashSet<Long> set = Bytes(space);
+			for(int i = 0; i < nBytes; i++)
+				set.add(addr + i);
+		}
+		
+		boolean OverlapsRange(long space, long addr, int nBytes)
+		{
+			if(AnyMemory.contains(space))
+				return true;
+			HashSet<Long> set = Memory.get(space);
+			if(set == null)
+				return false;
+			for(int i = 0; i < nBytes; i++)
+				if(set.contains(addr + i))
+					return true;
+			return false;
+		}
+		
+		void KillRange(long space, long addr, int nBytes)
+		{
+			HashSet<Long> set = Memory.get(space);
+			if(set == null)
+				return;
+			for(int i = 0; i < nBytes; i++)
+				set.remove(addr + i);
+		}
+	}
+	
+	// The slice for the value of what just before the instruction at the 
+	// given address (or, if at is null, after the last instruction). Null if
+	// there's no instruction at that address.
+	public Slice Compute(Address at, Varnode what)
+	{
+		Pair<Address,Varnode> key = new Pair<>(at, what);
+		Slice sl = Cache.get(key);
+		if(sl != null)
+			return sl;
+		
+		sl = new Slice();
+		sl.End = at == null ? Addrs.length : -1;
+		if(at != null)
+			for(int k = 0; k < Addrs.length; k++)
+				if(Addrs[k].equals(at))
+				{
+					sl.End = k;
+					break;
+				}
+		if(sl.End < 0)
+			return null;
+		sl.Included = new boolean[sl.End][];
+		
+		Demand d = new Demand();
+		d.Add(what);
+		for(int k = sl.End - 1; k >= 0; k--)
+		{
+			PcodeOp[] pcode = Pcode[k];
+			sl.Included[k] = new boolean[pcode.length];
+			d.Uniques.clear();
+			boolean any = false;
+			for(int i = pcode.length - 1; i >= 0; i--)
+			{
+				if(Include(pcode[i], d))
+				{
+					sl.Included[k][i] = true;
+					sl.NumOps++;
+					any = true;
+				}
+			}
+			if(any)
+				sl.NumInstructions++;
+		}
+		Cache.put(key, sl);
+		return sl;
+	}
+	
+	// Is op in the slice? If so, update the demand to what's needed before it.
+	boolean Include(PcodeOp op, Demand d)
+	{
+		Varnode out = op.getOutput();
+		switch(op.getOpcode())
+		{
+			case PcodeOp.STORE:
+			{
+				long space = op.getInput(0).getOffset();
+				Varnode addr = op.getInput(1), val = op.getInput(2);
+				if(addr.isConstant())
+				{
+					if(!d.OverlapsRange(space, addr.getOffset(), val.getSize()))
+						return false;
+					d.KillRange(space, addr.getOffset(), val.getSize());
+				}
+				else if(!d.SpaceDemanded(space))
+					return false;
+				d.Add(addr);
+				d.Add(val);
+				return true;
+			}
+			case PcodeOp.LOAD:
+			{
+				if(!d.Overlaps(out))
+					return false;
+				long space = op.getInput(0).getOffset();
+				Varnode addr = op.getInput(1);
+				d.Kill(out);
+				d.Add(addr);
+				if(addr.isConstant())
+					d.AddRange(space, addr.getOffset(), out.getSize());
+				else
+					d.AnyMemory.add(space);
+				return true;
+			}
+		}
+		// Anything else only matters through its output. (Branches have none; 
+		// they aren't part of the data flow.)
+		if(out == null || !d.Overlaps(out))
+			return false;
+		d.Kill(out);
+		for(Varnode in : op.getInputs())
+			d.Add(in);
+		return true;
+	}
+}
+
+// A sparse analysis over the decompiler's SSA form of a function, instead of
+// the dense one over raw pcode. Each SSA varnode has a single definition, so 
+// abstract values can be attached to the varnodes themselves rather than to a
+// whole state at every program point. MULTIEQUAL is the join of its inputs. 
+// When a value changes, only the operations that use it (its descendants) 
+// are re-evaluated, so the cost is proportional to the number of def-use 
+// edges, rather than to the number of program points times the size of the 
+// state.
+// 
+// Values start out absent (nothing known yet), and each new value is joined 
+// with the old one, so that they only ever go up the lattice; every bit can 
+// change at most twice, so the worklist terminates. A MULTIEQUAL ignores 
+// inputs that have no value yet, which lets loops settle upon the values 
+// that actually flow around them. Everything that the decompiler doesn't 
+// model in SSA is Top: LOADs, call outputs, INDIRECTs (whose value a call 
+// may have changed), function inputs, and so on.
+class SparseTVLAnalysis {
+	final ArrayList<PcodeOp> Ops = new ArrayList<>();
+	final IdentityHashMap<Varnode,TVLBitVector> Values = new IdentityHashMap<>();
+	final ArrayDeque<PcodeOp> Worklist = new ArrayDeque<>();
+	final IdentityHashMap<PcodeOp,Boolean> OnList = new IdentityHashMap<>();
+	long Evaluations;
+	
+	public SparseTVLAnalysis(Iterator<? extends PcodeOp> ops)
+	{
+		while(ops.hasNext())
+			Ops.add(ops.next());
+	}
+	
+	void Push(PcodeOp op)
+	{
+		if(op.getOutput() != null && OnList.put(op, Boolean.TRUE) == null)
+			Worklist.add(op);
+	}
+	
+	// The value of a varnode: constants are themselves, varnodes without a 
+	// defining operation (function inputs, globals) are Top, and varnodes 
+	// whose definition hasn't produced anything yet are null.
+	public TVLBitVector ValueOf(Varnode v)
+	{
+		if(v.isConstant())
+			return new TVLBitVector(new GhidraSizeAdapter(v.getSize()), v.getOffset());
+		TVLBitVector r = Values.get(v);
+		if(r == null && v.getDef() == null)
+			return new TVLBitVector(new GhidraSizeAdapter(v.getSize()));
+		return r;
+	}
+	
+	// The abstract result of an operation, or null if an input that it needs
+	// has no value yet.
+	TVLBitVector Transfer(PcodeOp op)
+	{
+		Varnode out = op.getOutput();
+		int opcode = op.getOpcode();
+		switch(opcode)
+		{
+			case PcodeOp.MULTIEQUAL:
+			{
+				TVLBitVector r = null;
+				for(Varnode in : op.getInputs())
+				{
+					TVLBitVector v = ValueOf(in);
+					if(v != null)
+						r = r == null ? v : TVLBitVectorUtil.Join(r, v);
+				}
+				return r;
+			}
+			case PcodeOp.CAST:
+				return ValueOf(op.getInput(0));
+			case PcodeOp.PTRSUB:
+			{
+				TVLBitVector a = ValueOf(op.getInput(0)), b = ValueOf(op.getInput(1));
+				if(a == null || b == null)
+					return null;
+				if(a.Size() == b.Size())
+					return TVLBitVectorUtil.Add(a, b);
+				break;
+			}
+			case PcodeOp.PTRADD:
+			{
+				TVLBitVector a = ValueOf(op.getInput(0)), b = ValueOf(op.getInput(1)), c = ValueOf(op.getInput(2));
+				if(a == null || b == null || c == null)
+					return null;
+				if(a.Size() == b.Size() && b.Size() == c.Size())
+					return TVLBitVectorUtil.Add(a, TVLBitVectorUtil.Multiply(b, c));
+				break;
+			}
+		}
+		if(TVLBitVectorUtil.IsEvaluable(opcode))
+		{
+			Varnode[] ins = op.getInputs();
+			TVLBitVector[] vals = new TVLBitVector[ins.length];
+			for(int i = 0; i < ins.length; i++)
+				if((vals[i] = ValueOf(ins[i])) == null)
+					return null;
+			return TVLBitVectorUtil.Evaluate(opcode, vals, out.getSize());
+		}
+		return new TVLBitVector(new GhidraSizeAdapter(out.getSize()));
+	}
+	
+	public void Run(TaskMonitor monitor) throws CancelledException
+	{
+		for(PcodeOp op : Ops)
+			Push(op);
+		while(!Worklist.isEmpty())
+		{
+			if((Evaluations & 1023) == 0 && monitor != null)
+				monitor.checkCanceled();
+			PcodeOp op = Worklist.poll();
+			OnList.remove(op);
+			Evaluations++;
+			TVLBitVector r = Transfer(op);
+			if(r == null)
+				continue;
+			Varnode out = op.getOutput();
+			TVLBitVector old = Values.get(out);
+			TVLBitVector nv = old == null ? r : TVLBitVectorUtil.Join(old, r);
+			if(old != null && old.equals(nv))
+				continue;
+			Values.put(out, nv);
+			Iterator<PcodeOp> uses = out.getDescendants();
+			while(uses.hasNext())
+				Push(uses.next());
+		}
+	}
+	
+	// Conditional branches whose condition came out constant, and whether 
+	// they're always taken.
+	public ArrayList<Pair<PcodeOp,Boolean>> DecidedBranches()
+	{
+		ArrayList<Pair<PcodeOp,Boolean>> r = new ArrayList<>();
+		for(PcodeOp op : Ops)
+		{
+			if(op.getOpcode() != PcodeOp.CBRANCH)
+				continue;
+			TVLBitVector c = ValueOf(op.getInput(1));
+			if(c == null)
+				continue;
+			byte b = c.Get(0);
+			if(b != TVLBitVector.TVL_HALF)
+				r.add(new Pair<>(op, b == TVLBitVector.TVL_1));
+		}
+		return r;
+	}
+}
+
+// A branch whose direction, or target, the analysis decided: a conditional 
+// branch that's always or never taken, or an indirect branch with a single 
+// possible target. In obfuscated code, the former are opaque predicates. 
+// Target is where the branch goes if taken. For BranchPatchSet: Length is the
+// length of the instruction, and OnlyBranches says whether it does nothing 
+// else (the rest of its pcode only writes uniques), so that replacing it with
+// a jump or NOPs loses nothing. x86 jcc and JMP qualify; LOOP doesn't.
+final class OpaqueBranch {
+	final Address At;
+	final int Length;
+	final int Opcode;
+	final boolean Taken;
+	final Address Target;
+	final boolean OnlyBranches;
+	
+	OpaqueBranch(Instruction instr, int opcode, boolean taken, Address target)
+	{
+		this(instr.getAddress(), instr.getLength(), opcode, taken, target, OnlyBranches(instr, opcode));
+	}
+	
+	OpaqueBranch(Address at, int length, int opcode, boolean taken, Address target, boolean onlyBranches)
+	{
+		At = at;
+		Length = length;
+		Opcode = opcode;
+		Taken = taken;
+		Target = target;
+		OnlyBranches = onlyBranches;
+	}
+	
+	static boolean OnlyBranches(Instruction instr, int opcode)
+	{
+		for(PcodeOp op : instr.getPcode())
+		{
+			if(op.getOpcode() == opcode)
+				continue;
+			Varnode out = op.getOutput();
+			if(out == null || !out.isUnique())
+				return false;
+		}
+		return true;
+	}
+	
+	// One tab-separated line of the report.
+	String Row(String function)
+	{
+		if(Opcode == PcodeOp.CBRANCH)
+			return function+"\t"+At+"\tCBRANCH\t"+(Taken ? "always" : "never");
+		return function+"\t"+At+"\tBRANCHIND\t"+Target;
+	}
+	
+	static final String Header = "Function\tAddress\tBranch\tDecided";
+}
+
+// The interpreter for TVLFunctionAnalyzer. The base class leaves the control
+// flow operations unimplemented; here, a branch records where control goes 
+// and the state it takes there, and the conditional and indirect branches 
+// that come out decided are recorded too.
+// 
+// Without Summaries, calls are assumed to change any register and any memory.
+// That's sound, but crude: on x86, the stack pointer is unknown afterwards, 
+// so the next write through it forgets all of memory. Most opaque predicates
+// are built from registers and flags between calls, so this costs less than 
+// it sounds. With Summaries, a call to a known target applies the callee's 
+// summary instead (see FunctionSummaries).
+class TVLFunctionInterpreter extends TVLAbstractInterpreter {
+	
+	// Where control leaves the current instruction, besides falling through, 
+	// and the state as of the branch. A null target is an indirect branch 
+	// whose target isn't known.
+	final ArrayList<Pair<Address,TVLAbstractGhidraState>> Exits;
+	
+	// Set once the rest of the current instruction's pcode can't be reached.
+	boolean Stopped;
+	
+	// The branches in the current instruction that came out decided.
+	final ArrayList<OpaqueBranch> Decided;
+	
+	// Where calls get their summaries, if anywhere, and the monitor for the 
+	// callees' analyses.
+	FunctionSummaries Summaries;
+	TaskMonitor Monitor;
+	
+	// Set when this interpreter is computing a summary: everything that the 
+	// function may write, and the join of its states at RETURN (null until 
+	// one is reached).
+	FunctionSummaries.Writes Writes;
+	TVLAbstractGhidraState Returned;
+	
+	public TVLFunctionInterpreter(TVLAbstractGhidraState initial)
+	{
+		super(initial);
+		Exits = new ArrayList<>();
+		Decided = new ArrayList<>();
+	}
+	
+	void StartInstruction()
+	{
+		Exits.clear();
+		Decided.clear();
+		Stopped = false;
+	}
+	
+	void Exit(Address target)
+	{
+		Exits.add(new Pair<>(target, AbstractState.clone()));
+	}
+	
+	// Every register and memory becomes unknown.
+	void Clobber()
+	{
+		if(Writes != null)
+			Writes.Everything = true;
+		AbstractState.Registers.MakeTop();
+		for(int i = 0; i < AbstractState.Memories.length; i++)
+			AbstractState.MakeMemoryTop(i);
+	}
+	
+	// Does the instruction branch within its own pcode (e.g. x86 REP prefixes)?
+	static boolean HasInternalBranch(PcodeOp[] pcode)
+	{
+		for(PcodeOp op : pcode)
+			if((op.getOpcode() == PcodeOp.BRANCH || op.getOpcode() == PcodeOp.CBRANCH) && op.getInput(0).isConstant())
+				return true;
+		return false;
+	}
+	
+	// Rather than following an instruction's internal control flow, set 
+	// everything that any path through it might write to top. A STORE forgets
+	// the whole space, since its address could take any value along the way.
+	void Havoc(PcodeOp[] pcode)
+	{
+		for(PcodeOp op : pcode)
+		{
+			switch(op.getOpcode())
+			{
+				case PcodeOp.CALL: case PcodeOp.CALLIND:
+					Clobber();
+					break;
+				case PcodeOp.STORE:
+					if(Writes != null)
+						Writes.AddWhole(AbstractState.SpaceIndex(op.getInput(0)) + 1);
+					AbstractState.MakeMemoryTop(op.getInput(0));
+					break;
+				default:
+					if(op.getOutput() != null)
+					{
+						NoteOutput(op.getOutput());
+						SetOutputToTop(op.getOutput());
+					}
+			}
+		}
+	}
+	
+	@Override
+	public void visit(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		if(Writes != null)
+		{
+			if(pcode.getOutput() != null)
+				NoteOutput(pcode.getOutput());
+			if(pcode.getOpcode() == PcodeOp.STORE)
+				NoteStore(instr, pcode);
+		}
+		super.visit(instr, pcode);
+	}
+	
+	void NoteOutput(Varnode out)
+	{
+		if(Writes != null && out.isRegister())
+			Writes.Add(0, out.getOffset(), out.getOffset() + out.getSize() - 1);
+	}
+	
+	// The range that a STORE could write, as visit_STORE() works it out. If 
+	// it could wrap around the top of the space, I don't bother: the whole 
+	// space counts as written.
+	void NoteStore(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		int region = AbstractState.SpaceIndex(pcode.getInput(0)) + 1;
+		TVLBitVector addr = visit_Varnode(instr, pcode, pcode.getInput(1));
+		Pair<Long,Long> bounds = addr.GetUnsignedBounds();
+		long mask = addr.Size() >= 64 ? -1L : (1L << addr.Size()) - 1;
+		long last = bounds == null ? 0 : bounds.y + (pcode.getInput(2).getSize() - 1);
+		if(bounds == null || Long.compareUnsigned(last, bounds.y) < 0 || Long.compareUnsigned(last, mask) > 0)
+			Writes.AddWhole(region);
+		else
+			Writes.Add(region, bounds.x, last);
+	}
+	
+	@Override
+	void visit_BRANCH(Instruction instr, PcodeOp pcode)
+	{
+		Exit(pcode.getInput(0).getAddress());
+		Stopped = true;
+	}
+	
+	@Override
+	void visit_CBRANCH(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		byte b = visit_Varnode(instr, pcode, pcode.getInput(1)).Get(0);
+		if(b != TVLBitVector.TVL_HALF)
+			Decided.add(new OpaqueBranch(instr, PcodeOp.CBRANCH, b == TVLBitVector.TVL_1, pcode.getInput(0).getAddress()));
+		if(b != TVLBitVector.TVL_0)
+			Exit(pcode.getInput(0).getAddress());
+		if(b == TVLBitVector.TVL_1)
+			Stopped = true;
+	}
+	
+	@Override
+	void visit_BRANCHIND(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		Pair<Integer,Long> k = visit_Varnode(instr, pcode, pcode.getInput(0)).GetConstantValue();
+		Address target = null;
+		if(k != null)
+		{
+			target = instr.getAddress().getAddressSpace().getAddress(k.y);
+			Decided.add(new OpaqueBranch(instr, PcodeOp.BRANCHIND, true, target));
+		}
+		Exit(target);
+		Stopped = true;
+	}
+	
+	@Override
+	void visit_RETURN(Instruction instr, PcodeOp pcode)
+	{
+		if(Writes != null)
+			Returned = Returned == null ? AbstractState.clone() : Returned.Join(AbstractState);
+		Stopped = true;
+	}
+	
+	@Override
+	void visit_CALL(Instruction instr, PcodeOp pcode)
+	{
+		Call(pcode.getInput(0).getAddress());
+	}
+	
+	@Override
+	void visit_CALLIND(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	{
+		Address target = null;
+		if(Summaries != null)
+		{
+			Pair<Integer,Long> k = visit_Varnode(instr, pcode, pcode.getInput(0)).GetConstantValue();
+			if(k != null)
+				target = instr.getAddress().getAddressSpace().getAddress(k.y);
+		}
+		Call(target);
+	}
+	
+	// Apply the callee's summary, if there's a target and somewhere to get 
+	// one, or else forget everything. A callee that never returns ends the 
+	// path here.
+	void Call(Address target)
+	{
+		if(Summaries == null || target == null)
+		{
+			Clobber();
+			return;
+		}
+		if(!Summaries.Apply(Summaries.Summarize(target, AbstractState, Monitor), this))
+			Stopped = true;
+	}
+	
+	@Override
+	void visit_CALLOTHER(Instruction instr, PcodeOp pcode)
+	{
+		if(pcode.getOutput() != null)
+			SetOutputToTop(pcode.getOutput());
+	}
+}
+
+// Abstract interpretation of one function (or one region of code), over its
+// control flow graph, to a fixpoint: each basic block's entry state is the 
+// join of the states that flow into it, and a block is interpreted again 
+// whenever its entry state changes. Branches that come out decided are only
+// followed the one way, so code behind an opaque predicate isn't analyzed 
+// under states that can't reach it.
+// 
+// The blocks are built from the instructions given, split at the targets of 
+// their flows and after anything that jumps or doesn't fall through to the 
+// next one. Given an entry point, only it starts out reachable; without one,
+// every block is taken to be reachable from outside with the initial state.
+// That only holds if the blocks start wherever control can come in from 
+// outside, so a region also splits its blocks at the addresses that Entries
+// accepts (those with references to them); otherwise the rest of a block 
+// entered in the middle would only be analyzed as reached from its start.
+// 
+// If the analysis can't account for every way into a block (a branch into 
+// the middle of one, or an indirect branch that Ghidra has no targets for),
+// or some block hasn't settled after MaxVisitsPerBlock visits, there are no
+// results, since the decided branches might not be.
+class TVLFunctionAnalyzer {
+	static final int MaxVisitsPerBlock = 64;
+	
+	static final class Block {
+		final Address Start;
+		final Instruction[] Instructions;
+		final PcodeOp[][] Pcode;
+		final boolean[] Internal;
+		TVLAbstractGhidraState In;
+		int Visits;
+		
+		Block(Address start, ArrayList<Instruction> instrs)
+		{
+			Start = start;
+			Instructions = instrs.toArray(new Instruction[0]);
+			Pcode = new PcodeOp[Instructions.length][];
+			Internal = new boolean[Instructions.length];
+			for(int i = 0; i < Instructions.length; i++)
+			{
+				Pcode[i] = Instructions[i].getPcode();
+				Internal[i] = TVLFunctionInterpreter.HasInternalBranch(Pcode[i]);
+			}
+		}
+	}
+	
+	final String Name;
+	final Address Entry;
+	final java.util.function.Predicate<Address> Entries;
+	final TVLFunctionInterpreter Interp;
+	final TVLAbstractGhidraState Initial;
+	final HashMap<Address,Block> Blocks;
+	final HashSet<Address> Inside;
+	
+	// Worklist of blocks, in address order.
+	final TreeMap<Address,Block> Pending;
+	
+	// The decided branches, by instruction, as of its latest visit.
+	final TreeMap<Address,OpaqueBranch[]> Found;
+	
+	int Iterations, BlockVisits;
+	String Incomplete;
+	
+	// Set if control can leave the function other than by RETURN, e.g. by a 
+	// tail call. That doesn't matter for the decided branches, but it does 
+	// for a summary.
+	boolean Escapes;
+	
+	public TVLFunctionAnalyzer(String name, Address entry, InstructionIterator instructions, TVLAbstractGhidraState initial, boolean lazy)
+	{
+		this(name, entry, null, instructions, initial, lazy);
+	}
+	
+	// Without an entry point, entries tells which addresses control might reach
+	// from outside the region.
+	public TVLFunctionAnalyzer(String name, Address entry, java.util.function.Predicate<Address> entries, InstructionIterator instructions, TVLAbstractGhidraState initial, boolean lazy)
+	{
+		Name = name;
+		Entry = entry;
+		Entries = entry == null ? entries : null;
+		Initial = initial;
+		Interp = new TVLFunctionInterpreter(initial);
+		Interp.Lazy = lazy;
+		Blocks = new HashMap<>();
+		Inside = new HashSet<>();
+		Pending = new TreeMap<>();
+		Found = new TreeMap<>();
+		Build(instructions);
+		if(entry != null)
+		{
+			Block b = Blocks.get(entry);
+			if(b != null)
+				Flow(b, initial.clone());
+		}
+		else
+			for(Block b : Blocks.values())
+				Flow(b, initial.clone());
+	}
+	
+	void Build(InstructionIterator instructions)
+	{
+		ArrayList<Instruction> all = new ArrayList<>();
+		HashSet<Address> leaders = new HashSet<>();
+		boolean split = true;
+		while(instructions.hasNext())
+		{
+			Instruction instr = instructions.next();
+			Address a = instr.getAddress();
+			if(split || !all.isEmpty() && !a.equals(all.get(all.size()-1).getFallThrough()) || Entries != null && Entries.test(a))
+				leaders.add(a);
+			all.add(instr);
+			Inside.add(a);
+			Address[] flows = instr.getFlows();
+			if(flows != null)
+				for(Address t : flows)
+					leaders.add(t);
+			ghidra.program.model.symbol.FlowType ft = instr.getFlowType();
+			split = ft != null && (ft.isJump() || ft.isTerminal() || !ft.hasFallthrough() && !ft.isCall());
+		}
+		ArrayList<Instruction> cur = new ArrayList<>();
+		for(Instruction instr : all)
+		{
+			if(leaders.contains(instr.getAddress()) && !cur.isEmpty())
+			{
+				Blocks.put(cur.get(0).getAddress(), new Block(cur.get(0).getAddress(), cur));
+				cur.clear();
+			}
+			cur.add(instr);
+		}
+		if(!cur.isEmpty())
+			Blocks.put(cur.get(0).getAddress(), new Block(cur.get(0).getAddress(), cur));
+	}
+	
+	// Join a state into a block's entry state, queueing the block if that 
+	// changed anything.
+	void Flow(Block b, TVLAbstractGhidraState s)
+	{
+		if(b.In == null)
+			b.In = s;
+		else
+		{
+			TVLAbstractGhidraState j = b.In.Join(s);
+			if(j.SameAs(b.In))
+				return;
+			b.In = j;
+		}
+		Pending.put(b.Start, b);
+	}
+	
+	// Control goes to the target from instr. Anything outside the function 
+	// (a tail call, say) is none of this analysis's business.
+	void FlowTo(Instruction instr, Address target, TVLAbstractGhidraState s)
+	{
+		if(target == null)
+		{
+			Address[] flows = instr.getFlows();
+			if(flows == null || flows.length == 0)
+			{
+				Incomplete = "indirect branch at "+instr.getAddress()+" with no known targets";
+				return;
+			}
+			for(Address t : flows)
+				FlowTo(instr, t, s.clone());
+			return;
+		}
+		Block b = Blocks.get(target);
+		if(b != null)
+			Flow(b, s);
+		else if(Inside.contains(target))
+			Incomplete = "branch into the middle of a block at "+target+" from "+instr.getAddress();
+		else
+			Escapes = true;
+	}
+	
+	void Visit(Block b) throws VisitorUnimplementedException
+	{
+		if(++b.Visits > MaxVisitsPerBlock)
+		{
+			Incomplete = "block at "+b.Start+" didn't settle after "+MaxVisitsPerBlock+" visits";
+			return;
+		}
+		BlockVisits++;
+		Interp.AbstractState = b.In.clone();
+		for(int k = 0; k < b.Instructions.length; k++)
+		{
+			Instruction instr = b.Instructions[k];
+			PcodeOp[] pcode = b.Pcode[k];
+			Interp.StartInstruction();
+			if(b.Internal[k])
+			{
+				Interp.Havoc(pcode);
+				Address[] flows = instr.getFlows();
+				if(flows != null)
+					for(Address t : flows)
+						Interp.Exit(t);
+			}
+			else
+			{
+				for(int i = 0; i < pcode.length && !Interp.Stopped; i++)
+				{
+					try {
+						Interp.visit(instr, pcode[i]);
+					}
+					// Anything the interpreter can't do (floating point, for 
+					// instance) just produces top.
+					catch(VisitorUnimplementedException e) {
+						if(pcode[i].getOutput() != null)
+							Interp.SetOutputToTop(pcode[i].getOutput());
+					}
+				}
+			}
+			if(Interp.Decided.isEmpty())
+				Found.remove(instr.getAddress());
+			else
+				Found.put(instr.getAddress(), Interp.Decided.toArray(new OpaqueBranch[0]));
+			Interp.AbstractState.ClearUniques();
+			for(Pair<Address,TVLAbstractGhidraState> x : Interp.Exits)
+				FlowTo(instr, x.x, x.y);
+			if(Interp.Stopped)
+				return;
+		}
+		Instruction last = b.Instructions[b.Instructions.length-1];
+		Address next = last.getFallThrough();
+		if(next != null)
+			FlowTo(last, next, Interp.AbstractState);
+	}
+	
+	// Run to a fixpoint. Returns the decided branches in address order, or 
+	// null if the analysis was incomplete (see Incomplete for why).
+	public ArrayList<OpaqueBranch> Run(TaskMonitor monitor) throws CancelledException
+	{
+		Interp.Monitor = monitor;
+		Address cursor = null;
+		FixpointIterationEvent e = null;
+		int visited = 0, changed = Pending.size();
+		while(!Pending.isEmpty() && Incomplete == null)
+		{
+			if(monitor != null)
+				monitor.checkCanceled();
+			
+			// A pass ends when the worklist wraps around to lower addresses. A 
+			// block that loops to itself is revisited within the same pass, so
+			// that it settles before anything after it is looked at again.
+			Map.Entry<Address,Block> next = cursor == null ? null : Pending.ceilingEntry(cursor);
+			if(next == null)
+			{
+				CommitIteration(e, visited, changed);
+				Iterations++;
+				e = new FixpointIterationEvent();
+				e.begin();
+				visited = 0;
+				changed = 0;
+				next = Pending.firstEntry();
+			}
+			Pending.remove(next.getKey());
+			cursor = next.getKey();
+			int before = Pending.size();
+			try {
+				Visit(next.getValue());
+			}
+			catch(VisitorUnimplementedException ex) {
+				Incomplete = ex.toString();
+			}
+			visited++;
+			changed += Pending.size() - before;
+		}
+		CommitIteration(e, visited, changed);
+		if(Incomplete != null)
+			return null;
+		ArrayList<OpaqueBranch> r = new ArrayList<>();
+		for(OpaqueBranch[] bs : Found.values())
+			r.addAll(Arrays.asList(bs));
+		return r;
+	}
+	
+	// The code that the decided branches cut off: blocks that the control flow 
+	// graph can reach from the entry point, but that the analysis never did. 
+	// Blocks that the graph can't reach either (exception handlers, say) are 
+	// none of its business. One (first, last) address range per block, in 
+	// address order; empty without an entry point or a complete analysis.
+	public ArrayList<Pair<Address,Address>> DeadCode()
+	{
+		ArrayList<Pair<Address,Address>> r = new ArrayList<>();
+		Block start = Entry == null || Incomplete != null ? null : Blocks.get(Entry);
+		if(start == null)
+			return r;
+		HashSet<Block> seen = new HashSet<>();
+		ArrayDeque<Block> work = new ArrayDeque<>();
+		seen.add(start);
+		work.add(start);
+		while(!work.isEmpty())
+		{
+			Block b = work.poll();
+			Instruction last = b.Instructions[b.Instructions.length-1];
+			if(b.In == null)
+				r.add(new Pair<>(b.Start, last.getMaxAddress()));
+			ArrayList<Address> succs = new ArrayList<>();
+			for(Instruction instr : b.Instructions)
+				if(instr.getFlows() != null)
+					succs.addAll(Arrays.asList(instr.getFlows()));
+			if(last.getFallThrough() != null)
+				succs.add(last.getFallThrough());
+			for(Address a : succs)
+			{
+				Block s = Blocks.get(a);
+				if(s != null && seen.add(s))
+					work.add(s);
+			}
+		}
+		r.sort((x, y) -> x.x.compareTo(y.x));
+		return r;
+	}
+	
+	// The code that the analysis did reach, one (first, last) address range
+	// per block, in address order. Functions share code, so some other
+	// function's dead code may well be in here.
+	public ArrayList<Pair<Address,Address>> ReachedCode()
+	{
+		ArrayList<Pair<Address,Address>> r = new ArrayList<>();
+		for(Block b : Blocks.values())
+			if(b.In != null)
+				r.add(new Pair<>(b.Start, b.Instructions[b.Instructions.length-1].getMaxAddress()));
+		r.sort((x, y) -> x.x.compareTo(y.x));
+		return r;
+	}
+	
+	// The conditional and indirect branches in the reached code that weren't
+	// decided, in address order. A branch with internal control flow is never
+	// decided, but it can't be patched either, so it isn't listed.
+	public ArrayList<Address> UndecidedBranches()
+	{
+		ArrayList<Address> r = new ArrayList<>();
+		for(Block b : Blocks.values())
+		{
+			if(b.In == null)
+				continue;
+			for(int k = 0; k < b.Instructions.length; k++)
+			{
+				if(b.Internal[k] || Found.containsKey(b.Instructions[k].getAddress()))
+					continue;
+				for(PcodeOp op : b.Pcode[k])
+					if(op.getOpcode() == PcodeOp.CBRANCH || op.getOpcode() == PcodeOp.BRANCHIND)
+					{
+						r.add(b.Instructions[k].getAddress());
+						break;
+					}
+			}
+		}
+		r.sort(null);
+		return r;
+	}
+	
+	void CommitIteration(FixpointIterationEvent e, int visited, int changed)
+	{
+		if(e == null)
+			return;
+		e.end();
+		if(e.shouldCommit())
+		{
+			e.Function = Name;
+			e.Iteration = Iterations;
+			e.BlocksVisited = visited;
+			e.Changed = changed;
+			e.commit();
+		}
+	}
+}
+
+// Interprocedural analysis by summaries. Rather than a call forgetting 
+// everything, the callee is analyzed on its own, from the part of the 
+// caller's state that it can see (its input projection), and what it leaves
+// behind is applied to the caller. Summaries are cached by callee and 
+// projection, so a function that's called the same way from many places (or
+// from many scan threads) is only analyzed once.
+// 
+// The projection is:
+// * the registers that the callee's own pcode reads,
+// * StackWindow bytes of the stack, from ArgsOffset above the stack pointer,
+//   i.e. the arguments (on x86, ArgsOffset skips the return address, which
+//   would otherwise make every call site a different projection), and
+// * for spaces with a program image, which parts of it the caller still 
+//   trusts. The callee can't see what the caller wrote, so it can't trust the
+//   image there either.
+// Everything else starts out unknown. A summary is what the callee may write
+// (ranges per register file or space, all of one, or everything) and the 
+// join of its states at RETURN. Applying it replaces the written ranges in 
+// the caller with the callee's values, and leaves the rest alone. A callee 
+// that never returns ends the caller's path.
+// 
+// Recursion: a call to a (callee, projection) that's already being analyzed
+// further up this thread's stack gets that analysis's current approximation,
+// which starts at "never returns", and the analysis is repeated with the 
+// joined result until it stops changing. A callee that's already on the 
+// stack under another projection is summarized under the empty projection 
+// instead, so that recursion with a changing argument still ends. Summaries 
+// that depended on an approximation aren't cached, since they're only as 
+// good as it was. Anything that can't be summarized (too deep, an incomplete
+// analysis, a branch out of the function, no body) gets Clobber: everything 
+// becomes unknown, as without summaries.
+// 
+// With a Store, summaries also outlive the program: see FunctionStore. Each 
+// frame then collects what its result depends on besides the callee's own 
+// code, i.e. the code of what it calls and the image bytes it reads.
+class FunctionSummaries {
+	static final int MaxDepth = 16;
+	static final int MaxRounds = 8;
+	
+	// Region 0 is the registers, and region s+1 the memory for space index s,
+	// as for StateHistory.
+	static final class Writes {
+		boolean Everything;
+		final HashSet<Integer> Whole = new HashSet<>();
+		final TreeMap<Integer,TreeMap<Long,Long>> Ranges = new TreeMap<>();
+		
+		void Add(int region, long lo, long hi)
+		{
+			if(Everything || Whole.contains(region))
+				return;
+			AbstractMemory.MergeRange(Ranges.computeIfAbsent(region, r -> new TreeMap<>(AbstractMemory.UnsignedOrder)), lo, hi);
+		}
+		
+		void AddWhole(int region)
+		{
+			Whole.add(region);
+			Ranges.remove(region);
+		}
+		
+		void Add(Writes other)
+		{
+			Everything |= other.Everything;
+			for(int region : other.Whole)
+				AddWhole(region);
+			for(Map.Entry<Integer,TreeMap<Long,Long>> e : other.Ranges.entrySet())
+				for(Map.Entry<Long,Long> r : e.getValue().entrySet())
+					Add(e.getKey(), r.getKey(), r.getValue());
+		}
+		
+		boolean Same(Writes other)
+		{
+			return Everything == other.Everything && Whole.equals(other.Whole) && Ranges.equals(other.Ranges);
+		}
+	}
+	
+	static final class Summary {
+		final Writes Writes;
+		// Frozen; null if the callee never returns.
+		final TVLAbstractGhidraState Exit;
+		// What it depends on, if there's a store.
+		final FunctionStore.Deps Deps;
+		
+		Summary(Writes writes, TVLAbstractGhidraState exit, FunctionStore.Deps deps)
+		{
+			Writes = writes;
+			Exit = exit;
+			Deps = deps;
+		}
+		
+		Summary Join(Summary other)
+		{
+			if(Writes.Everything || other.Writes.Everything)
+				return Clobber;
+			Writes w = new Writes();
+			w.Add(Writes);
+			w.Add(other.Writes);
+			TVLAbstractGhidraState exit = Exit == null ? other.Exit : other.Exit == null ? Exit : Exit.Join(other.Exit).Freeze();
+			FunctionStore.Deps deps = null;
+			if(Deps != null || other.Deps != null)
+			{
+				deps = new FunctionStore.Deps();
+				deps.Add(Deps);
+				deps.Add(other.Deps);
+			}
+			return new Summary(w, exit, deps);
+		}
+		
+		boolean Same(Summary other)
+		{
+			if(!Writes.Same(other.Writes))
+				return false;
+			return Exit == null ? other.Exit == null : other.Exit != null && Exit.SameAs(other.Exit);
+		}
+	}
+	
+	static final Summary Clobber;
+	static final Summary NeverReturns = new Summary(new Writes(), null, null);
+	static {
+		Writes w = new Writes();
+		w.Everything = true;
+		Clobber = new Summary(w, null, null);
+	}
+	
+	// The callee and its projection, encoded with TVLStateCodec.
+	static final class Key {
+		final Address Callee;
+		final byte[] Input;
+		final int Hash;
+		
+		Key(Address callee, byte[] input)
+		{
+			Callee = callee;
+			Input = input;
+			Hash = callee.hashCode() * 31 + Arrays.hashCode(input);
+		}
+		
+		@Override
+		public int hashCode() { return Hash; }
+		
+		@Override
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof Key))
+				return false;
+			Key k = (Key)o;
+			return Hash == k.Hash && Callee.equals(k.Callee) && Arrays.equals(Input, k.Input);
+		}
+	}
+	
+	// A summary being computed on this thread. Approx is what recursive calls
+	// to it get, and Used says whether any did in the current round. Lowest is
+	// the lowest depth whose approximation it depended on. Deps collects what
+	// the result depends on, if there's a store.
+	static final class Frame {
+		final Key K;
+		final int Depth;
+		Summary Approx = NeverReturns;
+		boolean Used;
+		int Lowest;
+		FunctionStore.Deps Deps;
+		
+		Frame(Key k, int depth)
+		{
+			K = k;
+			Depth = depth;
+			Lowest = depth;
+		}
+	}
+	
+	final TVLAbstractGhidraState Initial;
+	final Varnode StackPointer;
+	final int StackSpace;
+	final int ArgsOffset;
+	final int StackWindow;
+	final boolean Lazy;
+	
+	// The function that a call to an address ends up in (through any thunks),
+	// or null if there isn't one to analyze (an external function, say).
+	final java.util.function.Function<Address, OpaquePredicateScan.Unit> Bodies;
+	
+	final ConcurrentHashMap<Key,Summary> Cache = new ConcurrentHashMap<>();
+	final ConcurrentHashMap<Address,TreeMap<Long,Long>> RegistersRead = new ConcurrentHashMap<>();
+	final ThreadLocal<ArrayList<Frame>> Stack = ThreadLocal.withInitial(ArrayList::new);
+	
+	final LongAdder Hits = new LongAdder();
+	final LongAdder Computed = new LongAdder();
+	final LongAdder Recursive = new LongAdder();
+	final LongAdder Clobbered = new LongAdder();
+	
+	// If set, summaries are also looked for, and kept, here.
+	FunctionStore Store;
+	
+	// The initial state only provides the space indices and images; it has 
+	// to be the one that the callers' analyses started from.
+	public FunctionSummaries(TVLAbstractGhidraState initial, Varnode stackPointer, int stackSpace, int argsOffset, int stackWindow, boolean lazy, 
+		java.util.function.Function<Address, OpaquePredicateScan.Unit> bodies)
+	{
+		Initial = initial.Freeze();
+		StackPointer = stackPointer;
+		StackSpace = stackSpace;
+		ArgsOffset = argsOffset;
+		StackWindow = stackWindow;
+		Lazy = lazy;
+		Bodies = bodies;
+	}
+	
+	// The register bytes that any of the function's pcode reads.
+	TreeMap<Long,Long> RegistersRead(Address callee, java.util.function.Supplier<InstructionIterator> body)
+	{
+		return RegistersRead.computeIfAbsent(callee, a -> {
+			TreeMap<Long,Long> r = new TreeMap<>(AbstractMemory.UnsignedOrder);
+			InstructionIterator it = body.get();
+			while(it.hasNext())
+				for(PcodeOp op : it.next().getPcode())
+					for(Varnode v : op.getInputs())
+						if(v.isRegister())
+							AbstractMemory.MergeRange(r, v.getOffset(), v.getOffset() + v.getSize() - 1);
+			return r;
+		});
+	}
+	
+	static void CopyCells(AbstractMemory from, AbstractMemory to, long lo, long hi)
+	{
+		for(Map.Entry<Long,AbstractMemory.Cell> c : from.Contents.subMap(lo, true, hi, true).entrySet())
+			to.Contents.put(c.getKey(), c.getValue());
+	}
+	
+	// The callee's entry state, projected from the caller's state, or the 
+	// empty projection if caller is null. With deps, reads of the images are
+	// noted there.
+	TVLAbstractGhidraState Project(TVLAbstractGhidraState caller, TreeMap<Long,Long> reads, FunctionStore.Deps deps)
+	{
+		TVLAbstractGhidraState p = Initial.clone();
+		p.Registers = new AbstractMemory(p.bigEndian);
+		p.Memories = new AbstractMemory[Math.max(p.Memories.length, caller != null ? caller.Memories.length : 0)];
+		Arrays.fill(p.Memories, TVLAbstractGhidraState.Unmapped);
+		if(deps != null)
+			p.Images = deps.Views(p);
+		if(caller == null)
+		{
+			for(int i = 0; i < p.Images.length; i++)
+				if(p.Images[i] != null)
+					p.Memories[i] = new AbstractMemory(p.bigEndian);
+			return p;
+		}
+		for(Map.Entry<Long,Long> r : reads.entrySet())
+			CopyCells(caller.Registers, p.Registers, r.getKey(), r.getValue());
+		Pair<Integer,Long> sp = StackPointer == null ? null : caller.Lookup(StackPointer).GetConstantValue();
+		for(int i = 0; i < p.Memories.length; i++)
+		{
+			AbstractMemory from = caller.PeekMemory(i);
+			if(from == TVLAbstractGhidraState.Unmapped)
+				continue;
+			AbstractMemory to = new AbstractMemory(p.bigEndian);
+			to.Budget = caller.Budget;
+			if(from.Backing != null)
+			{
+				to.Backing = deps != null ? deps.View(from.Backing, p.Spaces.Ids[i]) : from.Backing;
+				to.Forgotten.putAll(from.Forgotten);
+				for(long a : from.Contents.keySet())
+					AbstractMemory.MergeRange(to.Forgotten, a, a);
+			}
+			if(i == StackSpace && sp != null)
+				CopyCells(from, to, sp.y + ArgsOffset, sp.y + ArgsOffset + StackWindow - 1);
+			p.Memories[i] = to;
+		}
+		return p;
+	}
+	
+	// The spaces go by id rather than index, so that the key means the same 
+	// thing in another analysis (see FunctionStore).
+	static Key KeyOf(Address callee, TVLAbstractGhidraState p)
+	{
+		StateHistory.ByteEncoder e = new StateHistory.ByteEncoder();
+		TVLStateCodec.EncodeMemory(e, p.Registers);
+		for(int i = 0; i < p.Memories.length; i++)
+		{
+			if(p.Memories[i] == TVLAbstractGhidraState.Unmapped)
+				continue;
+			e.VarLong(p.Spaces.Ids[i] + 1);
+			TVLStateCodec.EncodeMemory(e, p.Memories[i]);
+		}
+		e.VarLong(0);
+		return new Key(callee, Arrays.copyOf(e.Buf, e.Len));
+	}
+	
+	// The summary for a call to callee from the given state.
+	public Summary Summarize(Address target, TVLAbstractGhidraState caller, TaskMonitor monitor)
+	{
+		OpaquePredicateScan.Unit u = Bodies.apply(target);
+		if(u == null)
+		{
+			Clobbered.increment();
+			return Clobber;
+		}
+		Address callee = u.Entry;
+		java.util.function.Supplier<InstructionIterator> body = u.Instructions;
+		ArrayList<Frame> stack = Stack.get();
+		boolean again = false;
+		for(Frame f : stack)
+			again |= f.K.Callee.equals(callee);
+		FunctionStore.Deps deps = Store != null ? new FunctionStore.Deps() : null;
+		TVLAbstractGhidraState entry = Project(again ? null : caller, RegistersRead(callee, body), deps);
+		Key k = KeyOf(callee, entry);
+		
+		Summary s = Cache.get(k);
+		if(s != null)
+		{
+			Hits.increment();
+			return Depend(stack, target, u, s);
+		}
+		for(int i = stack.size() - 1; i >= 0; i--)
+		{
+			Frame f = stack.get(i);
+			if(f.K.equals(k))
+			{
+				f.Used = true;
+				for(int j = i + 1; j < stack.size(); j++)
+					stack.get(j).Lowest = Math.min(stack.get(j).Lowest, i);
+				Recursive.increment();
+				return Depend(stack, target, u, f.Approx);
+			}
+		}
+		if(Store != null && (s = Store.FindSummary(this, u, k)) != null)
+		{
+			Summary prev = Cache.putIfAbsent(k, s);
+			return Depend(stack, target, u, prev != null ? prev : s);
+		}
+		if(stack.size() >= MaxDepth)
+		{
+			Clobbered.increment();
+			return Clobber;
+		}
+		
+		Frame f = new Frame(k, stack.size());
+		f.Deps = deps;
+		stack.add(f);
+		boolean cancelled = false;
+		try {
+			for(int round = 1; ; round++)
+			{
+				f.Used = false;
+				s = Analyze(callee, body, entry, monitor);
+				if(!f.Used)
+					break;
+				Summary j = f.Approx.Join(s);
+				if(j.Same(f.Approx))
+				{
+					s = j;
+					break;
+				}
+				if(round == MaxRounds)
+				{
+					s = Clobber;
+					break;
+				}
+				f.Approx = j;
+			}
+		}
+		catch(CancelledException e) {
+			s = Clobber;
+			cancelled = true;
+		}
+		finally {
+			stack.remove(stack.size() - 1);
+		}
+		Computed.increment();
+		if(s == Clobber)
+			Clobbered.increment();
+		else if(deps != null)
+			s = new Summary(s.Writes, s.Exit, deps);
+		if(cancelled || f.Lowest < f.Depth)
+			return Depend(stack, target, u, s);
+		Summary prev = Cache.putIfAbsent(k, s);
+		if(prev != null)
+			s = prev;
+		else if(Store != null)
+			Store.PutSummary(this, u, k, s);
+		return Depend(stack, target, u, s);
+	}
+	
+	// Note in the calling frame, if it's collecting them, that its result 
+	// depends on the summary of the function at target. Clobber depends on 
+	// nothing, since it's always sound.
+	Summary Depend(ArrayList<Frame> stack, Address target, OpaquePredicateScan.Unit u, Summary s)
+	{
+		if(stack.isEmpty() || s == Clobber)
+			return s;
+		FunctionStore.Deps d = stack.get(stack.size() - 1).Deps;
+		if(d != null)
+		{
+			d.Code(target, Store.Hash(u));
+			d.Add(s.Deps);
+		}
+		return s;
+	}
+	
+	// For analyses that aren't themselves summaries (OpaquePredicateScan's): 
+	// collect what the calls made until Pop() depend on into deps.
+	void Push(Address entry, FunctionStore.Deps deps)
+	{
+		ArrayList<Frame> stack = Stack.get();
+		// An empty input can't be any projection's key.
+		Frame f = new Frame(new Key(entry, new byte[0]), stack.size());
+		f.Deps = deps;
+		stack.add(f);
+	}
+	
+	void Pop()
+	{
+		ArrayList<Frame> stack = Stack.get();
+		stack.remove(stack.size() - 1);
+	}
+	
+	Summary Analyze(Address callee, java.util.function.Supplier<InstructionIterator> body, TVLAbstractGhidraState entry, TaskMonitor monitor) throws CancelledException
+	{
+		TVLFunctionAnalyzer fa = new TVLFunctionAnalyzer(callee.toString(), callee, body.get(), entry, Lazy);
+		if(!fa.Blocks.containsKey(callee))
+			return Clobber;
+		fa.Interp.Summaries = this;
+		fa.Interp.Writes = new Writes();
+		if(fa.Run(monitor) == null || fa.Escapes || fa.Interp.Writes.Everything)
+			return Clobber;
+		TVLAbstractGhidraState exit = fa.Interp.Returned;
+		return new Summary(fa.Interp.Writes, exit == null ? null : exit.Freeze(), null);
+	}
+	
+	// Apply a summary to the caller's state. Returns false if the callee 
+	// never returns.
+	boolean Apply(Summary s, TVLFunctionInterpreter caller)
+	{
+		if(s.Writes.Everything)
+		{
+			caller.Clobber();
+			return true;
+		}
+		if(s.Exit == null)
+			return false;
+		if(caller.Writes != null)
+			caller.Writes.Add(s.Writes);
+		TVLAbstractGhidraState st = caller.AbstractState;
+		for(int region : s.Writes.Whole)
+		{
+			if(region == 0)
+				st.Registers = s.Exit.Registers.clone();
+			else
+			{
+				// The image is the same either way, but the caller's might be 
+				// noting its reads.
+				AbstractMemory m = s.Exit.PeekMemory(region - 1).clone();
+				AbstractMemory old = st.GetWritableMemory(region - 1);
+				if(m.Backing != null)
+					m.Backing = old.Backing;
+				st.Memories[region - 1] = m;
+			}
+		}
+		// Within the written ranges, the callee's values replace the caller's.
+		// Addresses that the callee has no cell for come out unknown, even if 
+		// its image would show through.
+		for(Map.Entry<Integer,TreeMap<Long,Long>> e : s.Writes.Ranges.entrySet())
+		{
+			int region = e.getKey();
+			AbstractMemory from = region == 0 ? s.Exit.Registers : s.Exit.PeekMemory(region - 1);
+			AbstractMemory to = region == 0 ? st.Registers : st.GetWritableMemory(region - 1);
+			for(Map.Entry<Long,Long> r : e.getValue().entrySet())
+			{
+				to.InvalidateRange(r.getKey(), r.getValue());
+				for(Map.Entry<Long,AbstractMemory.Cell> c : from.Contents.subMap(r.getKey(), true, r.getValue(), true).entrySet())
+					to.Store(c.getKey(), c.getValue().Get());
+			}
+		}
+		return true;
+	}
+}
+
+// Analysis results kept on disk, so that a function that has been seen 
+// before, in this program or any other, doesn't have to be analyzed again. 
+// Samples from the same family share their runtime stubs and handlers byte 
+// for byte, so most of a new one has often been seen already.
+// 
+// Results are addressed by the SHA-256 of the function (the language id, and
+// the address, length and bytes of each instruction) and of the input they 
+// were computed from: the projection, for a function summary, or the scan's
+// initial state, for a function's decided branches and dead code. The 
+// address is part of it because pcode branch and call targets are absolute:
+// the same bytes elsewhere are a different function. A result also depends 
+// on what the function called and on the image bytes it read, which can 
+// differ between programs even when the function doesn't, so these are kept
+// with it (Deps) and checked before it's used. A result that fails the check 
+// is recomputed, and the new one replaces it.
+// 
+// The store is a directory of segment files, which are only ever appended 
+// to, and an index in memory from the key to the record, built by reading 
+// the segments at startup and kept up to date as they grow. Records are read
+// straight out of read-only mappings of the segments. Each is framed as:
+// magic, payload length, kind, key, payload, CRC-32 of kind, key and payload.
+// A record that isn't whole (its writer died) ends its segment, and the next
+// writer starts a new one.
+// 
+// Several processes can share the store. They coordinate through a lock file:
+// writers hold an exclusive lock on it while they append, and readers take a
+// shared lock to catch up with the other processes' appends. Within a 
+// process, the lock is taken under the store's monitor, since the JVM won't 
+// lock the same file twice. When the segments grow past MaxBytes, the writer
+// that noticed compacts them: the newest records, up to half of MaxBytes, go 
+// to new segments, and the old ones are deleted. The lock file holds a 
+// generation number that compaction increments, which tells the other 
+// processes to drop their index and read the segments again, and the number
+// of the first segment that's still live. Their mappings of the old segments
+// stay valid until they let go of them. Compaction only publishes the new 
+// generation once the new segments are written out, and the old ones are 
+// dead from then on whether or not they could be deleted: a mapped file 
+// can't be deleted on Windows, so one that's left over is skipped, and 
+// deleted by a later writer.
+class FunctionStore implements AutoCloseable {
+	static final int Magic = 0x53465654;
+	static final byte KindSummary  = 0;
+	// Analyses used to be kind 1, without the reached code and undecided 
+	// branches. Those records are never looked up now, and age out of the
+	// store as it's compacted.
+	static final byte KindAnalysis = 2;
+	static final long SegmentBytes = 64L << 20;
+	static final long RefreshNanos = 1000000000L;
+	// Magic, length, kind and key before the payload, and the CRC after it.
+	static final int Framing = 4 + 4 + 1 + 32 + 4;
+	
+	// What a result depends on besides its function's own code: the SHA-256 
+	// of every function it called, transitively, by call target offset (in 
+	// the function's own space), and the bytes that it read from each space's
+	// image, by space id (-1 for a byte outside the image). Incomplete is set 
+	// if some callee's bytes couldn't be read, so that it can't be checked.
+	static final class Deps {
+		final ConcurrentHashMap<Long,byte[]> Code = new ConcurrentHashMap<>();
+		final ConcurrentHashMap<Long,ConcurrentHashMap<Long,Integer>> Image = new ConcurrentHashMap<>();
+		final ConcurrentHashMap<Long,ProgramImage> Views = new ConcurrentHashMap<>();
+		volatile boolean Incomplete;
+		
+		void Code(Address target, byte[] hash)
+		{
+			if(hash == null)
+				Incomplete = true;
+			else
+				Code.put(target.getOffset(), hash);
+		}
+		
+		void Add(Deps other)
+		{
+			if(other == null || other == this)
+				return;
+			Incomplete |= other.Incomplete;
+			Code.putAll(other.Code);
+			for(Map.Entry<Long,ConcurrentHashMap<Long,Integer>> e : other.Image.entrySet())
+				Image.computeIfAbsent(e.getKey(), id -> new ConcurrentHashMap<>()).putAll(e.getValue());
+		}
+		
+		// The image for a space, noting what's read into these deps.
+		ProgramImage View(ProgramImage image, long spaceId)
+		{
+			if(image.Reads != null && image.Reads == Image.get(spaceId))
+				return image;
+			return Views.computeIfAbsent(spaceId, id -> image.Recording(Image.computeIfAbsent(id, x -> new ConcurrentHashMap<>())));
+		}
+		
+		// The same, for each of a state's images.
+		ProgramImage[] Views(TVLAbstractGhidraState s)
+		{
+			ProgramImage[] images = s.Images.clone();
+			for(int i = 0; i < images.length; i++)
+				if(images[i] != null)
+					images[i] = View(images[i], s.Spaces.Ids[i]);
+			return images;
+		}
+		
+		// A clone of the state whose images note what's read into these deps,
+		// both through its memories and through any it maps later.
+		TVLAbstractGhidraState Record(TVLAbstractGhidraState s)
+		{
+			TVLAbstractGhidraState r = s.clone();
+			r.Images = Views(r);
+			for(int i = 0; i < r.Memories.length; i++)
+				if(r.Memories[i] != TVLAbstractGhidraState.Unmapped && r.Memories[i].Backing != null)
+					r.Memories[i].Backing = View(r.Memories[i].Backing, r.Spaces.Ids[i]);
+			return r;
+		}
+	}
+	
+	// A function's decided branches and dead code, with the code it reached 
+	// and the branches there that it left undecided, as OpaquePredicateScan 
+	// found them, or why the analysis was incomplete.
+	static final class Analysis {
+		final ArrayList<OpaqueBranch> Branches;
+		final ArrayList<Pair<Address,Address>> Dead;
+		final ArrayList<Pair<Address,Address>> Reached;
+		final ArrayList<Address> Undecided;
+		final String Incomplete;
+		
+		Analysis(ArrayList<OpaqueBranch> branches, ArrayList<Pair<Address,Address>> dead, ArrayList<Pair<Address,Address>> reached, ArrayList<Address> undecided, String incomplete)
+		{
+			Branches = branches;
+			Dead = dead;
+			Reached = reached;
+			Undecided = undecided;
+			Incomplete = incomplete;
+		}
+	}
+	
+	static final class Digest {
+		final byte[] Bytes;
+		final int Hash;
+		
+		Digest(byte[] bytes)
+		{
+			Bytes = bytes;
+			Hash = Arrays.hashCode(bytes);
+		}
+		
+		@Override
+		public int hashCode() { return Hash; }
+		
+		@Override
+		public boolean equals(Object o)
+		{
+			return o instanceof Digest && Arrays.equals(Bytes, ((Digest)o).Bytes);
+		}
+	}
+	
+	// Where a record's payload is, in the mapping it was found in.
+	static final class Location {
+		final Segment Seg;
+		final MappedByteBuffer Map;
+		final int Offset;
+		final int Length;
+		
+		Location(Segment seg, MappedByteBuffer map, int offset, int length)
+		{
+			Seg = seg;
+			Map = map;
+			Offset = offset;
+			Length = length;
+		}
+	}
+	
+	// End is how far the records have been read (and are whole).
+	static final class Segment {
+		final int Number;
+		final RandomAccessFile Raf;
+		final FileChannel Channel;
+		MappedByteBuffer Map;
+		long End;
+		
+		Segment(File f, int number) throws IOException
+		{
+			Number = number;
+			Raf = new RandomAccessFile(f, "rw");
+			Channel = Raf.getChannel();
+		}
+		
+		void close() throws IOException
+		{
+			Channel.close();
+			Raf.close();
+		}
+	}
+	
+	final File Dir;
+	final String Language;
+	final long MaxBytes;
+	final RandomAccessFile LockRaf;
+	final FileChannel LockChannel;
+	
+	// The segments and generation are guarded by the store's monitor; the 
+	// index can be read without it.
+	final TreeMap<Integer,Segment> Segments = new TreeMap<>();
+	final ConcurrentHashMap<Digest,Location> Index = new ConcurrentHashMap<>();
+	long Generation;
+	int FirstSegment;
+	volatile long LastRefresh;
+	
+	// The hash of each function's code, by entry point. Empty if its bytes 
+	// couldn't be read.
+	final ConcurrentHashMap<Address,byte[]> Hashes = new ConcurrentHashMap<>();
+	
+	final LongAdder Found = new LongAdder();
+	final LongAdder Stale = new LongAdder();
+	final LongAdder Written = new LongAdder();
+	final LongAdder Compactions = new LongAdder();
+	
+	public FunctionStore(File dir, String language, long maxBytes) throws IOException
+	{
+		Dir = dir;
+		Language = language;
+		MaxBytes = maxBytes;
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("FunctionStore: can't create "+dir);
+		LockRaf = new RandomAccessFile(new File(dir, "lock"), "rw");
+		LockChannel = LockRaf.getChannel();
+		Refresh(true);
+	}
+	
+	static MessageDigest Sha256()
+	{
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// The hash of a function's code, or null if its bytes can't be read.
+	byte[] Hash(OpaquePredicateScan.Unit u)
+	{
+		byte[] h = Hashes.get(u.Entry);
+		if(h == null)
+		{
+			MessageDigest md = Sha256();
+			md.update(Language.getBytes(StandardCharsets.UTF_8));
+			ByteBuffer b = ByteBuffer.allocate(12);
+			md.update(b.putLong(0, u.Entry.getOffset()).array(), 0, 8);
+			try {
+				InstructionIterator it = u.Instructions.get();
+				while(it.hasNext())
+				{
+					Instruction instr = it.next();
+					byte[] bytes = instr.getBytes();
+					if(bytes == null)
+						throw new MemoryAccessException();
+					b.putLong(0, instr.getAddress().getOffset()).putInt(8, instr.getLength());
+					md.update(b.array());
+					md.update(bytes);
+				}
+				h = md.digest();
+			}
+			catch(MemoryAccessException e) {
+				h = new byte[0];
+			}
+			Hashes.putIfAbsent(u.Entry, h);
+		}
+		return h.length == 0 ? null : h;
+	}
+	
+	// The key for a result of the given kind, for a function and its input.
+	Digest KeyOf(byte kind, byte[] function, byte[] input)
+	{
+		MessageDigest md = Sha256();
+		md.update(kind);
+		md.update(function);
+		md.update(input);
+		return new Digest(md.digest());
+	}
+	
+	//
+	// The segments.
+	//
+	
+	// The generation, then the number of the first live segment.
+	long ReadGeneration() throws IOException
+	{
+		ByteBuffer b = ByteBuffer.allocate(8);
+		return LockChannel.read(b, 0) == 8 ? b.getLong(0) : 0;
+	}
+	
+	int ReadFirstSegment() throws IOException
+	{
+		ByteBuffer b = ByteBuffer.allocate(4);
+		return LockChannel.read(b, 8) == 4 ? b.getInt(0) : 0;
+	}
+	
+	static File SegmentFile(File dir, int number)
+	{
+		return new File(dir, String.format("segment-%08d.bin", number));
+	}
+	
+	// With the lock held: catch up with the other processes, i.e. start over
+	// if they've compacted, and read whatever they've appended. Segments that
+	// a compaction left behind are skipped, and deleted if the caller holds 
+	// the exclusive lock (locked is false).
+	synchronized void Refresh(boolean locked) throws IOException
+	{
+		FileLock lock = locked ? LockChannel.lock(0, Long.MAX_VALUE, true) : null;
+		try {
+			long gen = ReadGeneration();
+			if(gen != Generation)
+			{
+				for(Segment seg : Segments.values())
+					seg.close();
+				Segments.clear();
+				Index.clear();
+				Generation = gen;
+			}
+			FirstSegment = ReadFirstSegment();
+			File[] files = Dir.listFiles((d, n) -> n.startsWith("segment-") && n.endsWith(".bin"));
+			if(files != null)
+			{
+				for(File f : files)
+				{
+					String n = f.getName();
+					int number = Integer.parseInt(n.substring(8, n.length() - 4));
+					if(number < FirstSegment)
+					{
+						if(!locked)
+							Delete(f);
+					}
+					else if(!Segments.containsKey(number))
+						Segments.put(number, new Segment(f, number));
+				}
+			}
+			for(Segment seg : Segments.values())
+				Scan(seg);
+			LastRefresh = System.nanoTime();
+		}
+		finally {
+			if(lock != null)
+				lock.release();
+		}
+	}
+	
+	// Index the records in a segment from where the last scan stopped, up to
+	// the first one that isn't whole.
+	void Scan(Segment seg) throws IOException
+	{
+		long size = seg.Channel.size();
+		if(size <= seg.End)
+			return;
+		if(seg.Map == null || seg.Map.capacity() < size)
+			seg.Map = seg.Channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		MappedByteBuffer map = seg.Map;
+		ByteBuffer b = map.duplicate();
+		int pos = (int)seg.End;
+		while(pos + Framing <= size)
+		{
+			b.limit((int)size).position(pos);
+			if(b.getInt() != Magic)
+				break;
+			int len = b.getInt();
+			if(len < 0 || pos + Framing + (long)len > size)
+				break;
+			CRC32 crc = new CRC32();
+			ByteBuffer body = map.duplicate();
+			body.limit(pos + 8 + 33 + len).position(pos + 8);
+			crc.update(body);
+			b.position(pos + 8 + 33 + len);
+			if(b.getInt() != (int)crc.getValue())
+				break;
+			byte[] key = new byte[32];
+			b.position(pos + 9);
+			b.get(key);
+			Index.put(new Digest(key), new Location(seg, map, pos + 8 + 33, len));
+			pos += Framing + len;
+		}
+		seg.End = pos;
+	}
+	
+	// The payload stored under key, or null. If it isn't in the index, the 
+	// other processes might have written it since, so catch up with them 
+	// (but at most every RefreshNanos) and look again.
+	ByteBuffer Find(Digest key) throws IOException
+	{
+		Location l = Index.get(key);
+		if(l == null && System.nanoTime() - LastRefresh > RefreshNanos)
+		{
+			Refresh(true);
+			l = Index.get(key);
+		}
+		if(l == null)
+			return null;
+		ByteBuffer b = l.Map.duplicate();
+		b.limit(l.Offset + l.Length).position(l.Offset);
+		return b.slice();
+	}
+	
+	ByteBuffer Record(byte kind, Digest key, byte[] payload, int len)
+	{
+		ByteBuffer rec = ByteBuffer.allocate(Framing + len);
+		rec.putInt(Magic).putInt(len).put(kind).put(key.Bytes).put(payload, 0, len);
+		CRC32 crc = new CRC32();
+		crc.update(rec.array(), 8, 33 + len);
+		rec.putInt((int)crc.getValue());
+		rec.flip();
+		return rec;
+	}
+	
+	// The segment to append n bytes to: the last one, unless it's full or 
+	// ends in a record that isn't whole.
+	Segment Tail(long n) throws IOException
+	{
+		Map.Entry<Integer,Segment> last = Segments.lastEntry();
+		if(last != null)
+		{
+			Segment seg = last.getValue();
+			if(seg.End + n <= SegmentBytes && seg.Channel.size() == seg.End)
+				return seg;
+		}
+		int number = last == null ? 1 : last.getKey() + 1;
+		Segment seg = new Segment(SegmentFile(Dir, number), number);
+		Segments.put(number, seg);
+		return seg;
+	}
+	
+	// Append a record, under the exclusive lock, and compact if that took the
+	// store over MaxBytes.
+	synchronized void Append(byte kind, Digest key, byte[] payload, int len) throws IOException
+	{
+		FileLock lock = LockChannel.lock();
+		try {
+			Refresh(false);
+			ByteBuffer rec = Record(kind, key, payload, len);
+			Segment seg = Tail(rec.remaining());
+			for(long at = seg.End; rec.hasRemaining(); )
+				at += seg.Channel.write(rec, at);
+			Scan(seg);
+			Written.increment();
+			long total = 0;
+			for(Segment s : Segments.values())
+				total += s.End;
+			if(total > MaxBytes)
+				Compact();
+		}
+		finally {
+			lock.release();
+		}
+	}
+	
+	// Delete a dead segment if possible. If not (it's still mapped here or in
+	// some other process, on Windows), it's left for a later writer.
+	static void Delete(File f)
+	{
+		try {
+			Files.deleteIfExists(f.toPath());
+		}
+		catch(IOException e) {}
+	}
+	
+	// Under the exclusive lock: copy the newest records, up to half of 
+	// MaxBytes, to new segments, and delete the old ones. The index only 
+	// holds the latest record for each key, so nothing superseded is kept.
+	// 
+	// Until the new generation is published, the new segments are just more
+	// segments, holding copies of records that are already in the store, so
+	// a compaction that fails before then does no harm, and the next append
+	// starts one over. After that, nothing can fail halfway.
+	void Compact() throws IOException
+	{
+		ArrayList<Map.Entry<Digest,Location>> live = new ArrayList<>(Index.entrySet());
+		live.sort((a, b) -> {
+			Location x = a.getValue(), y = b.getValue();
+			return x.Seg.Number != y.Seg.Number ? Integer.compare(y.Seg.Number, x.Seg.Number) : Integer.compare(y.Offset, x.Offset);
+		});
+		TreeMap<Integer,Segment> old = new TreeMap<>(Segments);
+		int number = Segments.lastKey();
+		Segment out = null;
+		long kept = 0;
+		for(Map.Entry<Digest,Location> e : live)
+		{
+			Location l = e.getValue();
+			long n = Framing + l.Length;
+			if(kept + n > MaxBytes / 2)
+				break;
+			if(out == null || out.End + n > SegmentBytes)
+			{
+				out = new Segment(SegmentFile(Dir, ++number), number);
+				Segments.put(number, out);
+			}
+			ByteBuffer rec = l.Map.duplicate();
+			rec.limit(l.Offset + l.Length + 4).position(l.Offset - 8 - 33);
+			while(rec.hasRemaining())
+				out.End += out.Channel.write(rec, out.End);
+			kept += n;
+		}
+		for(Segment seg : Segments.tailMap(old.lastKey(), false).values())
+			seg.Channel.force(false);
+		
+		// Publish the generation and the first live segment in one write.
+		ByteBuffer gen = ByteBuffer.allocate(12);
+		gen.putLong(0, Generation + 1).putInt(8, old.lastKey() + 1);
+		LockChannel.write(gen, 0);
+		LockChannel.force(false);
+		Generation++;
+		FirstSegment = old.lastKey() + 1;
+		
+		// Let go of the old segments (their mappings go once the index drops 
+		// them), and read the new ones.
+		Index.clear();
+		for(Segment seg : old.values())
+		{
+			Segments.remove(seg.Number);
+			seg.Map = null;
+			try {
+				seg.close();
+			}
+			catch(IOException e) {}
+			Delete(SegmentFile(Dir, seg.Number));
+		}
+		for(Segment seg : Segments.values())
+		{
+			seg.End = 0;
+			Scan(seg);
+		}
+		Compactions.increment();
+	}
+	
+	//
+	// Encoding results. Regions (see FunctionSummaries.Writes) and spaces go 
+	// by space id, as in TVLStateCodec.
+	//
+	
+	static void EncodeDeps(StateHistory.ByteEncoder e, Deps d)
+	{
+		e.VarLong(d.Code.size());
+		for(Map.Entry<Long,byte[]> c : d.Code.entrySet())
+		{
+			e.VarLong(c.getKey());
+			for(byte x : c.getValue())
+				e.Byte(x);
+		}
+		e.VarLong(d.Image.size());
+		for(Map.Entry<Long,ConcurrentHashMap<Long,Integer>> s : d.Image.entrySet())
+		{
+			e.VarLong(s.getKey());
+			e.VarLong(s.getValue().size());
+			for(Map.Entry<Long,Integer> b : s.getValue().entrySet())
+			{
+				e.VarLong(b.getKey());
+				e.Byte(b.getValue() + 1);
+			}
+		}
+	}
+	
+	static Deps DecodeDeps(ByteBuffer b)
+	{
+		Deps d = new Deps();
+		for(long n = StateHistory.ReadVarLong(b); n > 0; n--)
+		{
+			long target = StateHistory.ReadVarLong(b);
+			byte[] h = new byte[32];
+			b.get(h);
+			d.Code.put(target, h);
+		}
+		for(long n = StateHistory.ReadVarLong(b); n > 0; n--)
+		{
+			ConcurrentHashMap<Long,Integer> bytes = d.Image.computeIfAbsent(StateHistory.ReadVarLong(b), id -> new ConcurrentHashMap<>());
+			for(long m = StateHistory.ReadVarLong(b); m > 0; m--)
+			{
+				long addr = StateHistory.ReadVarLong(b);
+				bytes.put(addr, (b.get() & 0xFF) - 1);
+			}
+		}
+		return d;
+	}
+	
+	// Do the deps hold in this program? The code targets are in space.
+	boolean Holds(FunctionSummaries fs, AddressSpace space, Deps d)
+	{
+		for(Map.Entry<Long,byte[]> c : d.Code.entrySet())
+		{
+			OpaquePredicateScan.Unit u = fs.Bodies.apply(space.getAddress(c.getKey()));
+			byte[] h = u == null ? null : Hash(u);
+			if(h == null || !Arrays.equals(h, c.getValue()))
+				return false;
+		}
+		TVLAbstractGhidraState st = fs.Initial;
+		for(Map.Entry<Long,ConcurrentHashMap<Long,Integer>> s : d.Image.entrySet())
+		{
+			int i = st.SpaceIndex(s.getKey());
+			ProgramImage image = i < st.Images.length ? st.Images[i] : null;
+			for(Map.Entry<Long,Integer> b : s.getValue().entrySet())
+				if((image == null ? -1 : image.ByteAt(b.getKey())) != b.getValue())
+					return false;
+		}
+		return true;
+	}
+	
+	static long RegionId(TVLAbstractGhidraState st, int region)
+	{
+		return region == 0 ? 0 : st.Spaces.Ids[region - 1] + 1;
+	}
+	
+	static int Region(TVLAbstractGhidraState st, long id)
+	{
+		return id == 0 ? 0 : st.SpaceIndex(id - 1) + 1;
+	}
+	
+	// Deps, then the writes (everything; whole regions; ranges by region), 
+	// then whether there's an exit state, and the state.
+	void PutSummary(FunctionSummaries fs, OpaquePredicateScan.Unit u, FunctionSummaries.Key k, FunctionSummaries.Summary s)
+	{
+		byte[] h = Hash(u);
+		if(h == null || s.Deps != null && s.Deps.Incomplete)
+			return;
+		try {
+			StateHistory.ByteEncoder e = new StateHistory.ByteEncoder();
+			EncodeDeps(e, s.Deps != null ? s.Deps : new Deps());
+			FunctionSummaries.Writes w = s.Writes;
+			e.Byte(w.Everything ? 1 : 0);
+			e.VarLong(w.Whole.size());
+			for(int region : w.Whole)
+				e.VarLong(RegionId(fs.Initial, region));
+			e.VarLong(w.Ranges.size());
+			for(Map.Entry<Integer,TreeMap<Long,Long>> r : w.Ranges.entrySet())
+			{
+				e.VarLong(RegionId(fs.Initial, r.getKey()));
+				e.VarLong(r.getValue().size());
+				for(Map.Entry<Long,Long> x : r.getValue().entrySet())
+				{
+					e.VarLong(x.getKey());
+					e.VarLong(x.getValue() - x.getKey());
+				}
+			}
+			e.Byte(s.Exit != null ? 1 : 0);
+			if(s.Exit != null)
+			{
+				java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+				TVLStateCodec.Encode(s.Exit, out);
+				byte[] state = out.toByteArray();
+				for(byte x : state)
+					e.Byte(x);
+			}
+			Append(KindSummary, KeyOf(KindSummary, h, k.Input), e.Buf, e.Len);
+		}
+		catch(IOException ex) {
+			fs.Initial.Diag.Report("FunctionStore: couldn't store a summary", ex);
+		}
+	}
+	
+	FunctionSummaries.Summary FindSummary(FunctionSummaries fs, OpaquePredicateScan.Unit u, FunctionSummaries.Key k)
+	{
+		byte[] h = Hash(u);
+		if(h == null)
+			return null;
+		try {
+			ByteBuffer b = Find(KeyOf(KindSummary, h, k.Input));
+			if(b == null)
+				return null;
+			Deps d = DecodeDeps(b);
+			if(!Holds(fs, u.Entry.getAddressSpace(), d))
+			{
+				Stale.increment();
+				return null;
+			}
+			FunctionSummaries.Writes w = new FunctionSummaries.Writes();
+			w.Everything = b.get() != 0;
+			for(long n = StateHistory.ReadVarLong(b); n > 0; n--)
+				w.AddWhole(Region(fs.Initial, StateHistory.ReadVarLong(b)));
+			for(long n = StateHistory.ReadVarLong(b); n > 0; n--)
+			{
+				int region = Region(fs.Initial, StateHistory.ReadVarLong(b));
+				for(long m = StateHistory.ReadVarLong(b); m > 0; m--)
+				{
+					long lo = StateHistory.ReadVarLong(b);
+					w.Add(region, lo, lo + StateHistory.ReadVarLong(b));
+				}
+			}
+			Found.increment();
+			if(w.Everything)
+				return FunctionSummaries.Clobber;
+			TVLAbstractGhidraState exit = null;
+			if(b.get() != 0)
+			{
+				exit = fs.Initial.clone();
+				TVLStateCodec.Decode(b, exit);
+				exit = exit.Freeze();
+			}
+			return new FunctionSummaries.Summary(w, exit, d);
+		}
+		catch(IOException | RuntimeException ex) {
+			fs.Initial.Diag.Report("FunctionStore: couldn't read a summary", ex);
+			return null;
+		}
+	}
+	
+	// Deps, then whether the analysis was complete (and if not, why), then the
+	// branches, the dead code, the reached code and the undecided branches.
+	void PutAnalysis(FunctionSummaries fs, OpaquePredicateScan.Unit u, TVLAbstractGhidraState initial, Deps d, Analysis a)
+	{
+		byte[] h = Hash(u);
+		if(h == null || d.Incomplete)
+			return;
+		try {
+			StateHistory.ByteEncoder e = new StateHistory.ByteEncoder();
+			EncodeDeps(e, d);
+			e.Byte(a.Incomplete == null ? 1 : 0);
+			if(a.Incomplete != null)
+			{
+				byte[] why = a.Incomplete.getBytes(StandardCharsets.UTF_8);
+				e.VarLong(why.length);
+				for(byte x : why)
+					e.Byte(x);
+			}
+			else
+			{
+				e.VarLong(a.Branches.size());
+				for(OpaqueBranch ob : a.Branches)
+				{
+					e.VarLong(ob.At.getOffset());
+					e.VarLong(ob.Length);
+					e.VarLong(ob.Opcode);
+					e.Byte((ob.Taken ? 1 : 0) | (ob.OnlyBranches ? 2 : 0) | (ob.Target != null ? 4 : 0));
+					if(ob.Target != null)
+						e.VarLong(ob.Target.getOffset());
+				}
+				EncodeRanges(e, a.Dead);
+				EncodeRanges(e, a.Reached);
+				e.VarLong(a.Undecided.size());
+				for(Address at : a.Undecided)
+					e.VarLong(at.getOffset());
+			}
+			Append(KindAnalysis, KeyOf(KindAnalysis, h, FunctionSummaries.KeyOf(u.Entry, initial).Input), e.Buf, e.Len);
+		}
+		catch(IOException ex) {
+			fs.Initial.Diag.Report("FunctionStore: couldn't store an analysis", ex);
+		}
+	}
+	
+	// Address ranges, as the first address and the length less one.
+	static void EncodeRanges(StateHistory.ByteEncoder e, ArrayList<Pair<Address,Address>> ranges)
+	{
+		e.VarLong(ranges.size());
+		for(Pair<Address,Address> r : ranges)
+		{
+			e.VarLong(r.x.getOffset());
+			e.VarLong(r.y.subtract(r.x));
+		}
+	}
+	
+	static ArrayList<Pair<Address,Address>> DecodeRanges(ByteBuffer b, AddressSpace space)
+	{
+		ArrayList<Pair<Address,Address>> r = new ArrayList<>();
+		for(long n = StateHistory.ReadVarLong(b); n > 0; n--)
+		{
+			Address lo = space.getAddress(StateHistory.ReadVarLong(b));
+			r.add(new Pair<>(lo, lo.add(StateHistory.ReadVarLong(b))));
+		}
+		return r;
+	}
+	
+	Analysis FindAnalysis(FunctionSummaries fs, OpaquePredicateScan.Unit u, TVLAbstractGhidraState initial)
+	{
+		byte[] h = u.Entry == null ? null : Hash(u);
+		if(h == null)
+			return null;
+		try {
+			ByteBuffer b = Find(KeyOf(KindAnalysis, h, FunctionSummaries.KeyOf(u.Entry, initial).Input));
+			if(b == null)
+				return null;
+			AddressSpace space = u.Entry.getAddressSpace();
+			Deps d = DecodeDeps(b);
+			if(!Holds(fs, space, d))
+			{
+				Stale.increment();
+				return null;
+			}
+			// The caller's analysis depends on whatever this one did.
+			ArrayList<FunctionSummaries.Frame> stack = fs.Stack.get();
+			if(!stack.isEmpty() && stack.get(stack.size() - 1).Deps != null)
+				stack.get(stack.size() - 1).Deps.Add(d);
+			Found.increment();
+			if(b.get() == 0)
+			{
+				byte[] why = new byte[(int)StateHistory.ReadVarLong(b)];
+				b.get(why);
+				return new Analysis(null, null, null, null, new String(why, StandardCharsets.UTF_8));
+			}
+			ArrayList<OpaqueBranch> branches = new ArrayList<>();
+			for(long n = StateHistory.ReadVarLong(b); n > 0; n--)
+			{
+				Address at = space.getAddress(StateHistory.ReadVarLong(b));
+				int length = (int)StateHistory.ReadVarLong(b);
+				int opcode = (int)StateHistory.ReadVarLong(b);
+				int flags = b.get();
+				Address target = (flags & 4) != 0 ? space.getAddress(StateHistory.ReadVarLong(b)) : null;
+				branches.add(new OpaqueBranch(at, length, opcode, (flags & 1) != 0, target, (flags & 2) != 0));
+			}
+			ArrayList<Pair<Address,Address>> dead = DecodeRanges(b, space);
+			ArrayList<Pair<Address,Address>> reached = DecodeRanges(b, space);
+			ArrayList<Address> undecided = new ArrayList<>();
+			for(long n = StateHistory.ReadVarLong(b); n > 0; n--)
+				undecided.add(space.getAddress(StateHistory.ReadVarLong(b)));
+			return new Analysis(branches, dead, reached, undecided, null);
+		}
+		catch(IOException | RuntimeException ex) {
+			fs.Initial.Diag.Report("FunctionStore: couldn't read an analysis", ex);
+			return null;
+		}
+	}
+	
+	@Override
+	public synchronized void close() throws IOException
+	{
+		for(Segment seg : Segments.values())
+			seg.close();
+		Segments.clear();
+		Index.clear();
+		LockChannel.close();
+		LockRaf.close();
+	}
+}
+
+// Analyzes many functions (or regions) concurrently, on a fixed pool of 
+// threads, each with its own TVLFunctionAnalyzer and interpreter. Every one 
+// starts from the same frozen initial state, which the threads clone for 
+// themselves. The decided branches are handed to the sink, one row at a time,
+// as each function finishes; the sink is called under a lock, so it can be 
+// a plain Writer.
+// 
+// The work is handed out biggest first, so that one huge function isn't 
+// started last and left to run on its own. A function whose analysis fails
+// is counted and reported, and doesn't stop the rest.
+class OpaquePredicateScan {
+	
+	// One function or region: a name for the report, the entry point (or null
+	// for none), its size in bytes (to order the work), and a way to get its
+	// instructions on whichever thread analyzes it. A region also says which 
+	// of its addresses control might come in at from outside it.
+	static final class Unit {
+		final String Name;
+		final Address Entry;
+		final long Size;
+		final java.util.function.Supplier<InstructionIterator> Instructions;
+		final java.util.function.Predicate<Address> Entries;
+		
+		Unit(String name, Address entry, long size, java.util.function.Supplier<InstructionIterator> instructions)
+		{
+			this(name, entry, size, instructions, null);
+		}
+		
+		Unit(String name, Address entry, long size, java.util.function.Supplier<InstructionIterator> instructions, java.util.function.Predicate<Address> entries)
+		{
+			Name = name;
+			Entry = entry;
+			Size = size;
+			Instructions = instructions;
+			Entries = entries;
+		}
+	}
+	
+	final TVLAbstractGhidraState Initial;
+	final int Threads;
+	final boolean Lazy;
+	final java.util.function.Consumer<String> Sink;
+	final Diagnostics Diag;
+	
+	final LongAdder Analyzed = new LongAdder();
+	final LongAdder Incomplete = new LongAdder();
+	final LongAdder Failed = new LongAdder();
+	final LongAdder Branches = new LongAdder();
+	final LongAdder BlockVisits = new LongAdder();
+	final LongAdder Reused = new LongAdder();
+	
+	// If set, every function's decided branches and dead code are proposed 
+	// here as patches, along with what it reached and left undecided.
+	BranchPatchSet Patches;
+	
+	// If set, calls are analyzed through these summaries.
+	FunctionSummaries Summaries;
+	
+	public OpaquePredicateScan(TVLAbstractGhidraState initial, int threads, boolean lazy, java.util.function.Consumer<String> sink)
+	{
+		Initial = initial.Freeze();
+		Threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		Lazy = lazy;
+		Sink = sink;
+		Diag = initial.Diag;
+	}
+	
+	void Analyze(Unit u, TaskMonitor monitor)
+	{
+		try {
+			FunctionStore store = Summaries != null && u.Entry != null ? Summaries.Store : null;
+			FunctionStore.Analysis a = store != null ? store.FindAnalysis(Summaries, u, Initial) : null;
+			if(a != null)
+				Reused.increment();
+			else
+			{
+				// With a store, the initial state notes the image bytes that 
+				// are read, and the summaries note the callees, so that the 
+				// result can be stored with what it depends on.
+				FunctionStore.Deps deps = store != null ? new FunctionStore.Deps() : null;
+				TVLFunctionAnalyzer fa = new TVLFunctionAnalyzer(u.Name, u.Entry, u.Entries, u.Instructions.get(), deps != null ? deps.Record(Initial) : Initial, Lazy);
+				fa.Interp.Summaries = Summaries;
+				ArrayList<OpaqueBranch> found;
+				if(deps != null)
+					Summaries.Push(u.Entry, deps);
+				try {
+					found = fa.Run(monitor);
+				}
+				finally {
+					if(deps != null)
+						Summaries.Pop();
+				}
+				BlockVisits.add(fa.BlockVisits);
+				a = found != null ? new FunctionStore.Analysis(found, fa.DeadCode(), fa.ReachedCode(), fa.UndecidedBranches(), null)
+					: new FunctionStore.Analysis(null, null, null, null, String.valueOf(fa.Incomplete));
+				if(store != null)
+					store.PutAnalysis(Summaries, u, Initial, deps, a);
+			}
+			ArrayList<OpaqueBranch> found = a.Branches;
+			if(found == null)
+			{
+				Incomplete.increment();
+				Diag.Report("OpaquePredicateScan: incomplete", u.Name+": "+a.Incomplete);
+				if(Patches != null)
+					Patches.Unknown(u.Instructions);
+				return;
+			}
+			Analyzed.increment();
+			Branches.add(found.size());
+			if(Patches != null)
+				Patches.Propose(a);
+			if(found.isEmpty())
+				return;
+			synchronized(Sink)
+			{
+				for(OpaqueBranch b : found)
+					Sink.accept(b.Row(u.Name));
+			}
+		}
+		catch(CancelledException e) {}
+		catch(Throwable t) {
+			Failed.increment();
+			Diag.Report("OpaquePredicateScan: analysis failed", u.Name+": "+t);
+			if(Patches != null)
+				Patches.Unknown(u.Instructions);
+		}
+	}
+	
+	// Analyze everything, returning once it's all done. If the monitor is 
+	// cancelled, the workers stop at their next block.
+	public void Run(java.util.List<Unit> units, TaskMonitor monitor) throws CancelledException, InterruptedException
+	{
+		ArrayList<Unit> work = new ArrayList<>(units);
+		work.sort((a, b) -> Long.compare(b.Size, a.Size));
+		AtomicInteger threadNo = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(Threads, r -> {
+			Thread t = new Thread(r, "TVL scan "+threadNo.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			ArrayList<Future<?>> futures = new ArrayList<>();
+			for(Unit u : work)
+				futures.add(pool.submit(() -> Analyze(u, monitor)));
+			long done = 0;
+			if(monitor != null)
+				monitor.initialize(work.size());
+			for(Future<?> f : futures)
+			{
+				while(true)
+				{
+					if(monitor != null)
+						monitor.checkCanceled();
+					try {
+						f.get(100, TimeUnit.MILLISECONDS);
+						break;
+					}
+					catch(TimeoutException e) {}
+					catch(ExecutionException e) {
+						break;
+					}
+				}
+				if(monitor != null)
+					monitor.setProgress(++done);
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+}
+
+// Patches to the program that follow from decided branches: a conditional 
+// branch that's always taken becomes an unconditional jump, one that's never
+// taken becomes NOPs, and an indirect branch with a single target becomes a 
+// direct jump, provided the jump fits in the instruction. The code that the 
+// decided branches cut off is cleared. Patches are proposed from any number 
+// of scan threads, then applied all at once in one transaction, with the 
+// program's change events held back until the end so that listeners (the 
+// auto-analyzer above all) see a single batch rather than one event per 
+// patch. Only the patched instructions are disassembled again.
+// 
+// Functions share code, and one function's analysis says nothing about how 
+// another one gets there. So every analysis also tells what code it reached
+// and which branches there it couldn't decide, and one that was incomplete
+// or failed counts as reaching all of its code and deciding none of it. A 
+// branch is only patched if no analysis left it undecided or decided it the
+// other way, and dead code is only cleared where no analysis reached it and
+// nothing else (a data pointer, a function that wasn't scanned) refers to it.
+// 
+// Only x86 encodings are implemented: EB rel8 or E9 rel32, padded with 90.
+// For anything else, every proposal counts as unencodable.
+class BranchPatchSet {
+	static final class Patch {
+		final Address At;
+		final byte[] Bytes;
+		// How many bytes of the patch are the jump; the rest is NOPs.
+		final int JumpLength;
+		
+		Patch(Address at, byte[] bytes, int jumpLength)
+		{
+			At = at;
+			Bytes = bytes;
+			JumpLength = jumpLength;
+		}
+		
+		Address Last() { return At.add(Bytes.length - 1); }
+	}
+	
+	final boolean X86;
+	final TreeMap<Address, Patch> Patches = new TreeMap<>();
+	// Branches that some analysis didn't decide, or decided differently.
+	final HashSet<Address> Vetoed = new HashSet<>();
+	// Disjoint address ranges, first address to last: the code that some 
+	// analysis cut off, and the code that some analysis reached.
+	final TreeMap<Address, Address> Dead = new TreeMap<>();
+	final TreeMap<Address, Address> Reached = new TreeMap<>();
+	int Unencodable, Conflicts;
+	// Set by Apply: patches left out because they were vetoed, and dead 
+	// ranges cleared, or left alone because something refers to them.
+	int Vetoes, Cleared, Referenced;
+	// Set if some function's code couldn't be gone through, so there's no 
+	// telling what it reached.
+	Throwable Unlisted;
+	
+	public BranchPatchSet(Language language)
+	{
+		X86 = "x86".equals(language.getProcessor().toString());
+	}
+	
+	static byte[] Nops(int length)
+	{
+		byte[] b = new byte[length];
+		Arrays.fill(b, (byte)0x90);
+		return b;
+	}
+	
+	// The shortest jump from at to target that fits in length bytes, padded 
+	// with NOPs, or null.
+	static byte[] Jump(Address at, int length, Address target)
+	{
+		if(target.getAddressSpace() != at.getAddressSpace())
+			return null;
+		byte[] b = Nops(length);
+		long d = target.subtract(at) - 2;
+		if(length >= 2 && d == (byte)d)
+		{
+			b[0] = (byte)0xEB;
+			b[1] = (byte)d;
+			return b;
+		}
+		d = target.subtract(at) - 5;
+		if(length >= 5 && d == (int)d)
+		{
+			b[0] = (byte)0xE9;
+			for(int k = 0; k < 4; k++)
+				b[1+k] = (byte)(d >> (8*k));
+			return b;
+		}
+		return null;
+	}
+	
+	// Adds [lo, hi] to a set of disjoint ranges, merging it with any that it
+	// overlaps or abuts.
+	static void AddRange(TreeMap<Address, Address> ranges, Address lo, Address hi)
+	{
+		Map.Entry<Address, Address> e = ranges.floorEntry(lo);
+		if(e != null && (e.getValue().compareTo(lo) >= 0 || lo.equals(e.getValue().next())))
+		{
+			lo = e.getKey();
+			if(e.getValue().compareTo(hi) > 0)
+				hi = e.getValue();
+		}
+		Address after = hi.next();
+		for(e = ranges.ceilingEntry(lo); e != null && (e.getKey().compareTo(hi) <= 0 || e.getKey().equals(after)); e = ranges.ceilingEntry(lo))
+		{
+			if(e.getValue().compareTo(hi) > 0)
+				hi = e.getValue();
+			after = hi.next();
+			ranges.remove(e.getKey());
+		}
+		ranges.put(lo, hi);
+	}
+	
+	// The parts of [lo, hi] that aren't in a set of disjoint ranges.
+	static ArrayList<Pair<Address, Address>> Outside(TreeMap<Address, Address> ranges, Address lo, Address hi)
+	{
+		ArrayList<Pair<Address, Address>> r = new ArrayList<>();
+		Address from = lo;
+		Map.Entry<Address, Address> e = ranges.floorEntry(lo);
+		if(e == null)
+			e = ranges.ceilingEntry(lo);
+		for(; e != null && from != null && e.getKey().compareTo(hi) <= 0; e = ranges.higherEntry(e.getKey()))
+		{
+			if(e.getValue().compareTo(from) < 0)
+				continue;
+			if(e.getKey().compareTo(from) > 0)
+				r.add(new Pair<>(from, e.getKey().previous()));
+			from = e.getValue().compareTo(hi) >= 0 ? null : e.getValue().next();
+		}
+		if(from != null)
+			r.add(new Pair<>(from, hi));
+		return r;
+	}
+	
+	public synchronized void Propose(FunctionStore.Analysis a)
+	{
+		for(OpaqueBranch b : a.Branches)
+		{
+			byte[] bytes = null;
+			int jump = 0;
+			if(X86 && b.OnlyBranches)
+			{
+				if(b.Opcode == PcodeOp.CBRANCH && !b.Taken)
+					bytes = Nops(b.Length);
+				else if(b.Target != null)
+				{
+					bytes = Jump(b.At, b.Length, b.Target);
+					jump = bytes == null ? 0 : bytes[0] == (byte)0xEB ? 2 : 5;
+				}
+			}
+			// A branch that can't be patched the way this function needs can't
+			// be patched the way any other one does either.
+			if(bytes == null)
+			{
+				Unencodable++;
+				Vetoed.add(b.At);
+				continue;
+			}
+			Patch p = new Patch(b.At, bytes, jump);
+			// The same branch comes up again in every function that shares it,
+			// and each one has to agree. Anything else overlapping means the 
+			// disassembly is inconsistent, and I keep the first.
+			Map.Entry<Address, Patch> before = Patches.floorEntry(p.Last());
+			if(before != null && before.getValue().Last().compareTo(p.At) >= 0)
+			{
+				if(!before.getKey().equals(p.At))
+					Conflicts++;
+				else if(!Arrays.equals(before.getValue().Bytes, bytes))
+					Vetoed.add(p.At);
+				continue;
+			}
+			Patches.put(p.At, p);
+		}
+		Vetoed.addAll(a.Undecided);
+		for(Pair<Address, Address> r : a.Reached)
+			AddRange(Reached, r.x, r.y);
+		for(Pair<Address, Address> d : a.Dead)
+			AddRange(Dead, d.x, d.y);
+	}
+	
+	// A function whose analysis was incomplete or failed: all of its code is 
+	// reached, and none of its branches are decided.
+	public void Unknown(java.util.function.Supplier<InstructionIterator> instructions)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_SUB        (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		try {
+			ArrayList<Pair<Address, Address>> all = new ArrayList<>();
+			InstructionIterator it = instructions.get();
+			while(it.hasNext())
+			{
+				Instruction instr = it.next();
+				all.add(new Pair<>(instr.getMinAddress(), instr.getMaxAddress()));
+			}
+			synchronized(this)
+			{
+				for(Pair<Address, Address> r : all)
+				{
+					Vetoed.add(r.x);
+					AddRange(Reached, r.x, r.y);
+				}
+			}
+		}
+		catch(RuntimeException e) {
+			synchronized(this)
+			{
+				Unlisted = e;
+			}
+		}
+	}
+	
+	// Whether anything refers to [lo, hi] from outside the code being cleared
+	// and the branches being patched (whose own references go away).
+	static boolean Referenced(ghidra.program.model.symbol.ReferenceManager refs, Address lo, Address hi, TreeMap<Address, Address> clear, TreeMap<Address, Patch> patches)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_MULT       (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		ghidra.program.model.address.AddressIterator to = refs.getReferenceDestinationIterator(new AddressSet(lo, hi), true);
+		while(to.hasNext())
+		{
+			ghidra.program.model.symbol.ReferenceIterator from = refs.getReferencesTo(to.next());
+			while(from.hasNext())
+			{
+				Address a = from.next().getFromAddress();
+				Map.Entry<Address, Address> c = clear.floorEntry(a);
+				if(c != null && c.getValue().compareTo(a) >= 0)
+					continue;
+				Map.Entry<Address, Patch> p = patches.floorEntry(a);
+				if(p != null && p.getValue().Last().compareTo(a) >= 0)
+					continue;
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// Applies everything in one transaction, which is rolled back if anything 
+	// fails (or the user cancels). Returns the number of patches.
+	public synchronized int Apply(Program program, TaskMonitor monitor) throws CancelledException, MemoryAccessException
+	{
+		if(Unlisted != null)
+			throw new IllegalStateException("Not patching: a function's instructions couldn't be gone through", Unlisted);
+		TreeMap<Address, Patch> patches = new TreeMap<>();
+		for(Patch p : Patches.values())
+			if(!Vetoed.contains(p.At))
+				patches.put(p.At, p);
+		Vetoes = Patches.size() - patches.size();
+		
+		// Dead code that some other function reached isn't dead. Of the rest, 
+		// anything referred to from outside stays, and so, in turn, does what 
+		// that refers to.
+		TreeMap<Address, Address> clear = new TreeMap<>();
+		for(Map.Entry<Address, Address> d : Dead.entrySet())
+			for(Pair<Address, Address> r : Outside(Reached, d.getKey(), d.getValue()))
+				clear.put(r.x, r.y);
+		ghidra.program.model.symbol.ReferenceManager refs = program.getReferenceManager();
+		Referenced = 0;
+		for(boolean changed = true; changed; )
+		{
+			changed = false;
+			for(Map.Entry<Address, Address> c : new ArrayList<>(clear.entrySet()))
+			{
+				monitor.checkCanceled();
+				if(Referenced(refs, c.getKey(), c.getValue(), clear, patches))
+				{
+					clear.remove(c.getKey());
+					Referenced++;
+					changed = true;
+				}
+			}
+		}
+		Cleared = clear.size();
+		
+		Listing listing = program.getListing();
+		Memory memory = program.getMemory();
+		boolean commit = false;
+		int tx = program.startTransaction("Patch " + patches.size() + " decided branches");
+		program.setEventsEnabled(false);
+		try {
+			for(Map.Entry<Address, Address> c : clear.entrySet())
+				listing.clearCodeUnits(c.getKey(), c.getValue(), false);
+			for(Patch p : patches.values())
+			{
+				monitor.checkCanceled();
+				listing.clearCodeUnits(p.At, p.Last(), false);
+				memory.setBytes(p.At, p.Bytes);
+			}
+			// Disassembly is restricted to each patch, so that it doesn't flow 
+			// into the code I just cleared. The NOP padding after a jump isn't 
+			// reached from it, so it gets its own start.
+			Disassembler disassembler = Disassembler.getDisassembler(program, monitor, DisassemblerMessageListener.IGNORE);
+			for(Patch p : patches.values())
+			{
+				monitor.checkCanceled();
+				AddressSet range = new AddressSet(p.At, p.Last());
+				disassembler.disassemble(p.At, range, true);
+				if(p.JumpLength > 0 && p.JumpLength < p.Bytes.length)
+					disassembler.disassemble(p.At.add(p.JumpLength), range, true);
+			}
+			commit = true;
+		}
+		finally {
+			program.endTransaction(tx, commit);
+			// This sends the held-back changes, as one event.
+			program.setEventsEnabled(true);
+		}
+		return patches.size();
+	}
+}
+
+// Stand-ins for the parts of a Program that the interpreter needs, so that 
+// the domain can be tested and benchmarked in a plain JVM (with Ghidra's jars
+// on the classpath, but without loading a program or a Sleigh language). 
+// Varnodes and PcodeOps are real Ghidra objects, built over free-standing 
+// register, unique, constant and RAM address spaces, so they can be handed
+// to PcodeOpVisitor and TVLAbstractInterpreter directly. Registers are looked
+// up by name in a simple declared layout of offsets and sizes.
+class PcodeStandIns {
+	final AddressSpace RegisterSpace = new GenericAddressSpace("register", 32, AddressSpace.TYPE_REGISTER, 1);
+	final AddressSpace UniqueSpace   = new GenericAddressSpace("unique",   32, AddressSpace.TYPE_UNIQUE,   2);
+	final AddressSpace ConstSpace    = new GenericAddressSpace("const",    64, AddressSpace.TYPE_CONSTANT, 3);
+	final AddressSpace RamSpace      = new GenericAddressSpace("ram",      32, AddressSpace.TYPE_RAM,      4);
+	
+	// Register name -> { offset, size }.
+	final HashMap<String,long[]> Layout;
+	final boolean bigEndian;
+	
+	// The address that built ops are attributed to, and their sequence number.
+	Address CodeAddress;
+	int SeqNo;
+	
+	public PcodeStandIns(boolean isBigEndian)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_DIV        (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		Layout = new HashMap<>();
+		bigEndian = isBigEndian;
+		CodeAddress = RamSpace.getAddress(0x401000);
+		SeqNo = 0;
+	}
+	
+	// Declare a register.
+	public PcodeStandIns Declare(String name, long offset, int size)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_NEG        (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		Layout.put(name, new long[] { offset, size });
+		return this;
+	}
+	
+	// The 32-bit x86 registers, at the offsets that Sleigh gives them.
+	public static PcodeStandIns X86()
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_ABS        (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		PcodeStandIns si = new PcodeStandIns(false);
+		String[] gpr = { "A", "C", "D", "B" };
+		for(int i = 0; i < gpr.length; i++)
+		{
+			si.Declare("E"+gpr[i]+"X", i*4, 4);
+			si.Declare(gpr[i]+"X",     i*4, 2);
+			si.Declare(gpr[i]+"L",     i*4, 1);
+			si.Declare(gpr[i]+"H",     i*4+1, 1);
+		}
+		String[] idx = { "SP", "BP", "SI", "DI" };
+		for(int i = 0; i < idx.length; i++)
+		{
+			si.Declare("E"+idx[i], 0x10+i*4, 4);
+			si.Declare(idx[i],     0x10+i*4, 2);
+		}
+		String[] flags = { "CF", null, "PF", null, "AF", null, "ZF", "SF", "TF", "IF", "DF", "OF" };
+		for(int i = 0; i < flags.length; i++)
+			if(flags[i] != null)
+				si.Declare(flags[i], 0x200+i, 1);
+		return si;
+	}
+	
+	public Varnode Register(String name)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_SQRT       (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		long[] r = Layout.get(name);
+		if(r == null)
+			throw new IllegalArgumentException("PcodeStandIns: no register "+name);
+		return new Varnode(RegisterSpace.getAddress(r[0]), (int)r[1]);
+	}
+	public Varnode Register(long offset, int size) { return new Varnode(RegisterSpace.getAddress(offset), size); }
+	public Varnode Unique(long offset, int size)   { return new Varnode(UniqueSpace.getAddress(offset), size); }
+	public Varnode Constant(long value, int size)  { return new Varnode(ConstSpace.getAddress(value), size); }
+	public Varnode Ram(long addr, int size)        { return new Varnode(RamSpace.getAddress(addr), size); }
+	
+	// The constant naming the RAM space, as the first input of LOAD and STORE.
+	public Varnode RamId()                         { return Constant(RamSpace.getSpaceID(), 4); }
+	
+	// Build an op attributed to the current code address.
+	public PcodeOp Op(int opcode, Varnode out, Varnode... in)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_CEIL       (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		return new PcodeOp(CodeAddress, SeqNo++, opcode, in, out);
+	}
+	public PcodeOp Load(Varnode out, Varnode addr)          { return Op(PcodeOp.LOAD,  out,  RamId(), addr); }
+	public PcodeOp Store(Varnode addr, Varnode value)       { return Op(PcodeOp.STORE, null, RamId(), addr, value); }
+	
+	// Move on to the next instruction, n bytes further along.
+	public void NextInstruction(int n)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_FLOOR      (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		CodeAddress = CodeAddress.add(n);
+	}
+}
+
+// Synthetic x86-like pcode for benchmarking the whole interpreter pipeline, 
+// i.e. visit() -> transformers -> Associate()/Lookup(), built from 
+// PcodeStandIns so that no Program or Language is required. Each synthetic instruction is built the
+// way Sleigh builds x86 ones: an operation or two into uniques, a write-back to
+// a register or to memory, and then a batch of flag computations. Memory 
+// accesses go through a frame-pointer register (EBP) that holds a known 
+// value, so their addresses are constant, plus an offset within the memory
+// footprint. A fixed pool of instructions is generated up front and cycled
+// through, so that building the trace doesn't show up in the allocation 
+// numbers.
+class SyntheticPcodeWorkload {
+	// The knobs.
+	static class Params {
+		String Name = "default";
+		// Relative weights of the kinds of main operation.
+		int ArithWeight = 4, LogicWeight = 3, ShiftWeight = 1, MultWeight = 1, CopyWeight = 2, ExtendWeight = 1;
+		// Fraction of instructions that load from and store to memory.
+		double LoadFraction = 0.2, StoreFraction = 0.1;
+		// Of the non-memory source operands: fraction that are registers, and 
+		// fraction that are uniques (the rest are constants).
+		double RegisterFraction = 0.6, UniqueFraction = 0.2;
+		// Fraction of bits that are 1/2 in the initial register values.
+		double UnknownFraction = 0.25;
+		// Number of bytes over which memory accesses range.
+		int MemoryFootprint = 4096;
+		// Total number of pcode ops to interpret.
+		long TraceLength = 1000000;
+		// Number of distinct instructions to generate.
+		int PoolSize = 4096;
+	}
+	
+	static final String[] Gpr32 = { "EAX", "ECX", "EDX", "EBX", "ESI", "EDI" };
+	static final long FramePointer = 0x10000;
+	
+	final Params P;
+	final Random Rng;
+	final PcodeStandIns SI;
+	long NextUnique;
+	
+	public SyntheticPcodeWorkload(Params p, long seed)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_ROUND      (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		P = p;
+		Rng = new Random(seed);
+		SI = PcodeStandIns.X86();
+	}
+	
+	Varnode Reg(String name)             { return SI.Register(name); }
+	Varnode Const(long val, int size)    { return SI.Constant(val, size); }
+	Varnode Unique(int size)             { NextUnique += 0x10; return SI.Unique(NextUnique, size); }
+	PcodeOp Op(int opcode, Varnode out, Varnode... in) { return SI.Op(opcode, out, in); }
+	
+	// Pick a 32-bit source operand: a register, a unique produced earlier in 
+	// this instruction, or a constant.
+	Varnode Source(ArrayList<Varnode> uniques)
+	{
+		double d = Rng.nextDouble();
+		if(d < P.RegisterFraction || (d < P.RegisterFraction + P.UniqueFraction && uniques.isEmpty()))
+			return Reg(Gpr32[Rng.nextInt(Gpr32.length)]);
+		if(d < P.RegisterFraction + P.UniqueFraction)
+			return uniques.get(Rng.nextInt(uniques.size()));
+		return Const(Rng.nextInt(), 4);
+	}
+	
+	// Compute the address [EBP + offset] into a unique.
+	Varnode FrameAddress(ArrayList<PcodeOp> ops)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_FLOAT2FLOAT(Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		Varnode addr = Unique(4);
+		ops.add(Op(PcodeOp.INT_ADD, addr, Reg("EBP"), Const(Rng.nextInt(Math.max(1, P.MemoryFootprint - 4)), 4)));
+		return addr;
+	}
+	
+	PcodeOp[] NextInstruction()
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_INT2FLOAT  (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		ArrayList<PcodeOp> ops = new ArrayList<>();
+		ArrayList<Varnode> uniques = new ArrayList<>();
+		Varnode ramId = SI.RamId();
+		
+		// Possibly load an operand from memory.
+		if(Rng.nextDouble() < P.LoadFraction)
+		{
+			Varnode v = Unique(4);
+			ops.add(Op(PcodeOp.LOAD, v, ramId, FrameAddress(ops)));
+			uniques.add(v);
+		}
+		
+		// The main operation.
+		Varnode lhs = Source(uniques), rhs = Source(uniques);
+		Varnode result = Unique(4);
+		int total = P.ArithWeight + P.LogicWeight + P.ShiftWeight + P.MultWeight + P.CopyWeight + P.ExtendWeight;
+		int pick = Rng.nextInt(Math.max(1, total));
+		int opcode;
+		if((pick -= P.ArithWeight) < 0)       opcode = Rng.nextBoolean() ? PcodeOp.INT_ADD : PcodeOp.INT_SUB;
+		else if((pick -= P.LogicWeight) < 0)  opcode = new int[] { PcodeOp.INT_AND, PcodeOp.INT_OR, PcodeOp.INT_XOR }[Rng.nextInt(3)];
+		else if((pick -= P.ShiftWeight) < 0)  { opcode = new int[] { PcodeOp.INT_LEFT, PcodeOp.INT_RIGHT, PcodeOp.INT_SRIGHT }[Rng.nextInt(3)]; rhs = Const(Rng.nextInt(32), 4); }
+		else if((pick -= P.MultWeight) < 0)   opcode = PcodeOp.INT_MULT;
+		else if((pick -= P.CopyWeight) < 0)   opcode = PcodeOp.COPY;
+		else                                  opcode = PcodeOp.INT_ZEXT;
+		if(opcode == PcodeOp.COPY)
+			ops.add(Op(opcode, result, lhs));
+		else if(opcode == PcodeOp.INT_ZEXT)
+		{
+			Varnode narrow = Unique(1);
+			ops.add(Op(PcodeOp.SUBPIECE, narrow, lhs, Const(0, 4)));
+			ops.add(Op(opcode, result, narrow));
+		}
+		else
+			ops.add(Op(opcode, result, lhs, rhs));
+		
+		// Flags, as Sleigh computes them for arithmetic.
+		ops.add(Op(PcodeOp.INT_CARRY,   Reg("CF"), lhs, rhs));
+		ops.add(Op(PcodeOp.INT_SCARRY,  Reg("OF"), lhs, rhs));
+		ops.add(Op(PcodeOp.INT_SLESS,   Reg("SF"), result, Const(0, 4)));
+		ops.add(Op(PcodeOp.INT_EQUAL,   Reg("ZF"), result, Const(0, 4)));
+		
+		// PF: even parity of the result's low byte. The interpreter has no 
+		// POPCOUNT, so fold the byte down with shifts and XORs instead.
+		Varnode parity = Unique(1);
+		ops.add(Op(PcodeOp.SUBPIECE,    parity, result, Const(0, 4)));
+		for(int shift = 4; shift > 0; shift >>= 1)
+		{
+			Varnode half = Unique(1), folded = Unique(1);
+			ops.add(Op(PcodeOp.INT_RIGHT, half, parity, Const(shift, 1)));
+			ops.add(Op(PcodeOp.INT_XOR,   folded, parity, half));
+			parity = folded;
+		}
+		Varnode odd = Unique(1);
+		ops.add(Op(PcodeOp.INT_AND,     odd, parity, Const(1, 1)));
+		ops.add(Op(PcodeOp.INT_EQUAL,   Reg("PF"), odd, Const(0, 1)));
+		
+		// Write the result back to a register or to memory.
+		if(Rng.nextDouble() < P.StoreFraction)
+			ops.add(Op(PcodeOp.STORE, null, ramId, FrameAddress(ops), result));
+		else
+			ops.add(Op(PcodeOp.COPY, Reg(Gpr32[Rng.nextInt(Gpr32.length)]), result));
+		
+		SI.NextInstruction(4);
+		return ops.toArray(new PcodeOp[0]);
+	}
+	
+	// Build the pool of instructions.
+	PcodeOp[][] Generate()
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-	void visit_FLOAT_TRUNC      (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		PcodeOp[][] pool = new PcodeOp[P.PoolSize][];
+		for(int i = 0; i < pool.length; i++)
+			pool[i] = NextInstruction();
+		return pool;
+	}
+	
+	// Give the registers their initial values, with the requested fraction of 
+	// unknown bits. EBP is always known, so that memory is trackable.
+	void Initialize(TVLAbstractGhidraState state)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
+		for(String reg : Gpr32)
+		{
+			byte[] arr = new byte[32];
+			for(int i = 0; i < 32; i++)
+				arr[i] = Rng.nextDouble() < P.UnknownFraction ? TVLBitVector.TVL_HALF : (Rng.nextBoolean() ? TVLBitVector.TVL_1 : TVLBitVector.TVL_0);
+			state.Associate(Reg(reg), new TVLBitVector(arr));
+		}
+		state.Associate(Reg("EBP"), new TVLBitVector(32, FramePointer));
+	}
+}
 
-	// "Pseudo" operations. Unhandled, set output to top.
-	void visit_NEW              (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+// A microbenchmark harness for the TVLBitVectorUtil transformers. It runs 
+// every operation across a range of bit widths and densities of unknown bits,
+// and reports throughput and the allocation rate (via the JVM's per-thread 
+// allocation counter, which is what JMH's GC profiler reads as well). Each 
+// configuration gets warmup iterations followed by measured ones, runs over a
+// pool of random operands so that the JIT can't fold anything away, and feeds
+// every result into a sink that is printed at the end.
+//
+// None of the classes exercised here touch Ghidra, so once this file has been
+// compiled, the harness runs in a plain JVM:
+//   java -cp <classes> TVLBitVectorBenchmark [measureMillis] [warmupMillis]
+class TVLBitVectorBenchmark {
+	static final int[]    Widths    = { 1, 8, 16, 32, 64, 128, 256, 512 };
+	static final double[] Densities = { 0.0, 0.25, 0.5, 0.75, 1.0 };
+	static final int      PoolSize  = 256;
+	static final int      Iterations = 5;
+	static final int      WarmupIterations = 3;
+	
+	final long MeasureNanos;
+	final long WarmupNanos;
+	final com.sun.management.ThreadMXBean Threads;
+	final Random Rng;
+	
+	// Results go here so that the computations can't be eliminated.
+	long Sink;
+	
+	public TVLBitVectorBenchmark(long measureMillis, long warmupMillis)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
+		MeasureNanos = measureMillis * 1000000L;
+		WarmupNanos  = warmupMillis  * 1000000L;
+		Threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		Rng = new Random(0x3b1);
+	}
 	
-	// Based on the description, I could probably handle this one? Look the value
-	// up in the constant pool and return it precisely.
-	void visit_CPOOLREF         (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	// A random bitvector of the given width, where each bit is 1/2 with the 
+	// given probability, and otherwise a random constant.
+	TVLBitVector RandomVector(int width, double density)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
+		byte[] arr = new byte[width];
+		for(int i = 0; i < width; i++)
+		{
+			if(Rng.nextDouble() < density)
+				arr[i] = TVLBitVector.TVL_HALF;
+			else
+				arr[i] = Rng.nextBoolean() ? TVLBitVector.TVL_1 : TVLBitVector.TVL_0;
+		}
+		return new TVLBitVector(arr);
+	}
 	
-	// "Additional" operations. From the descriptions, I might even be able to
-	// implement all of these...?
+	// A random shift amount of the given width: small enough that shifts are 
+	// actually performed, with the 1/2 density applied to the bits that count.
+	TVLBitVector RandomShiftAmount(int width, double density)
+	{
+		int log2 = 31 - Integer.numberOfLeadingZeros(width);
+		byte[] arr = new byte[width];
+		for(int i = 0; i < width; i++)
+		{
+			if(i >= log2)
+				arr[i] = TVLBitVector.TVL_0;
+			else if(Rng.nextDouble() < density)
+				arr[i] = TVLBitVector.TVL_HALF;
+			else
+				arr[i] = Rng.nextBoolean() ? TVLBitVector.TVL_1 : TVLBitVector.TVL_0;
+		}
+		return new TVLBitVector(arr);
+	}
 	
-	// For now, I have implemented CAST, anyway.
-	void visit_CAST             (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException 
-	{ 
-		TVLBitVector lhs = visit_Varnode(instr,pcode,pcode.getInput(0));
-		AbstractState.Associate(pcode.getOutput(), lhs);		
-	}; 
-
-	// I can probably just implement this in terms of addition and multiplication?
-	void visit_PTRADD           (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+	// Time op over the operand pools for roughly the given duration. Returns 
+	// {operations, nanoseconds, bytes allocated}.
+	long[] RunFor(BinaryOperator<TVLBitVector> op, TVLBitVector[] lhs, TVLBitVector[] rhs, long nanos)
+	{
+		long tid = Thread.currentThread().getId();
+		long ops = 0;
+		long bytesBefore = Threads.getThreadAllocatedBytes(tid);
+		long start = System.nanoTime();
+		long end = start + nanos;
+		long now;
+		do {
+			for(int i = 0; i < PoolSize; i++)
+				Sink += op.apply(lhs[i], rhs[i]).Size();
+			ops += PoolSize;
+		} while((now = System.nanoTime()) < end);
+		long bytes = Threads.getThreadAllocatedBytes(tid) - bytesBefore;
+		return new long[] { ops, now - start, bytes };
+	}
+	
+	// Benchmark one operation at one width and density, and print a row.
+	void Run(String name, BinaryOperator<TVLBitVector> op, int width, double density, boolean shift)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-
-	// I can probably just implement this in terms of addition and multiplication?
-	void visit_PTRSUB           (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		TVLBitVector[] lhs = new TVLBitVector[PoolSize];
+		TVLBitVector[] rhs = new TVLBitVector[PoolSize];
+		for(int i = 0; i < PoolSize; i++)
+		{
+			lhs[i] = RandomVector(width, density);
+			rhs[i] = shift ? RandomShiftAmount(width, density) : RandomVector(width, density);
+		}
+		for(int i = 0; i < WarmupIterations; i++)
+			RunFor(op, lhs, rhs, WarmupNanos);
+		
+		long ops = 0, nanos = 0, bytes = 0;
+		double best = 0;
+		for(int i = 0; i < Iterations; i++)
+		{
+			long[] r = RunFor(op, lhs, rhs, MeasureNanos);
+			ops += r[0]; nanos += r[1]; bytes += r[2];
+			best = Math.max(best, r[0] * 1e9 / r[1]);
+		}
+		double opsPerSec = ops * 1e9 / nanos;
+		double mbPerSec  = bytes * 1e9 / nanos / (1024*1024);
+		System.out.println(String.format("%-14s %5d %6.2f %14.0f %14.0f %10.1f %10.1f", 
+			name, width, density, opsPerSec, best, (double)bytes / ops, mbPerSec));
+	}
+	
+	public void RunAll()
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
-
-	// Simply perform a "join" on all of the incoming values?
-	void visit_MULTIEQUAL       (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+		System.out.println(String.format("%-14s %5s %6s %14s %14s %10s %10s", 
+			"Operation", "Width", "Top", "ops/s (avg)", "ops/s (best)", "B/op", "MB/s"));
+		for(int width : Widths)
+		{
+			for(double d : Densities)
+			{
+				Run("Not",        (l,r) -> TVLBitVectorUtil.Not(l),      width, d, false);
+				Run("And",        TVLBitVectorUtil::And,                 width, d, false);
+				Run("Or",         TVLBitVectorUtil::Or,                  width, d, false);
+				Run("Xor",        TVLBitVectorUtil::Xor,                 width, d, false);
+				Run("Add",        TVLBitVectorUtil::Add,                 width, d, false);
+				Run("Subtract",   TVLBitVectorUtil::Subtract,            width, d, false);
+				Run("Neg",        (l,r) -> TVLBitVectorUtil.Neg(l),      width, d, false);
+				Run("Multiply",   TVLBitVectorUtil::Multiply,            width, d, false);
+				// Shifts need a power-of-two width of at least two bits; pcode never
+				// produces anything narrower than a byte anyway.
+				if(width > 1)
+				{
+					Run("ShiftLeft",  TVLBitVectorUtil::ShiftLeftBv,            width, d, true);
+					Run("ShiftRight", TVLBitVectorUtil::ShiftRightBv,           width, d, true);
+					Run("ShiftRightA",TVLBitVectorUtil::ShiftRightArithmeticBv, width, d, true);
+				}
+				Run("Equals",     TVLBitVectorUtil::Equals,              width, d, false);
+				Run("ULT",        TVLBitVectorUtil::ULT,                 width, d, false);
+				Run("ULE",        TVLBitVectorUtil::ULE,                 width, d, false);
+				Run("SLT",        TVLBitVectorUtil::SLT,                 width, d, false);
+				Run("SLE",        TVLBitVectorUtil::SLE,                 width, d, false);
+				Run("ZeroExtend", (l,r) -> TVLBitVectorUtil.ZeroExtend(l, width*2), width, d, false);
+				Run("SignExtend", (l,r) -> TVLBitVectorUtil.SignExtend(l, width*2), width, d, false);
+			}
+		}
+		System.out.println("(sink "+Sink+")");
+	}
+	
+	public static void main(String[] args)
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
+		long measure = args.length > 0 ? Long.parseLong(args[0]) : 200;
+		long warmup  = args.length > 1 ? Long.parseLong(args[1]) : 100;
+		new TVLBitVectorBenchmark(measure, warmup).RunAll();
+	}
+}
 
-	// This one I understand less, so my ideas of how to handle it in the future
-	// are more vague. Perhaps I could implment it.
-	void visit_INDIRECT         (Instruction instr, PcodeOp pcode) throws VisitorUnimplementedException
+// Headless entry point for PcodeTraceReplayer: replay the given trace and 
+// report the throughput. Only Ghidra's jars need to be on the classpath:
+//   java -cp <classes> PcodeTraceReplayBenchmark <trace> [ESP]
+// As in the script's NewInterpreter, everything starts out Top except ESP, 
+// which is 0x1000 unless given (in any form Long.decode takes), so that the 
+// stores to the stack don't forget all of memory. That's the x86 ESP, at its
+// Sleigh offset; for a trace from any other language, pass "top" to leave 
+// every register Top.
+class PcodeTraceReplayBenchmark {
+	public static void main(String[] args) throws Exception
+	{
+		if(args.length < 1)
+		{
+			System.err.println("usage: PcodeTraceReplayBenchmark <trace> [ESP|top]");
+			return;
+		}
+		PcodeTraceReplayer r = new PcodeTraceReplayer(new File(args[0]));
+		TVLAbstractInterpreter visitor = new TVLAbstractInterpreter(r.IsBigEndian());
+		String esp = args.length > 1 ? args[1] : "0x1000";
+		if(!esp.equals("top"))
+			visitor.AbstractState.Associate(PcodeStandIns.X86().Register("ESP"), new TVLBitVector(32, Long.decode(esp)));
+		long start = System.nanoTime();
+		r.Replay(visitor);
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.println("Replayed "+r.NumInstructions+" instructions, "+r.NumOps+" pcode ops in "+secs+"s ("+(long)(r.NumOps/secs)+" ops/sec)");
+	}
+}
+
+// Runs synthetic workloads through the interpreter and reports pcode ops per
+// second, bytes allocated per op, and the peak size of the abstract state (in
+// byte cells, sampled every 1024 instructions).
+class InterpreterBenchmark {
+	final com.sun.management.ThreadMXBean Threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	
+	// If set, the measured passes gather per-opcode statistics (which slows 
+	// them down), and print them after each workload.
+	PcodeOpMetrics Metrics;
+	
+	// If set, the interpreter defers operations until their outputs are read.
+	boolean Lazy;
+	
+	void Run(SyntheticPcodeWorkload.Params p) throws VisitorUnimplementedException
 	{
-		SetOutputToTop(pcode.getOutput());
-	}; 
+		SyntheticPcodeWorkload w = new SyntheticPcodeWorkload(p, 0x7e57);
+		PcodeOp[][] pool = w.Generate();
+		
+		// Warm up on a short run, then measure on a fresh state.
+		for(int pass = 0; pass < 2; pass++)
+		{
+			long limit = pass == 0 ? Math.min(p.TraceLength, 200000) : p.TraceLength;
+			TVLAbstractInterpreter visitor = new TVLAbstractInterpreter(false);
+			w.Initialize(visitor.AbstractState);
+			if(pass == 1)
+				visitor.Metrics = Metrics;
+			visitor.Lazy = Lazy;
+			
+			long tid = Thread.currentThread().getId();
+			long bytesBefore = Threads.getThreadAllocatedBytes(tid);
+			long start = System.nanoTime();
+			long ops = 0, instrs = 0;
+			int peak = 0;
+			while(ops < limit)
+			{
+				PcodeOp[] instr = pool[(int)(instrs % pool.length)];
+				for(PcodeOp op : instr)
+					visitor.visit(null, op);
+				visitor.AbstractState.ClearUniques();
+				ops += instr.length;
+				if((++instrs & 1023) == 0)
+					peak = Math.max(peak, visitor.AbstractState.CellCount());
+			}
+			long nanos = System.nanoTime() - start;
+			long bytes = Threads.getThreadAllocatedBytes(tid) - bytesBefore;
+			peak = Math.max(peak, visitor.AbstractState.CellCount());
+			if(pass == 1)
+				System.out.println(String.format("%-16s %11d %8.3f %14.0f %10.1f %10d", 
+					p.Name, ops, nanos / 1e9, ops * 1e9 / nanos, (double)bytes / ops, peak));
+		}
+		if(Metrics != null)
+		{
+			Metrics.Dump();
+			Metrics.clear();
+		}
+	}
+	
+	// A handful of standard mixes. Pass a trace length (in pcode ops) to 
+	// override the default of one million, and after it, "metrics" to print 
+	// per-opcode statistics and/or "lazy" to defer evaluation.
+	public static void main(String[] args) throws Exception
+	{
+		long length = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		boolean metrics = Arrays.asList(args).contains("metrics");
+		ArrayList<SyntheticPcodeWorkload.Params> mixes = new ArrayList<>();
+		
+		SyntheticPcodeWorkload.Params p = new SyntheticPcodeWorkload.Params();
+		p.Name = "default";
+		mixes.add(p);
+		
+		p = new SyntheticPcodeWorkload.Params();
+		p.Name = "register-only"; p.LoadFraction = 0; p.StoreFraction = 0;
+		mixes.add(p);
+		
+		p = new SyntheticPcodeWorkload.Params();
+		p.Name = "memory-heavy"; p.LoadFraction = 0.6; p.StoreFraction = 0.4; p.MemoryFootprint = 1 << 20;
+		mixes.add(p);
+		
+		p = new SyntheticPcodeWorkload.Params();
+		p.Name = "all-known"; p.UnknownFraction = 0;
+		mixes.add(p);
+		
+		p = new SyntheticPcodeWorkload.Params();
+		p.Name = "mostly-unknown"; p.UnknownFraction = 0.9;
+		mixes.add(p);
+		
+		p = new SyntheticPcodeWorkload.Params();
+		p.Name = "mult-shift"; p.MultWeight = 4; p.ShiftWeight = 4; p.ArithWeight = 1; p.LogicWeight = 1;
+		mixes.add(p);
+		
+		System.out.println(String.format("%-16s %11s %8s %14s %10s %10s", "Workload", "Ops", "Seconds", "ops/s", "B/op", "Peak cells"));
+		InterpreterBenchmark b = new InterpreterBenchmark();
+		if(metrics)
+			b.Metrics = new PcodeOpMetrics();
+		b.Lazy = Arrays.asList(args).contains("lazy");
+		for(SyntheticPcodeWorkload.Params m : mixes)
+		{
+			m.TraceLength = length;
+			b.Run(m);
+		}
+	}
 }
 
 class TransformerTester {
@@ -1737,6 +8555,20 @@ class TransformerTester {
 		rECX = l.getRegister("ECX"); vECX = vt.getVarnode(rECX);		
 	}
 	
+	// Same, but without a Program: the registers come from the stand-ins' 
+	// declared layout.
+	public TransformerTester(PcodeStandIns si)
+	{
+		tvlai = new TVLAbstractInterpreter(si.bigEndian);
+		TestAddressSpace = si.RamSpace;
+		TestAddress = si.CodeAddress;
+		seqNo = 1;
+		
+		vAL  = si.Register("AL");  vBL  = si.Register("BL");  vCL  = si.Register("CL");
+		vAX  = si.Register("AX");  vBX  = si.Register("BX");  vCX  = si.Register("CX");
+		vEAX = si.Register("EAX"); vEBX = si.Register("EBX"); vECX = si.Register("ECX");
+	}
+	
 	long GetBinaryPcodeResult(PcodeOp pcode, long valLhs, long valRhs)
 	{
 		PcodeOpRaw raw = new PcodeOpRaw(pcode);
@@ -1777,18 +8609,814 @@ class TransformerTester {
 		TVLBitVector bvres = tvlai.AbstractState.Lookup(out);
 		return new Pair(result,bvres);
 	}
+	
+	// Run the tests in a plain JVM, against the x86 stand-ins: given constant
+	// inputs, each of the operations whose output is the size of its inputs 
+	// has to come up with exactly the concrete result. Throws on the first 
+	// mismatch.
+	public static void main(String[] args)
+	{
+		int[] ops = { 
+			PcodeOp.INT_ADD, PcodeOp.INT_SUB, PcodeOp.INT_AND, PcodeOp.INT_OR, PcodeOp.INT_XOR, 
+			PcodeOp.INT_MULT, PcodeOp.INT_LEFT, PcodeOp.INT_RIGHT, PcodeOp.INT_SRIGHT,
+		};
+		TransformerTester tt = new TransformerTester(PcodeStandIns.X86());
+		Random rng = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+		int checked = 0;
+		for(int op : ops)
+		{
+			for(int nBytes : new int[] { 1, 2, 4 })
+			{
+				long mask = (1L << (nBytes*8)) - 1;
+				for(int i = 0; i < 1000; i++)
+				{
+					long lhs = rng.nextLong() & mask, rhs = rng.nextLong() & mask;
+					Pair<Long,TVLBitVector> r = tt.TestBinaryPcode(op, nBytes, lhs, rhs);
+					Pair<Integer,Long> c = r != null ? r.y.GetConstantValue() : null;
+					if(c == null || (c.y & mask) != (r.x & mask))
+						throw new IllegalStateException("TransformerTester: "+PcodeOp.getMnemonic(op)+" "+Long.toHexString(lhs)+", "+Long.toHexString(rhs)+
+							": concrete "+(r != null ? Long.toHexString(r.x) : "?")+", abstract "+(r != null ? r.y : "unimplemented"));
+					checked++;
+				}
+			}
+		}
+		System.out.println("TransformerTester: "+checked+" cases passed");
+	}
 };
 
+// Checks the abstract transformers against Ghidra's own concrete semantics 
+// (OpBehavior), for every implemented integer and boolean pcode operation. 
+// For a pair of abstract inputs, every concretization is run through the 
+// OpBehavior, and the results are compared against the abstract output:
+// * Soundness: every bit that the abstract output claims to know must have 
+//   that value in every concrete result.
+// * Precision: the best possible abstract output knows exactly those bits on
+//   which all of the concrete results agree. The number of bits that the 
+//   transformer left at 1/2 beyond that is the precision loss.
+// 8-bit operands are enumerated exhaustively: every abstract value of every 
+// operand (3^16 pairs for binary operations), up to a limit on the number of
+// 1/2 bits, each against every one of its concretizations. 16/32/64-bit 
+// operands are sampled randomly; when there are too many 1/2 bits to 
+// enumerate every concretization, a random subset of them is checked, which
+// tests soundness but not precision. The work is split up with
+// ForkJoin across all cores, and progress is printed as it goes.
+class TransformerSoundnessChecker {
+	static final int[] BinaryOps = {
+		PcodeOp.INT_ADD, PcodeOp.INT_SUB, PcodeOp.INT_AND, PcodeOp.INT_OR, PcodeOp.INT_XOR, 
+		PcodeOp.INT_MULT, PcodeOp.INT_LEFT, PcodeOp.INT_RIGHT, PcodeOp.INT_SRIGHT, 
+		PcodeOp.INT_EQUAL, PcodeOp.INT_NOTEQUAL, PcodeOp.INT_LESS, PcodeOp.INT_LESSEQUAL, 
+		PcodeOp.INT_SLESS, PcodeOp.INT_SLESSEQUAL,
+	};
+	static final int[] UnaryOps = {
+		PcodeOp.INT_NEGATE, PcodeOp.INT_2COMP, PcodeOp.INT_ZEXT, PcodeOp.INT_SEXT, 
+	};
+	static final int[] BoolOps = {
+		PcodeOp.BOOL_AND, PcodeOp.BOOL_OR, PcodeOp.BOOL_XOR, PcodeOp.BOOL_NEGATE,
+	};
+	static final int[] RandomSizes = { 2, 4, 8 };
+	
+	// When a random input pair has at most this many 1/2 bits, every 
+	// concretization is checked; otherwise, SampledConcretizations of them are.
+	// The exhaustive 8-bit inputs always have every concretization checked.
+	static final int ExactUnknownLimit = 12;
+	static final int SampledConcretizations = 256;
+	static final long Grain = 2048;
+	static final int MaxExamples = 5;
+	
+	final int MaxUnknownTrits;
+	final int RandomSamples;
+	final ForkJoinPool Pool;
+	final PcodeStandIns SI;
+	final LongAdder Done;
+	final LongAdder ConcreteDone;
+	long Total;
+	
+	// Each worker thread gets its own interpreter.
+	final ThreadLocal<TVLAbstractInterpreter> Interpreters = ThreadLocal.withInitial(() -> new TVLAbstractInterpreter(false));
+	
+	// One operation at one operand size, and what has been found for it.
+	final class OpCase {
+		final int Opcode;
+		final int InBytes, OutBytes;
+		final boolean Unary, Bool;
+		final OpBehavior Behavior;
+		final Varnode Lhs, Rhs, Out;
+		final PcodeOp Op;
+		final LongAdder Cases = new LongAdder(), Unsound = new LongAdder();
+		final LongAdder Exact = new LongAdder(), Optimal = new LongAdder(), LostBits = new LongAdder();
+		final ConcurrentLinkedQueue<String> Examples = new ConcurrentLinkedQueue<>();
+		final AtomicInteger NumExamples = new AtomicInteger();
+		
+		OpCase(int opcode, int inBytes)
+		{
+			Opcode = opcode;
+			InBytes = inBytes;
+			Unary = opcode == PcodeOp.INT_NEGATE || opcode == PcodeOp.INT_2COMP || opcode == PcodeOp.INT_ZEXT || opcode == PcodeOp.INT_SEXT || opcode == PcodeOp.BOOL_NEGATE;
+			Bool  = opcode == PcodeOp.BOOL_AND || opcode == PcodeOp.BOOL_OR || opcode == PcodeOp.BOOL_XOR || opcode == PcodeOp.BOOL_NEGATE;
+			switch(opcode)
+			{
+				case PcodeOp.INT_EQUAL: case PcodeOp.INT_NOTEQUAL: case PcodeOp.INT_LESS: case PcodeOp.INT_LESSEQUAL:
+				case PcodeOp.INT_SLESS: case PcodeOp.INT_SLESSEQUAL:
+					OutBytes = 1; break;
+				case PcodeOp.INT_ZEXT: case PcodeOp.INT_SEXT:
+					OutBytes = inBytes * 2; break;
+				default:
+					OutBytes = inBytes;
+			}
+			Lhs = SI.Register(0x000, inBytes);
+			Rhs = SI.Register(0x100, inBytes);
+			Out = SI.Register(0x200, OutBytes);
+			Op  = Unary ? SI.Op(opcode, Out, Lhs) : SI.Op(opcode, Out, Lhs, Rhs);
+			Behavior = new PcodeOpRaw(Op).getBehavior();
+		}
+		
+		String Name() { return PcodeOp.getMnemonic(Opcode)+"/"+(InBytes*8); }
+	}
+	
+	public TransformerSoundnessChecker(int maxUnknownTrits, int randomSamples, int threads)
+	{
+		MaxUnknownTrits = maxUnknownTrits;
+		RandomSamples = randomSamples;
+		Pool = threads > 0 ? new ForkJoinPool(threads) : ForkJoinPool.commonPool();
+		SI = new PcodeStandIns(false);
+		Done = new LongAdder();
+		ConcreteDone = new LongAdder();
+	}
+	
+	static long Mask(int bits) { return bits >= 64 ? -1L : (1L << bits) - 1; }
+	
+	// Build a bitvector from a mask of its known-1 bits and a mask of its 1/2 
+	// bits.
+	static TVLBitVector FromMasks(long ones, long unknown, int bits)
+	{
+		byte[] arr = new byte[bits];
+		for(int i = 0; i < bits; i++)
+			arr[i] = ((unknown >>> i) & 1) != 0 ? TVLBitVector.TVL_HALF : ((ones >>> i) & 1) != 0 ? TVLBitVector.TVL_1 : TVLBitVector.TVL_0;
+		return TVLBitVector.Wrap(arr);
+	}
+	
+	long Concrete(OpCase c, long a, long b)
+	{
+		if(c.Unary)
+			return ((UnaryOpBehavior)c.Behavior).evaluateUnary(c.OutBytes, c.InBytes, a) & Mask(c.OutBytes*8);
+		return ((BinaryOpBehavior)c.Behavior).evaluateBinary(c.OutBytes, c.InBytes, a, b) & Mask(c.OutBytes*8);
+	}
+	
+	// Check one pair of abstract inputs, given as known-1 and 1/2 masks. If
+	// all is set, every concretization is compared, however many there are.
+	void Check(OpCase c, long lv, long lu, long rv, long ru, boolean all, Random rng)
+	{
+		int inBits = c.InBytes*8, outBits = c.OutBytes*8;
+		
+		// The abstract result, via the interpreter proper.
+		TVLAbstractInterpreter tvlai = Interpreters.get();
+		tvlai.AbstractState.clear();
+		tvlai.AbstractState.Associate(c.Lhs, FromMasks(lv, lu, inBits));
+		if(!c.Unary)
+			tvlai.AbstractState.Associate(c.Rhs, FromMasks(rv, ru, inBits));
+		try {
+			tvlai.visit(null, c.Op);
+		}
+		catch(VisitorUnimplementedException e)
+		{
+			throw new RuntimeException(e);
+		}
+		TVLBitVector abs = tvlai.AbstractState.Lookup(c.Out);
+		long absOnes = 0, absZeros = 0, absUnknown = 0;
+		for(int i = 0; i < outBits; i++)
+		{
+			byte b = abs.Get(i);
+			if(b == TVLBitVector.TVL_1)         absOnes    |= 1L << i;
+			else if(b == TVLBitVector.TVL_0)    absZeros   |= 1L << i;
+			else                                absUnknown |= 1L << i;
+		}
+		
+		// The concrete results: AND and OR of all of them.
+		long allOnes = -1L, anyOnes = 0, n = 0;
+		boolean exact = all || Long.bitCount(lu) + Long.bitCount(ru) <= ExactUnknownLimit;
+		if(exact)
+		{
+			for(long ls = lu; ; ls = (ls - 1) & lu)
+			{
+				for(long rs = ru; ; rs = (rs - 1) & ru)
+				{
+					long r = Concrete(c, lv | ls, rv | rs);
+					allOnes &= r; anyOnes |= r; n++;
+					if(rs == 0) break;
+				}
+				if(ls == 0) break;
+			}
+		}
+		else
+		{
+			for(int i = 0; i < SampledConcretizations; i++)
+			{
+				long r = Concrete(c, lv | (rng.nextLong() & lu), rv | (rng.nextLong() & ru));
+				allOnes &= r; anyOnes |= r; n++;
+			}
+		}
+		allOnes &= Mask(outBits);
+		ConcreteDone.add(n);
+		c.Cases.increment();
+		
+		if((absOnes & ~allOnes) != 0 || (absZeros & anyOnes) != 0)
+		{
+			c.Unsound.increment();
+			if(c.NumExamples.getAndIncrement() < MaxExamples)
+				c.Examples.add(c.Name()+" "+FromMasks(lv, lu, inBits)+(c.Unary ? "" : ", "+FromMasks(rv, ru, inBits))+" -> "+abs
+				               +", but concrete results have known bits "+FromMasks(allOnes, anyOnes & ~allOnes, outBits));
+		}
+		if(exact)
+		{
+			c.Exact.increment();
+			int lost = Long.bitCount(absUnknown) - Long.bitCount(anyOnes & ~allOnes);
+			if(lost <= 0)
+				c.Optimal.increment();
+			else
+				c.LostBits.add(lost);
+		}
+	}
+	
+	// Decode the index of an 8-bit abstract value (or pair of them) in base 3,
+	// into known-1 and 1/2 masks.
+	static long[] DecodeTrits(long index, int nTrits)
+	{
+		long ones = 0, unknown = 0;
+		for(int i = 0; i < nTrits; i++)
+		{
+			int t = (int)(index % 3);
+			index /= 3;
+			if(t == 1) unknown |= 1L << i;
+			if(t == 2) ones    |= 1L << i;
+		}
+		return new long[] { ones, unknown };
+	}
+	
+	// Exhaustively check the 8-bit abstract inputs with indices in [lo, hi).
+	void CheckExhaustive(OpCase c, long lo, long hi)
+	{
+		Random rng = new Random(lo);
+		for(long i = lo; i < hi; i++)
+		{
+			long[] m;
+			if(c.Bool)
+			{
+				// Booleans: only the lowest bit of each operand is in play.
+				m = DecodeTrits(i, 2);
+				m = new long[] { m[0] & 1, m[1] & 1, (m[0] >> 1) & 1, (m[1] >> 1) & 1 };
+			}
+			else
+			{
+				m = DecodeTrits(i, c.Unary ? 8 : 16);
+				m = new long[] { m[0] & 0xFF, m[1] & 0xFF, m[0] >>> 8, m[1] >>> 8 };
+			}
+			if(Long.bitCount(m[1]) + Long.bitCount(m[3]) <= MaxUnknownTrits)
+				Check(c, m[0], m[1], m[2], m[3], true, rng);
+		}
+	}
+	
+	// Check randomly-generated wide inputs with sample numbers in [lo, hi). 
+	// Half of them have few enough 1/2 bits to check precision exactly; the 
+	// other half have a random density of 1/2 bits.
+	void CheckRandom(OpCase c, long lo, long hi)
+	{
+		int bits = c.InBytes*8;
+		long mask = Mask(bits);
+		Random rng = new Random(lo * 0x9E3779B97F4A7C15L + c.Opcode * 31 + bits);
+		boolean shift = c.Opcode == PcodeOp.INT_LEFT || c.Opcode == PcodeOp.INT_RIGHT || c.Opcode == PcodeOp.INT_SRIGHT;
+		for(long i = lo; i < hi; i++)
+		{
+			long lu, ru;
+			if((i & 1) == 0)
+			{
+				lu = 0; ru = 0;
+				int k = rng.nextInt(ExactUnknownLimit + 1);
+				for(int j = 0; j < k; j++)
+				{
+					if(rng.nextBoolean()) lu |= 1L << rng.nextInt(bits);
+					else                  ru |= 1L << rng.nextInt(bits);
+				}
+			}
+			else
+			{
+				double d = rng.nextDouble();
+				lu = 0; ru = 0;
+				for(int j = 0; j < bits; j++)
+				{
+					if(rng.nextDouble() < d) lu |= 1L << j;
+					if(rng.nextDouble() < d) ru |= 1L << j;
+				}
+			}
+			// Shift amounts beyond the width just produce the fill value; keep 
+			// most of them in range so that the interesting paths are exercised.
+			if(shift)
+				ru &= 2*bits - 1;
+			long lv = rng.nextLong() & mask & ~lu;
+			long rv = (shift ? rng.nextInt(2*bits) : rng.nextLong()) & mask & ~ru;
+			Check(c, lv, lu & mask, rv, ru & mask, false, rng);
+		}
+	}
+	
+	// Splits a range of case indices until it's small enough to do directly.
+	final class Range extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final OpCase C;
+		final long Lo, Hi;
+		final boolean Exhaustive;
+		Range(OpCase c, long lo, long hi, boolean exhaustive) { C = c; Lo = lo; Hi = hi; Exhaustive = exhaustive; }
+		
+		@Override
+		protected void compute()
+		{
+			if(Hi - Lo <= Grain)
+			{
+				if(Exhaustive)
+					CheckExhaustive(C, Lo, Hi);
+				else
+					CheckRandom(C, Lo, Hi);
+				Done.add(Hi - Lo);
+				return;
+			}
+			long mid = (Lo + Hi) >>> 1;
+			invokeAll(new Range(C, Lo, mid, Exhaustive), new Range(C, mid, Hi, Exhaustive));
+		}
+	}
+	
+	static long Pow3(int n) { long r = 1; for(int i = 0; i < n; i++) r *= 3; return r; }
+	
+	// Run everything, print a report, and return the number of unsound cases.
+	public long Run()
+	{
+		ArrayList<OpCase> cases = new ArrayList<>();
+		ArrayList<Range> work = new ArrayList<>();
+		for(int op : BinaryOps)  cases.add(new OpCase(op, 1));
+		for(int op : UnaryOps)   cases.add(new OpCase(op, 1));
+		for(int op : BoolOps)    cases.add(new OpCase(op, 1));
+		for(OpCase c : cases)
+			work.add(new Range(c, 0, c.Bool ? Pow3(c.Unary ? 1 : 2) : Pow3(c.Unary ? 8 : 16), true));
+		for(int size : RandomSizes)
+		{
+			for(int op : BinaryOps)
+				cases.add(new OpCase(op, size));
+			for(int op : UnaryOps)
+				// The extensions of 64-bit values don't fit in the masks.
+				if(size < 8 || (op != PcodeOp.INT_ZEXT && op != PcodeOp.INT_SEXT))
+					cases.add(new OpCase(op, size));
+		}
+		for(OpCase c : cases)
+			if(c.InBytes > 1)
+				work.add(new Range(c, 0, RandomSamples, false));
+		Total = 0;
+		for(Range r : work)
+			Total += r.Hi - r.Lo;
+		
+		// Report progress every few seconds while the pool works. Progress 
+		// counts indices, including 8-bit ones skipped for having too many 1/2 
+		// bits.
+		long start = System.nanoTime();
+		Thread reporter = new Thread(() -> {
+			try {
+				while(true)
+				{
+					Thread.sleep(5000);
+					double secs = (System.nanoTime() - start) / 1e9;
+					long done = Done.sum();
+					Printer.println(String.format("Checked %d/%d indices (%.1f%%), %.0f indices/s, %.0f concrete evaluations/s", 
+						done, Total, 100.0 * done / Total, done / secs, ConcreteDone.sum() / secs));
+				}
+			}
+			catch(InterruptedException e) {}
+		});
+		reporter.setDaemon(true);
+		reporter.start();
+		try {
+			for(Range r : work)
+				Pool.submit(r);
+			for(Range r : work)
+				r.join();
+		}
+		finally {
+			reporter.interrupt();
+		}
+		double secs = (System.nanoTime() - start) / 1e9;
+		
+		Printer.println(String.format("%-18s %12s %10s %12s %10s %12s", "Operation", "Cases", "Unsound", "Exact cases", "Optimal", "Lost bits"));
+		long unsound = 0;
+		for(OpCase c : cases)
+		{
+			long exact = c.Exact.sum();
+			Printer.println(String.format("%-18s %12d %10d %12d %9.2f%% %12.3f", c.Name(), c.Cases.sum(), c.Unsound.sum(), exact,
+				exact == 0 ? 0.0 : 100.0 * c.Optimal.sum() / exact, exact == 0 ? 0.0 : (double)c.LostBits.sum() / exact));
+			unsound += c.Unsound.sum();
+		}
+		for(OpCase c : cases)
+			for(String ex : c.Examples)
+				Printer.println("UNSOUND: "+ex);
+		Printer.println(String.format("%d indices, %d concrete evaluations, %d unsound, in %.1fs on %d threads", 
+			Done.sum(), ConcreteDone.sum(), unsound, secs, Pool.getParallelism()));
+		return unsound;
+	}
+	
+	// Arguments: [max 1/2 bits in 8-bit cases] [random samples per op/size] [threads]
+	public static void main(String[] args)
+	{
+		int maxUnknown = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int samples    = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int threads    = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		long unsound = new TransformerSoundnessChecker(maxUnknown, samples, threads).Run();
+		System.exit(unsound == 0 ? 0 : 1);
+	}
+}
+
+// Round trips memories through TVLStateCodec.EncodeMemory and DecodeMemory
+// and checks that they come back the same: random ones, and ones with bytes
+// at the ends of the space, where the gaps wrap around. Throws on the first
+// one that doesn't.
+//   java -cp <classes> TVLStateCodecCheck [random memories]
+class TVLStateCodecCheck {
+	static void Check(AbstractMemory am, String what)
+	{
+		StateHistory.ByteEncoder e = new StateHistory.ByteEncoder();
+		TVLStateCodec.EncodeMemory(e, am);
+		AbstractMemory back = new AbstractMemory(false);
+		ByteBuffer b = ByteBuffer.wrap(e.Buf, 0, e.Len);
+		TVLStateCodec.DecodeMemory(b, back, null);
+		if(b.hasRemaining())
+			throw new IllegalStateException("TVLStateCodecCheck: "+what+": "+b.remaining()+" bytes left over");
+		if(!back.Forgotten.equals(am.Forgotten))
+			throw new IllegalStateException("TVLStateCodecCheck: "+what+": forgot "+back.Forgotten+", not "+am.Forgotten);
+		if(back.Contents.size() != am.Contents.size())
+			throw new IllegalStateException("TVLStateCodecCheck: "+what+": "+back.Contents.size()+" cells, not "+am.Contents.size());
+		for(Map.Entry<Long,AbstractMemory.Cell> c : am.Contents.entrySet())
+		{
+			AbstractMemory.Cell d = back.Contents.get(c.getKey());
+			if(d == null || !d.Get().equals(c.getValue().Get()))
+				throw new IllegalStateException("TVLStateCodecCheck: "+what+": wrong byte at "+Long.toHexString(c.getKey()));
+		}
+	}
+	
+	static AbstractMemory Memory(long... addrs)
+	{
+		AbstractMemory am = new AbstractMemory(false);
+		for(long a : addrs)
+			am.Store(a, new TVLBitVector(8, a & 0xFF));
+		return am;
+	}
+	
+	public static void main(String[] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		Check(Memory(), "empty");
+		Check(Memory(-1L), "a byte at the last address");
+		Check(Memory(-2L, -1L), "a run up to the last address");
+		Check(Memory(0L, -1L), "the first and last addresses");
+		Check(Memory(0L, 1L, -2L, -1L), "runs at both ends");
+		Check(Memory(Long.MAX_VALUE, Long.MIN_VALUE), "a run across the sign bit");
+		AbstractMemory f = Memory(-1L);
+		f.Forget(-16L, -1L);
+		f.Forget(0L, 15L);
+		Check(f, "forgotten ranges at both ends");
+		
+		Random r = new Random(0x7e57);
+		for(int i = 0; i < n; i++)
+		{
+			AbstractMemory am = new AbstractMemory(false);
+			long base = r.nextLong();
+			for(int k = r.nextInt(64); k > 0; k--)
+			{
+				long a = base + r.nextInt(256);
+				byte[] trits = new byte[8];
+				for(int j = 0; j < 8; j++)
+					trits[j] = (byte)r.nextInt(3);
+				if(r.nextInt(4) == 0)
+					am.Store(a, new TVLBitVector(8));
+				else
+					am.Store(a, TVLBitVector.Wrap(trits));
+			}
+			Check(am, "random memory "+i);
+		}
+		System.out.println("TVLStateCodecCheck: "+(n + 7)+" memories round-tripped");
+	}
+}
+
 // Finally, the top-level script functionality. For now, it's just a demo of 
 // the analysis.
 public class ThreeValuedAbstractInterpreter extends GhidraScript {
 
+	// If non-null, loads from unwritten RAM are served from this snapshot of the
+	// program's initialized bytes.
+	ProgramImage Image;
+	
+	// If positive, the most bytes that any memory space may hold before the 
+	// least-recently-read ones are evicted to Top.
+	int MemoryCellBudget;
+	
+	// If set, gather and print per-opcode statistics during the analysis.
+	boolean CollectMetrics;
+	
+	// If set, skip the pcode operations whose outputs are never read.
+	boolean EliminateDeadOps;
+	
+	// If set, defer evaluating operations until their outputs are read.
+	boolean LazyEvaluation;
+	
+	// If set, AbstractInterpret records the state at every instruction into
+	// History, keeping at most HistoryBudget bytes of it on the heap.
+	boolean RecordHistory;
+	long HistoryBudget;
+	StateHistory History;
+	
+	// If non-null, AbstractInterpret saves its position and state here every
+	// CheckpointSeconds, and when cancelled. If Resume is set and the file 
+	// exists, it picks up from there instead of starting over.
+	File CheckpointFile;
+	long CheckpointSeconds;
+	boolean Resume;
+	
+	// If positive, AbstractInterpret decodes pcode on a separate thread, up to 
+	// this many blocks ahead of the interpreter.
+	int PipelineDepth;
+	
+	// Where this run's warnings and debug output go.
+	Diagnostics Diag;
+	
+	// ScanOpaquePredicates() runs on this many threads (0 for one per core), 
+	// and, when scanning by region, splits the code into chunks of this size.
+	int ScanThreads;
+	long ScanRegionBytes;
+	// If set, ScanOpaquePredicates() also patches the branches that every 
+	// function decided alike and clears the code that none of them reached, 
+	// all in one transaction.
+	boolean PatchDecidedBranches;
+	// If set, ScanOpaquePredicates() analyzes calls through function 
+	// summaries, with this many bytes of stack arguments in the projection.
+	boolean Interprocedural;
+	int SummaryStackWindow;
+	// If set (and Interprocedural), summaries and analysis results are kept 
+	// in a FunctionStore in this directory, shared with other programs and 
+	// other processes, and compacted beyond this many bytes.
+	File SummaryStore;
+	long SummaryStoreBytes;
+	
+	// Export the initialized bytes of the default address space into a 
+	// temporary file, and map it.
+	ProgramImage ExportProgramImage() throws Exception
+	{
+		AddressSpace ram = currentProgram.getAddressFactory().getDefaultAddressSpace();
+		File f = File.createTempFile("tvl-image-", ".bin");
+		f.deleteOnExit();
+		println("Exporting initialized memory of "+ram.getName()+" to "+f);
+		return ProgramImage.Export(currentProgram, ram, f);
+	}
+
 	public void TestAbstractTransformers() throws Exception {
 		TransformerTester tt = new TransformerTester(currentProgram);
 		tt.TestBinaryPcode(PcodeOp.INT_ADD, 1, 0x12, 0x34);
 	}
 
-	void AbstractInterpret(InstructionIterator instructions, boolean setTF, int TFvalue, boolean debug) throws Exception
+	// Write the pcode for the instructions out to a trace file, which can be 
+	// replayed later by PcodeTraceReplayer without the program database.
+	void ExportTrace(InstructionIterator instructions, File f) throws Exception
+	{
+		long n = 0;
+		try(PcodeTraceWriter w = new PcodeTraceWriter(f, currentProgram.getLanguage().isBigEndian()))
+		{
+			while (instructions.hasNext()) {
+				monitor.checkCanceled();
+				Instruction instr = instructions.next();
+				w.Instruction(instr.getAddress(), instr.getPcode());
+				n++;
+			}
+		}
+		println("Exported "+n+" instructions to "+f);
+	}
+
+	// Run the sparse analysis over the decompiler's SSA form of a function, and
+	// report on what it found.
+	SparseTVLAnalysis SparseAnalyze(Function f) throws Exception
+	{
+		DecompInterface ifc = new DecompInterface();
+		try {
+			ifc.openProgram(currentProgram);
+			DecompileResults res = ifc.decompileFunction(f, 60, monitor);
+			HighFunction hf = res == null ? null : res.getHighFunction();
+			if(hf == null)
+			{
+				println("Could not decompile "+f.getName()+": "+(res == null ? "" : res.getErrorMessage()));
+				return null;
+			}
+			SparseTVLAnalysis sa = new SparseTVLAnalysis(hf.getPcodeOps());
+			sa.Run(monitor);
+			int known = 0;
+			for(TVLBitVector v : sa.Values.values())
+				if(v.GetConstantBigValue() != null)
+					known++;
+			println(f.getName()+": "+sa.Ops.size()+" pcode operations, "+sa.Evaluations+" evaluations, "+
+			        known+" of "+sa.Values.size()+" varnodes constant");
+			for(Pair<PcodeOp,Boolean> p : sa.DecidedBranches())
+				println("  Branch at "+p.x.getSeqnum().getTarget()+" is "+(p.y ? "always" : "never")+" taken");
+			return sa;
+		}
+		finally {
+			ifc.dispose();
+		}
+	}
+	
+	// Summaries over the program's functions, starting from the given state.
+	// Thunks are followed to what they call; external functions have no body.
+	FunctionSummaries NewSummaries(TVLAbstractGhidraState initial)
+	{
+		Listing listing = currentProgram.getListing();
+		FunctionManager functions = currentProgram.getFunctionManager();
+		ghidra.program.model.lang.CompilerSpec spec = currentProgram.getCompilerSpec();
+		Varnode sp = new VarnodeTranslator(currentProgram).getVarnode(spec.getStackPointer());
+		int stackSpace = initial.SpaceIndex(spec.getStackBaseSpace().getSpaceID());
+		int argsOffset = "x86".equals(currentProgram.getLanguage().getProcessor().toString()) ? sp.getSize() : 0;
+		return new FunctionSummaries(initial, sp, stackSpace, argsOffset, SummaryStackWindow, LazyEvaluation, a -> {
+			Function f = functions.getFunctionAt(a);
+			if(f != null && f.isThunk())
+				f = f.getThunkedFunction(true);
+			if(f == null || f.isExternal())
+				return null;
+			AddressSetView body = f.getBody();
+			return new OpaquePredicateScan.Unit(f.getName(), f.getEntryPoint(), body.getNumAddresses(), () -> listing.getInstructions(body, true));
+		});
+	}
+	
+	// Scan the whole program for branches that the analysis decides, on 
+	// ScanThreads threads. Either function by function, or, if byFunction 
+	// isn't set, over the execute set in chunks of ScanRegionBytes, where 
+	// every block is taken to be reachable from outside. The rows go to the 
+	// report file as they're found, or to the diagnostics if there isn't one.
+	void ScanOpaquePredicates(boolean byFunction, File report) throws Exception
+	{
+		TVLAbstractInterpreter template = NewInterpreter(false, 0);
+		Listing listing = currentProgram.getListing();
+		ArrayList<OpaquePredicateScan.Unit> units = new ArrayList<>();
+		if(byFunction)
+		{
+			for(Function f : currentProgram.getFunctionManager().getFunctions(true))
+				if(!f.isExternal() && !f.isThunk())
+					units.add(new OpaquePredicateScan.Unit(f.getName(), f.getEntryPoint(), f.getBody().getNumAddresses(), 
+						() -> listing.getInstructions(f.getBody(), true)));
+		}
+		else
+		{
+			// Control can come into a region anywhere that something refers to,
+			// from another region or from anywhere else, and at any function's 
+			// entry point.
+			ghidra.program.model.symbol.ReferenceManager refs = currentProgram.getReferenceManager();
+			FunctionManager functions = currentProgram.getFunctionManager();
+			java.util.function.Predicate<Address> entries = a -> refs.hasReferencesTo(a) || functions.getFunctionAt(a) != null;
+			for(AddressRange r : currentProgram.getMemory().getExecuteSet())
+			{
+				for(long off = 0; off < r.getLength(); off += ScanRegionBytes)
+				{
+					Address lo = r.getMinAddress().add(off);
+					Address hi = r.getMinAddress().add(Math.min(off + ScanRegionBytes, r.getLength()) - 1);
+					AddressSet chunk = new AddressSet(lo, hi);
+					units.add(new OpaquePredicateScan.Unit(lo.toString(), null, hi.subtract(lo) + 1, 
+						() -> listing.getInstructions(chunk, true), entries));
+				}
+			}
+		}
+		
+		java.io.BufferedWriter out = report != null ? Files.newBufferedWriter(report.toPath(), StandardCharsets.UTF_8) : null;
+		java.util.function.Consumer<String> sink;
+		if(out != null)
+		{
+			out.write(OpaqueBranch.Header);
+			out.newLine();
+			sink = line -> {
+				try {
+					out.write(line);
+					out.newLine();
+				}
+				catch(IOException e) {
+					throw new java.io.UncheckedIOException(e);
+				}
+			};
+		}
+		else
+			sink = line -> Diag.Log("Decided branch", line);
+		
+		OpaquePredicateScan scan = new OpaquePredicateScan(template.AbstractState, ScanThreads, LazyEvaluation, sink);
+		if(PatchDecidedBranches)
+			scan.Patches = new BranchPatchSet(currentProgram.getLanguage());
+		if(Interprocedural)
+			scan.Summaries = NewSummaries(template.AbstractState);
+		if(scan.Summaries != null && SummaryStore != null)
+			scan.Summaries.Store = new FunctionStore(SummaryStore, currentProgram.getLanguageID().getIdAsString(), SummaryStoreBytes);
+		long start = System.nanoTime();
+		try {
+			scan.Run(units, monitor);
+		}
+		finally {
+			if(out != null)
+				out.close();
+			if(scan.Summaries != null && scan.Summaries.Store != null)
+				scan.Summaries.Store.close();
+		}
+		Diag.Flush();
+		println(String.format("Scanned %d %s on %d threads in %.1fs: %d decided branches, %d block visits; %d incomplete, %d failed",
+			units.size(), byFunction ? "functions" : "regions", scan.Threads, (System.nanoTime() - start) / 1e9,
+			scan.Branches.sum(), scan.BlockVisits.sum(), scan.Incomplete.sum(), scan.Failed.sum()));
+		if(report != null)
+			println("Report written to "+report);
+		if(scan.Summaries != null)
+			println("Summaries: "+scan.Summaries.Computed.sum()+" computed, "+scan.Summaries.Hits.sum()+" reused, "+
+				scan.Summaries.Recursive.sum()+" recursive calls, "+scan.Summaries.Clobbered.sum()+" calls forgot everything");
+		if(scan.Summaries != null && scan.Summaries.Store != null)
+		{
+			FunctionStore st = scan.Summaries.Store;
+			println("Store: "+scan.Reused.sum()+" functions reused, "+st.Found.sum()+" results found, "+st.Stale.sum()+" stale, "+
+				st.Written.sum()+" written, "+st.Compactions.sum()+" compactions");
+		}
+		if(scan.Patches != null)
+		{
+			int n = scan.Patches.Apply(currentProgram, monitor);
+			println("Patched "+n+" branches and cleared "+scan.Patches.Cleared+" dead ranges; "+
+				scan.Patches.Unencodable+" branches could not be patched, "+scan.Patches.Conflicts+" patches conflicted, "+
+				scan.Patches.Vetoes+" were left out because some function didn't decide them the same way, "+
+				scan.Patches.Referenced+" dead ranges were kept because something refers to them");
+		}
+	}
+	
+	// The slicer for the selection that was last queried, so that its cached 
+	// slices are reused when the same selection is queried again.
+	PcodeSlicer Slicer;
+	AddressSetView SlicerSelection;
+	Instruction[] SlicerInstructions;
+	
+	// Answer "what is the register just before the instruction at the given 
+	// address" (or after the last instruction, if at is null), by interpreting
+	// only the backward slice from there.
+	TVLBitVector Query(AddressSetView set, Address at, String regName, boolean setTF, int TFvalue) throws Exception
+	{
+		if(Slicer == null || !set.equals(SlicerSelection))
+		{
+			ArrayList<Instruction> instrs = new ArrayList<>();
+			ArrayList<PcodeOp[]> pcode = new ArrayList<>();
+			for(Instruction instr : currentProgram.getListing().getInstructions(set, true))
+			{
+				instrs.add(instr);
+				pcode.add(instr.getPcode());
+			}
+			Address[] addrs = new Address[instrs.size()];
+			for(int k = 0; k < addrs.length; k++)
+				addrs[k] = instrs.get(k).getAddress();
+			SlicerInstructions = instrs.toArray(new Instruction[0]);
+			Slicer = new PcodeSlicer(addrs, pcode.toArray(new PcodeOp[0][]));
+			SlicerSelection = set;
+		}
+		Varnode what = new VarnodeTranslator(currentProgram).getVarnode(currentProgram.getLanguage().getRegister(regName));
+		PcodeSlicer.Slice sl = Slicer.Compute(at, what);
+		if(sl == null)
+		{
+			println("No instruction at "+at+" in the selection");
+			return null;
+		}
+		
+		TVLAbstractInterpreter visitor = NewInterpreter(setTF, TFvalue);
+		for(int k = 0; k < sl.End; k++)
+		{
+			monitor.checkCanceled();
+			boolean any = false;
+			for(int i = 0; i < sl.Included[k].length; i++)
+			{
+				if(sl.Included[k][i])
+				{
+					visitor.visit(SlicerInstructions[k], Slicer.Pcode[k][i]);
+					any = true;
+				}
+			}
+			if(any)
+				visitor.AbstractState.ClearUniques();
+		}
+		TVLBitVector result = visitor.AbstractState.Lookup(what);
+		println(regName+(at == null ? " at the end" : " before "+at)+": "+result+" (interpreted "+sl.NumOps+" pcode operations from "+
+		        sl.NumInstructions+" of "+sl.End+" instructions)");
+		return result;
+	}
+	
+	// Look up the value of a register just before the instruction at the given
+	// address (the last time it was executed) in the recorded history.
+	TVLBitVector HistoryQuery(Address at, String regName) throws Exception
+	{
+		if(History == null)
+		{
+			println("No history was recorded; set RecordHistory");
+			return null;
+		}
+		Varnode what = new VarnodeTranslator(currentProgram).getVarnode(currentProgram.getLanguage().getRegister(regName));
+		TVLBitVector result = History.Query(at, what, false);
+		println(regName+" before "+at+": "+(result == null ? "never executed" : result));
+		return result;
+	}
+	
+	// Create an interpreter with the initial state that the analyses assume, 
+	// and the options set up above.
+	TVLAbstractInterpreter NewInterpreter(boolean setTF, int TFvalue)
 	{
 		Language l = currentProgram.getLanguage();
 		TVLAbstractInterpreter visitor = new TVLAbstractInterpreter(l.isBigEndian());
@@ -1797,13 +9425,25 @@ public class ThreeValuedAbstractInterpreter extends GhidraScript {
 		// Get Register/Varnode objects for designated x86 registers
 		Register rESP = l.getRegister("ESP");
 		Register rTF  = l.getRegister("TF");
-		Register rAL  = l.getRegister("AL");
 		Varnode vESP = vt.getVarnode(rESP);
 		Varnode vTF  = vt.getVarnode(rTF);
-		Varnode vAL  = vt.getVarnode(rAL);
 		
 		// Initialize ESP (otherwise we can't track memory)
 		visitor.AbstractState.Associate(vESP, new TVLBitVector(32, 0x1000));
+		
+		// LOAD and STORE name the space by its id. Let reads from the default 
+		// space fall back upon the program's bytes, if requested.
+		if(Image != null)
+		{
+			long ramId = currentProgram.getAddressFactory().getDefaultAddressSpace().getSpaceID();
+			visitor.AbstractState.AttachImage(visitor.AbstractState.SpaceIndex(ramId), Image);
+		}
+		if(MemoryCellBudget > 0)
+			visitor.AbstractState.SetCellBudget(MemoryCellBudget);
+		if(CollectMetrics)
+			visitor.Metrics = new PcodeOpMetrics();
+		visitor.Lazy = LazyEvaluation;
+		visitor.AbstractState.Diag = Diag;
 
 		// If the caller wanted to pre-initialize TF, do that
 		if(setTF)
@@ -1813,47 +9453,130 @@ public class ThreeValuedAbstractInterpreter extends GhidraScript {
 		}
 		else
 			println("Analyzing without setting TF");
+		return visitor;
+	}
+	
+	void AbstractInterpret(InstructionIterator instructions, boolean setTF, int TFvalue, boolean debug) throws Exception
+	{
+		TVLAbstractInterpreter visitor = NewInterpreter(setTF, TFvalue);
+		Varnode vAL = new VarnodeTranslator(currentProgram).getVarnode(currentProgram.getLanguage().getRegister("AL"));
+		long deferredBefore = LazyValue.Deferred.sum(), evaluatedBefore = LazyValue.Evaluated.sum();
 
 		// Now, do it...
+		InstructionBatchRecorder batches = new InstructionBatchRecorder();
+		
+		// Pick up where a checkpoint left off: load its state, and skip the 
+		// instructions that it had already done.
+		long done = 0;
+		Instruction next = instructions.hasNext() ? instructions.next() : null;
+		if(Resume && CheckpointFile != null && CheckpointFile.exists())
+		{
+			Pair<Long,Long> pos = StateCheckpointer.Load(CheckpointFile, visitor.AbstractState);
+			done = pos.x;
+			while(next != null && (pos.y == null || next.getAddress().getOffset() != pos.y))
+				next = instructions.hasNext() ? instructions.next() : null;
+			println("Resumed from "+CheckpointFile+" after "+done+" instructions"+(next == null && pos.y != null ? ", but its next instruction isn't in the selection" : ""));
+		}
+		StateCheckpointer checkpointer = CheckpointFile != null ? new StateCheckpointer(CheckpointFile, CheckpointSeconds) : null;
+		Address resumePoint = null;
+		
+		// The history has to see every write, including the dead ones.
+		if(History != null)
+			History.close();
+		History = null;
+		if(RecordHistory)
+		{
+			History = new StateHistory(HistoryBudget, 64);
+			History.Attach(visitor.AbstractState);
+		}
+		PcodeLiveness liveness = EliminateDeadOps && History == null ? new PcodeLiveness() : null;
+		
+		// The instructions come in blocks, so that the operations whose outputs
+		// are dead can be skipped, decoded on another thread if PipelineDepth 
+		// is positive.
+		PcodeBlockProducer producer = new PcodeBlockProducer(next, instructions, PipelineDepth, monitor);
 		try {
-			// For each instruction in the selection...
-			while (instructions.hasNext()) {
-				monitor.checkCanceled();
-				Instruction instr = instructions.next();
-				PcodeOp[] pcode = instr.getPcode();
-
-				// Iterate through its pcode translation...
-				for (int i = 0; i < pcode.length; i++) {
-					// Print out the pcode details if requested
-					if(debug) {
-						println(pcode[i].toString());
-						//Varnode	output = pcode[i].getOutput();
-						//if(output != null)
-						//	println("\t" + output.toString());
-						//Varnode[]	inputs = pcode[i].getInputs();
-						//for (int j = 0; j < inputs.length; ++j)
-						//{
-						//	println("\t"+j+" "+inputs[j].toString());
-						//	if(inputs[j].isConstant())
-						//		println("\t\tConstant value?"+inputs[j].getOffset());
-						//}
-					}
+			PcodeBlockProducer.Block decoded;
+			while ((decoded = producer.Take()) != null) {
+				Instruction[] block = decoded.Instructions;
+				PcodeOp[][] pcodes = decoded.Pcode;
+				boolean[][] dead = liveness != null ? liveness.DeadOps(pcodes) : null;
+				BlockVisitEvent be = new BlockVisitEvent();
+				be.begin();
+				int nBlockOps = 0;
+				
+				// For each instruction in the block...
+				for (int k = 0; k < block.length; k++) {
+					Instruction instr = block[k];
+					resumePoint = instr.getAddress();
+					monitor.checkCanceled();
+					PcodeOp[] pcode = pcodes[k];
 					
-					// Finally, abstractly interpret the pcode instruction
-					visitor.visit(instr,pcode[i]);
+					// Iterate through its pcode translation...
+					for (int i = 0; i < pcode.length; i++) {
+						if(dead != null && dead[k][i]) {
+							if(debug)
+								Diag.Log("Pcode (dead)", pcode[i]);
+							continue;
+						}
+						// Print out the pcode details if requested
+						if(debug) {
+							Diag.Log("Pcode", pcode[i]);
+							//Varnode	output = pcode[i].getOutput();
+							//if(output != null)
+							//	println("\t" + output.toString());
+							//Varnode[]	inputs = pcode[i].getInputs();
+							//for (int j = 0; j < inputs.length; ++j)
+							//{
+							//	println("\t"+j+" "+inputs[j].toString());
+							//	if(inputs[j].isConstant())
+							//		println("\t\tConstant value?"+inputs[j].getOffset());
+							//}
+						}
+						
+						// Finally, abstractly interpret the pcode instruction
+						visitor.visit(instr,pcode[i]);
+					}
+					// Performance optimization: unique values don't escape the pcode block
+					// for a given Instruction object. (I think!) So there's no need to 
+					// maintain that information across instructions. Again, I'm flying 
+					// blind here. That's not to say that I know for a fact that the 
+					// documentation settles this question one way or the other, just that
+					// I haven't read enough documentation / don't know the system well 
+					// enough to really make a conclusive statement on the subject...
+					visitor.AbstractState.ClearUniques();
+					if(History != null)
+						History.Instruction(instr.getAddress());
+					batches.Instruction(instr.getAddress(), pcode.length, visitor.AbstractState);
+					nBlockOps += pcode.length;
+					done++;
 				}
-				// Performance optimization: unique values don't escape the pcode block
-				// for a given Instruction object. (I think!) So there's no need to 
-				// maintain that information across instructions. Again, I'm flying 
-				// blind here. That's not to say that I know for a fact that the 
-				// documentation settles this question one way or the other, just that
-				// I haven't read enough documentation / don't know the system well 
-				// enough to really make a conclusive statement on the subject...
-				visitor.AbstractState.ClearUniques();
+				be.end();
+				if(be.shouldCommit())
+				{
+					be.BlockAddress = block[0].getAddress().toString();
+					be.Instructions = block.length;
+					be.PcodeOps = nBlockOps;
+					be.commit();
+				}
+				resumePoint = decoded.Next;
+				if(checkpointer != null)
+					checkpointer.Maybe(done, resumePoint, visitor.AbstractState);
 			}
+			batches.Flush(visitor.AbstractState);
 			
 			// After all instructions have been interpreted, print the value of AL.
 			println("Final value of AL: "+visitor.AbstractState.Lookup(vAL));
+			if(MemoryCellBudget > 0)
+				println("Memory cells evicted to Top: "+visitor.AbstractState.EvictionCount());
+			if(liveness != null)
+				println("Dead pcode operations skipped: "+liveness.NumDead+" of "+liveness.NumOps);
+			if(History != null)
+				println("State history: "+History.Count+" instructions, "+History.NumCheckpoints+" checkpoints, "+
+				        History.Bytes()+" bytes ("+History.Log.SpilledBytes()+" spilled)");
+			if(LazyEvaluation)
+				println("Deferred pcode operations: "+(LazyValue.Deferred.sum() - deferredBefore)+", of which "+
+				        (LazyValue.Evaluated.sum() - evaluatedBefore)+" were evaluated");
 		}
 		
 		// If we encountered a pcode/Varnode type that wasn't handled, be noisy.
@@ -1862,6 +9585,31 @@ public class ThreeValuedAbstractInterpreter extends GhidraScript {
 			println("Caught visitor unimplemented exception: "+e);
 		}
 		
+		// Cancelling happens between instructions, so the state is consistent
+		// with having done everything before resumePoint.
+		catch(CancelledException e)
+		{
+			if(checkpointer != null)
+			{
+				checkpointer.Save(done, resumePoint, visitor.AbstractState);
+				println("Cancelled; saved a checkpoint after "+done+" instructions to "+CheckpointFile);
+			}
+			throw e;
+		}
+		finally
+		{
+			producer.close();
+			if(checkpointer != null)
+				checkpointer.close();
+		}
+		
+		// Print the per-opcode statistics, even if the analysis stopped early.
+		if(visitor.Metrics != null)
+			visitor.Metrics.Dump();
+		
+		// Let the diagnostics catch up, so that they appear before whatever 
+		// gets printed next.
+		Diag.Flush();
 	}
 	
 	// Finally, the main method.
@@ -1883,15 +9631,90 @@ public class ThreeValuedAbstractInterpreter extends GhidraScript {
 		
 		boolean debug = false;
 		
-		TestAbstractTransformers();
+		// Set this to send diagnostics (e.g. the debug pcode listing) to a file
+		// rather than the console.
+		File diagnosticsFile = null;
+		Diag = diagnosticsFile != null ? Diagnostics.ToFile(diagnosticsFile) : new Diagnostics(Printer::println);
 		
-		// Abstract interpret under the assumption that TF = 0.
-		// AbstractInterpret(currentProgram.getListing().getInstructions(set, true), true,  0, debug);
+		// Whatever happens (including a cancel), the history's spill file and
+		// the diagnostics' thread and file are closed at the end.
+		try {
+			// Set this to serve reads of unwritten memory from the program's bytes.
+			boolean useProgramImage = false;
+			if(useProgramImage)
+				Image = ExportProgramImage();
+			
+			// Set this to bound the number of bytes held per memory space.
+			MemoryCellBudget = 0;
+			
+			// Set this to print per-opcode counts, latencies, and allocations.
+			CollectMetrics = false;
+			
+			// Set this to skip pcode operations whose outputs are dead.
+			EliminateDeadOps = false;
+			
+			// Set this to evaluate pcode operations only when their outputs are read.
+			LazyEvaluation = false;
+			
+			// Set this to record the state at every instruction, for HistoryQuery().
+			// Past the budget, the history spills to a temporary file.
+			RecordHistory = false;
+			HistoryBudget = 64L << 20;
+			
+			// Set this to checkpoint long analyses, and Resume to continue from the
+			// last checkpoint rather than starting over.
+			CheckpointFile = null;
+			CheckpointSeconds = 60;
+			Resume = false;
+			
+			// Set this to 0 to decode pcode on the script's thread.
+			PipelineDepth = 64;
+			
+			// Threads and region size for ScanOpaquePredicates().
+			ScanThreads = 0;
+			ScanRegionBytes = 64 << 10;
+			PatchDecidedBranches = false;
+			Interprocedural = false;
+			SummaryStackWindow = 32;
+			SummaryStore = null;
+			SummaryStoreBytes = 1L << 30;
+			
+			TestAbstractTransformers();
+			
+			// Export the selection as a pcode trace, for headless replay.
+			// ExportTrace(currentProgram.getListing().getInstructions(set, true), askFile("Pcode trace", "Export"));
+			
+			// Find the decided branches in every function, concurrently.
+			// ScanOpaquePredicates(true, askFile("Opaque predicate report", "Save"));
+			
+			// Analyze the function at the cursor sparsely, over its SSA form.
+			// SparseAnalyze(getFunctionContaining(currentAddress));
+			
+			// Ask for the value of AL at the end, interpreting only what it depends on.
+			// Query(set, null, "AL", true, 0);
+			
+			// Abstract interpret under the assumption that TF = 0.
+			// AbstractInterpret(currentProgram.getListing().getInstructions(set, true), true,  0, debug);
 
-		// Abstract interpret under the assumption that TF = 1.
-		// AbstractInterpret(currentProgram.getListing().getInstructions(set, true), true,  1, debug);
+			// Abstract interpret under the assumption that TF = 1.
+			// AbstractInterpret(currentProgram.getListing().getInstructions(set, true), true,  1, debug);
 
-		// Abstract interpret under the assumption that TF has not been set.
-		// AbstractInterpret(currentProgram.getListing().getInstructions(set, true), false, 0, debug);
+			// Abstract interpret under the assumption that TF has not been set.
+			// AbstractInterpret(currentProgram.getListing().getInstructions(set, true), false, 0, debug);
+			
+			// Then ask for the value of a register before some instruction.
+			// HistoryQuery(currentAddress, "EAX");
+		}
+		finally {
+			try {
+				if(History != null)
+					History.close();
+			}
+			finally {
+				// Write out whatever diagnostics are left, and close the file, 
+				// if there was one.
+				Diag.close();
+			}
+		}
 	}
 }
\ No newline at end of file